@@ -8,6 +8,7 @@ import com.appearnetworks.aiq.integrationframework.integration.DocumentReference
 import com.appearnetworks.aiq.integrationframework.integration.IntegrationAdapter;
 import com.appearnetworks.aiq.integrationframework.integration.UnavailableException;
 import com.appearnetworks.aiq.integrationframework.integration.UpdateException;
+import com.appearnetworks.aiq.integrationframework.server.IntegrationService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.apache.commons.fileupload.FileItemIterator;
@@ -45,6 +46,9 @@ public class IntegrationProtocol {
     @Autowired
     private IntegrationAdapter integrationAdapter;
 
+    @Autowired
+    private IntegrationService integrationService;
+
     private final ObjectMapper mapper = new ObjectMapper();
 
     @RequestMapping(value = "/datasync", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
@@ -204,6 +208,7 @@ public class IntegrationProtocol {
 
     @RequestMapping(value = "/logout", method = RequestMethod.POST)
     public ResponseEntity<Object> logout(@RequestBody LogoutRequest request) {
+        integrationService.invalidateUserTokens(request.getUserId());
         integrationAdapter.logout(request.getUserId());
         return new ResponseEntity<>(NO_CONTENT);
     }
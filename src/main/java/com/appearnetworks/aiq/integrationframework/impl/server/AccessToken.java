@@ -1,6 +1,7 @@
 package com.appearnetworks.aiq.integrationframework.impl.server;
 
 import com.appearnetworks.aiq.integrationframework.server.User;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -31,6 +32,19 @@ public class AccessToken {
         return expires_in;
     }
 
+    /**
+     * @return lifetime of the token in seconds, or -1 if not given by the server
+     */
+    @JsonIgnore
+    public long getExpiresInSeconds() {
+        if (expires_in == null) return -1;
+        try {
+            return Long.parseLong(expires_in.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     public String getScope() {
         return scope;
     }
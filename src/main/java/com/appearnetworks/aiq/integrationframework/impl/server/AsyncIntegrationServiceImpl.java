@@ -0,0 +1,386 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.*;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureTask;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the operations of the synchronous {@link IntegrationService} on a bounded thread pool.
+ */
+@Component
+public class AsyncIntegrationServiceImpl implements AsyncIntegrationService {
+    @Value("${aiq.async.threads:8}")
+    private int threads;
+
+    @Value("${aiq.async.queueCapacity:1000}")
+    private int queueCapacity;
+
+    @Autowired
+    private IntegrationService integrationService;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                HttpTransport.daemonThreadFactory("aiq-async-"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    @Override
+    public ListenableFuture<List<ClientSession>> fetchClientSessions() {
+        return submit(new Callable<List<ClientSession>>() {
+            @Override
+            public List<ClientSession> call() {
+                return integrationService.fetchClientSessions();
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> forEachClientSession(final Visitor<ClientSession> visitor) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                integrationService.forEachClientSession(visitor);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<ClientSession> fetchClientSession(final String id) {
+        return submit(new Callable<ClientSession>() {
+            @Override
+            public ClientSession call() {
+                return integrationService.fetchClientSession(id);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Boolean> terminateClientSession(final String id) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return integrationService.terminateClientSession(id);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Boolean> updateBackendContext(final String userId, final String deviceId, final String provider, final ObjectNode data) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return integrationService.updateBackendContext(userId, deviceId, provider, data);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Boolean> removeBackendContext(final String userId, final String deviceId, final String provider) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return integrationService.removeBackendContext(userId, deviceId, provider);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<BackendContextUpdatesResult> updateBackendContexts(final Collection<BackendContextUpdate> updates) {
+        return submit(new Callable<BackendContextUpdatesResult>() {
+            @Override
+            public BackendContextUpdatesResult call() {
+                return integrationService.updateBackendContexts(updates);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<String> createBackendMessage(final BackendMessage message) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return integrationService.createBackendMessage(message);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<String> createBackendMessage(final BackendMessage message, final Collection<MessageAttachment> attachments) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return integrationService.createBackendMessage(message, attachments);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> enqueueBackendMessage(final BackendMessage message) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                integrationService.enqueueBackendMessage(message);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<BackendMessagesResult> createBackendMessages(final Collection<BackendMessage> messages) {
+        return submit(new Callable<BackendMessagesResult>() {
+            @Override
+            public BackendMessagesResult call() {
+                return integrationService.createBackendMessages(messages);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<EnrichedBackendMessage> fetchBackendMessage(final String id) {
+        return submit(new Callable<EnrichedBackendMessage>() {
+            @Override
+            public EnrichedBackendMessage call() {
+                return integrationService.fetchBackendMessage(id);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<BackendMessageReadStatistics> fetchBackendMessageReadStatistics(final String id) {
+        return submit(new Callable<BackendMessageReadStatistics>() {
+            @Override
+            public BackendMessageReadStatistics call() {
+                return integrationService.fetchBackendMessageReadStatistics(id);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Boolean> updateBackendMessage(final String id, final BackendMessageUpdate messageUpdate) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return integrationService.updateBackendMessage(id, messageUpdate);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Boolean> deleteBackendMessage(final String id) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return integrationService.deleteBackendMessage(id);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<List<EnrichedBackendMessage>> fetchBackendMessages() {
+        return submit(new Callable<List<EnrichedBackendMessage>>() {
+            @Override
+            public List<EnrichedBackendMessage> call() {
+                return integrationService.fetchBackendMessages();
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<List<EnrichedBackendMessage>> fetchBackendMessages(final boolean withPayload) {
+        return submit(new Callable<List<EnrichedBackendMessage>>() {
+            @Override
+            public List<EnrichedBackendMessage> call() {
+                return integrationService.fetchBackendMessages(withPayload);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<List<EnrichedBackendMessage>> fetchBackendMessages(final String messageType, final boolean withPayload) {
+        return submit(new Callable<List<EnrichedBackendMessage>>() {
+            @Override
+            public List<EnrichedBackendMessage> call() {
+                return integrationService.fetchBackendMessages(messageType, withPayload);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> forEachBackendMessage(final String messageType, final boolean withPayload, final Visitor<EnrichedBackendMessage> visitor) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                integrationService.forEachBackendMessage(messageType, withPayload, visitor);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> newDataAvailableForUsers(final List<String> userIds) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                integrationService.newDataAvailableForUsers(userIds);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> newDataAvailableForUsers(final List<String> userIds, final ObjectNode condition) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                integrationService.newDataAvailableForUsers(userIds, condition);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<NewDataAvailableResult> newDataAvailableForUsersChunked(final List<String> userIds) {
+        return submit(new Callable<NewDataAvailableResult>() {
+            @Override
+            public NewDataAvailableResult call() {
+                return integrationService.newDataAvailableForUsersChunked(userIds);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<NewDataAvailableResult> newDataAvailableForUsersChunked(final List<String> userIds, final ObjectNode condition) {
+        return submit(new Callable<NewDataAvailableResult>() {
+            @Override
+            public NewDataAvailableResult call() {
+                return integrationService.newDataAvailableForUsersChunked(userIds, condition);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> newDataAvailableForLaunchables(final List<String> launchableIds) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                integrationService.newDataAvailableForLaunchables(launchableIds);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> newDataAvailableForLaunchables(final List<String> launchableIds, final ObjectNode condition) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                integrationService.newDataAvailableForLaunchables(launchableIds, condition);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> newDataAvailableForAllUsers() {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                integrationService.newDataAvailableForAllUsers();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> newDataAvailableForAllUsers(final ObjectNode condition) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                integrationService.newDataAvailableForAllUsers(condition);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<User> validateUserToken(final String token) {
+        return submit(new Callable<User>() {
+            @Override
+            public User call() {
+                return integrationService.validateUserToken(token);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<List<User>> fetchUsers() {
+        return submit(new Callable<List<User>>() {
+            @Override
+            public List<User> call() {
+                return integrationService.fetchUsers();
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> forEachUser(final Visitor<User> visitor) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                integrationService.forEachUser(visitor);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<User> fetchUser(final String id) {
+        return submit(new Callable<User>() {
+            @Override
+            public User call() {
+                return integrationService.fetchUser(id);
+            }
+        });
+    }
+
+    private <T> ListenableFuture<T> submit(Callable<T> call) {
+        ListenableFutureTask<T> task = new ListenableFutureTask<>(call);
+        try {
+            executor.execute(task);
+            return task;
+        } catch (RejectedExecutionException e) {
+            ListenableFutureTask<T> rejected = new ListenableFutureTask<>(new Callable<T>() {
+                @Override
+                public T call() {
+                    throw new ServerUnavailableException("Too many pending requests to server");
+                }
+            });
+            rejected.run();
+            return rejected;
+        }
+    }
+}
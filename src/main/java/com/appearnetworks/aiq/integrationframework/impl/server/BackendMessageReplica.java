@@ -0,0 +1,274 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.EnrichedBackendMessage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local copy of the backend messages on the server, indexed by type, launchable and expiry.
+ * <p/>
+ * It is filled by {@link #reconcile} with the full list from the server, and kept up to date in between by
+ * {@link #put} and {@link #remove} for the changes made through this client. Local changes made while a list is being
+ * downloaded are kept when that list is reconciled, since the list may predate them. Messages past their expiry
+ * ({@code activeFrom}, or {@code created} if not set, plus {@code timeToLive}) are left out of lookups and dropped.
+ */
+public class BackendMessageReplica {
+    private final Map<String, Entry> byId = new LinkedHashMap<>();
+    private final Map<String, Set<String>> byType = new HashMap<>();
+    private final Map<String, Set<String>> byLaunchable = new HashMap<>();
+    private final TreeMap<Long, Set<String>> byExpiry = new TreeMap<>();
+
+    /**
+     * Version of the latest local change of each id, until a list downloaded after it is reconciled.
+     */
+    private final Map<String, Long> localChanges = new HashMap<>();
+    private long version;
+    private boolean synced;
+
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+
+    /**
+     * @return the version to pass to {@link #reconcile} with a list downloaded after this call
+     */
+    synchronized long beginSync() {
+        return version;
+    }
+
+    /**
+     * Replace the content with {@code messages} downloaded from the server, except for the ids changed locally after
+     * {@link #beginSync} returned {@code since}.
+     */
+    synchronized void reconcile(Collection<EnrichedBackendMessage> messages, long since) {
+        Map<String, Entry> kept = new HashMap<>();
+        Set<String> removed = new LinkedHashSet<>();
+        for (Iterator<Map.Entry<String, Long>> iterator = localChanges.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, Long> change = iterator.next();
+            if (change.getValue() > since) {
+                Entry entry = byId.get(change.getKey());
+                if (entry != null) {
+                    kept.put(change.getKey(), entry);
+                } else {
+                    removed.add(change.getKey());
+                }
+            } else {
+                iterator.remove();
+            }
+        }
+
+        clear();
+        for (EnrichedBackendMessage message : messages) {
+            if (!kept.containsKey(message.get_id()) && !removed.contains(message.get_id())) {
+                index(new Entry(message));
+            }
+        }
+        for (Entry entry : kept.values()) {
+            index(entry);
+        }
+        expire(System.currentTimeMillis());
+        synced = true;
+        syncs.incrementAndGet();
+    }
+
+    /**
+     * Add or replace a message created or updated through this client.
+     */
+    synchronized void put(EnrichedBackendMessage message) {
+        unindex(message.get_id());
+        index(new Entry(message));
+        localChanges.put(message.get_id(), ++version);
+    }
+
+    /**
+     * Forget a message deleted through this client, or no longer found on the server.
+     */
+    synchronized void remove(String id) {
+        unindex(id);
+        localChanges.put(id, ++version);
+    }
+
+    /**
+     * @return whether a list from the server has been reconciled, and lookups can be answered locally
+     */
+    public synchronized boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * @return the message, or {@code null} if not found or expired
+     */
+    public synchronized EnrichedBackendMessage get(String id) {
+        lookups.incrementAndGet();
+        Entry entry = byId.get(id);
+        return entry != null && !entry.isExpired(System.currentTimeMillis()) ? entry.message : null;
+    }
+
+    /**
+     * @return all messages which have not expired
+     */
+    public synchronized List<EnrichedBackendMessage> getAll() {
+        return collect(byId.keySet());
+    }
+
+    /**
+     * @return the messages of {@code type} which have not expired
+     */
+    public synchronized List<EnrichedBackendMessage> getByType(String type) {
+        return collect(byType.get(type));
+    }
+
+    /**
+     * @return the messages for {@code launchable} which have not expired
+     */
+    public synchronized List<EnrichedBackendMessage> getByLaunchable(String launchable) {
+        return collect(byLaunchable.get(launchable));
+    }
+
+    /**
+     * @return the messages which have not expired yet but will have at {@code time} (milliseconds since epoch),
+     * soonest first
+     */
+    public synchronized List<EnrichedBackendMessage> getExpiringBefore(long time) {
+        long now = System.currentTimeMillis();
+        lookups.incrementAndGet();
+        List<EnrichedBackendMessage> messages = new ArrayList<>();
+        if (time <= now) {
+            return messages;
+        }
+        for (Set<String> ids : byExpiry.subMap(now, false, time, false).values()) {
+            for (String id : ids) {
+                messages.add(byId.get(id).message);
+            }
+        }
+        return messages;
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    /**
+     * @return number of lookups answered locally
+     */
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+    /**
+     * @return number of lists from the server reconciled
+     */
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    private List<EnrichedBackendMessage> collect(Set<String> ids) {
+        lookups.incrementAndGet();
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        long now = System.currentTimeMillis();
+        List<EnrichedBackendMessage> messages = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Entry entry = byId.get(id);
+            if (!entry.isExpired(now)) {
+                messages.add(entry.message);
+            }
+        }
+        return messages;
+    }
+
+    private void expire(long now) {
+        Map<Long, Set<String>> expired = byExpiry.headMap(now, true);
+        List<String> ids = new ArrayList<>();
+        for (Set<String> expiredIds : expired.values()) {
+            ids.addAll(expiredIds);
+        }
+        for (String id : ids) {
+            unindex(id);
+        }
+    }
+
+    private void clear() {
+        byId.clear();
+        byType.clear();
+        byLaunchable.clear();
+        byExpiry.clear();
+    }
+
+    private void index(Entry entry) {
+        String id = entry.message.get_id();
+        byId.put(id, entry);
+        add(byType, entry.message.getType(), id);
+        add(byLaunchable, entry.message.get_launchable(), id);
+        add(byExpiry, entry.expiresAt, id);
+    }
+
+    private void unindex(String id) {
+        Entry entry = byId.remove(id);
+        if (entry != null) {
+            remove(byType, entry.message.getType(), id);
+            remove(byLaunchable, entry.message.get_launchable(), id);
+            remove(byExpiry, entry.expiresAt, id);
+        }
+    }
+
+    private static <K> void add(Map<K, Set<String>> index, K key, String id) {
+        if (key == null) {
+            return;
+        }
+        Set<String> ids = index.get(key);
+        if (ids == null) {
+            ids = new LinkedHashSet<>();
+            index.put(key, ids);
+        }
+        ids.add(id);
+    }
+
+    private static <K> void remove(Map<K, Set<String>> index, K key, String id) {
+        if (key == null) {
+            return;
+        }
+        Set<String> ids = index.get(key);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static class Entry {
+        final EnrichedBackendMessage message;
+        /**
+         * {@code null} if the message does not expire
+         */
+        final Long expiresAt;
+
+        Entry(EnrichedBackendMessage message) {
+            this.message = message;
+            if (message.getTimeToLive() > 0) {
+                long start = message.getActiveFrom() != null
+                        ? message.getActiveFrom().getTime()
+                        : message.getCreated().getTime();
+                this.expiresAt = start + message.getTimeToLive() * 1000L;
+            } else {
+                this.expiresAt = null;
+            }
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != null && expiresAt <= now;
+        }
+    }
+}
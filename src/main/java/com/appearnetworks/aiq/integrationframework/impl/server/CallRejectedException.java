@@ -0,0 +1,15 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+
+/**
+ * A call given up on by this client without an answer from the server, e.g. since too many calls are waiting
+ * or the caller was interrupted, so it says nothing about the health of the server.
+ */
+class CallRejectedException extends ServerUnavailableException {
+    private static final long serialVersionUID = 1L;
+
+    CallRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,187 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops calling an endpoint family which keeps failing, so callers fail fast instead of waiting for timeouts.
+ * <p/>
+ * The breaker opens when at least {@code failureRateThreshold} percent of the last {@code windowSize} calls failed,
+ * once {@code minimumCalls} have been recorded. While open, calls are rejected with {@link ServerUnavailableException}.
+ * After {@code openDuration} milliseconds, up to {@code halfOpenCalls} probe calls are let through:
+ * if they all succeed the breaker closes, if any fails it opens again.
+ */
+public class CircuitBreaker {
+    private static final Log LOG = LogFactory.getLog(CircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureRateThreshold;
+    private final int minimumCalls;
+    private final long openDuration;
+    private final int halfOpenCalls;
+
+    /**
+     * Outcome of the last calls, {@code true} for failure.
+     */
+    private final boolean[] window;
+    private int windowPosition;
+    private int windowCount;
+    private int windowFailures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong halfOpened = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    CircuitBreaker(String name, int failureRateThreshold, int minimumCalls, int windowSize, long openDuration, int halfOpenCalls) {
+        this.name = name;
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = minimumCalls;
+        this.window = new boolean[Math.max(windowSize, 1)];
+        this.openDuration = openDuration;
+        this.halfOpenCalls = Math.max(halfOpenCalls, 1);
+    }
+
+    /**
+     * Ask to make a call.
+     *
+     * @return {@code true} if the call is a half-open probe, to be passed to {@link #record}
+     * @throws ServerUnavailableException if the breaker is open
+     */
+    synchronized boolean acquire() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) {
+            transition(State.HALF_OPEN);
+            halfOpenPermits = halfOpenCalls;
+            halfOpenSuccesses = 0;
+        }
+        if (state == State.CLOSED) {
+            return false;
+        }
+        if (state == State.HALF_OPEN && halfOpenPermits > 0) {
+            halfOpenPermits--;
+            return true;
+        }
+        // open, or enough probes in flight
+        rejected.incrementAndGet();
+        throw new CallRejectedException("Circuit breaker for " + name + " is open");
+    }
+
+    /**
+     * Give back a call allowed by {@link #acquire} which did not reach the server, without recording an outcome.
+     */
+    synchronized void release(boolean probe) {
+        if (probe && state == State.HALF_OPEN) {
+            halfOpenPermits++;
+        }
+    }
+
+    /**
+     * Record the outcome of a call allowed by {@link #acquire}.
+     */
+    synchronized void record(boolean probe, boolean success) {
+        if (probe) {
+            if (state != State.HALF_OPEN) return;
+            if (!success) {
+                open();
+            } else if (++halfOpenSuccesses >= halfOpenCalls) {
+                resetWindow();
+                transition(State.CLOSED);
+            }
+        } else if (state == State.CLOSED) {
+            if (windowCount == window.length) {
+                if (window[windowPosition]) windowFailures--;
+            } else {
+                windowCount++;
+            }
+            window[windowPosition] = !success;
+            if (!success) windowFailures++;
+            windowPosition = (windowPosition + 1) % window.length;
+
+            if (windowCount >= minimumCalls && windowFailures * 100 >= failureRateThreshold * windowCount) {
+                open();
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return percentage of failed calls among the recent ones while closed
+     */
+    public synchronized int getFailureRate() {
+        return windowCount == 0 ? 0 : windowFailures * 100 / windowCount;
+    }
+
+    /**
+     * @return number of transitions to {@link State#OPEN}
+     */
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    /**
+     * @return number of transitions to {@link State#HALF_OPEN}
+     */
+    public long getHalfOpenedCount() {
+        return halfOpened.get();
+    }
+
+    /**
+     * @return number of transitions back to {@link State#CLOSED}
+     */
+    public long getClosedCount() {
+        return closed.get();
+    }
+
+    /**
+     * @return number of calls rejected without contacting the server
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    private void open() {
+        openedAt = System.currentTimeMillis();
+        resetWindow();
+        transition(State.OPEN);
+    }
+
+    private void resetWindow() {
+        windowPosition = 0;
+        windowCount = 0;
+        windowFailures = 0;
+    }
+
+    private void transition(State to) {
+        if (state == to) return;
+        LOG.info("Circuit breaker for " + name + " changed from " + state + " to " + to);
+        state = to;
+        switch (to) {
+            case OPEN:
+                opened.incrementAndGet();
+                break;
+            case HALF_OPEN:
+                halfOpened.incrementAndGet();
+                break;
+            case CLOSED:
+                closed.incrementAndGet();
+                break;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerException;
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import com.appearnetworks.aiq.integrationframework.server.UnauthorizedException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive limit on the number of concurrent requests to the server (additive increase, multiplicative decrease).
+ * <p/>
+ * The limit grows by about one request per round trip while responses come back about as fast as usual,
+ * and is cut by {@code backoffRatio} when the server is unavailable, a request times out, or latency rises above
+ * {@code latencyTolerance} times its long-term average. Callers over the limit wait in line, at most
+ * {@code maxQueued} of them and for at most {@code maxWait} milliseconds, before being rejected
+ * with {@link ServerUnavailableException}.
+ */
+public class ConcurrencyLimiter {
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final double LATENCY_SMOOTHING = 0.05;
+
+    enum Outcome { SUCCESS, DROPPED, IGNORED }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueued;
+    private final long maxWait;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private double averageLatency;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueued, long maxWait) {
+        this.minLimit = Math.max(minLimit, 1);
+        this.maxLimit = Math.max(maxLimit, this.minLimit);
+        this.limit = Math.min(Math.max(initialLimit, this.minLimit), this.maxLimit);
+        this.maxQueued = maxQueued;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Wait until a request may be made, to be followed by {@link #release}.
+     *
+     * @throws ServerUnavailableException if too many callers are waiting already, or the wait takes too long
+     */
+    synchronized void acquire() {
+        if (tryAcquire()) {
+            return;
+        }
+        if (queued >= maxQueued) {
+            rejected.incrementAndGet();
+            throw new CallRejectedException("Too many concurrent requests to server");
+        }
+
+        queued++;
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+            while (inFlight >= (int) limit) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    rejected.incrementAndGet();
+                    throw new CallRejectedException("Timed out waiting to send request to server");
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            inFlight++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CallRejectedException("Interrupted while waiting to send request to server");
+        } finally {
+            queued--;
+        }
+    }
+
+    /**
+     * Take a request permit if one is free right away, to be followed by {@link #release} if taken.
+     */
+    synchronized boolean tryAcquire() {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return what a request which failed with {@code e} says about the server's capacity
+     */
+    static Outcome outcomeOf(RuntimeException e) {
+        if (e instanceof CallRejectedException) {
+            return Outcome.IGNORED; // never reached the server
+        } else if (e instanceof ServerUnavailableException) {
+            return Outcome.DROPPED;
+        } else if (e instanceof UnauthorizedException) {
+            return Outcome.SUCCESS; // the server did answer
+        } else if (e instanceof ServerException) {
+            ServerException serverException = (ServerException) e;
+            return serverException.getStatusCode() != null && !serverException.getStatusCode().is5xxServerError()
+                    ? Outcome.SUCCESS : Outcome.IGNORED;
+        }
+        return Outcome.IGNORED;
+    }
+
+    /**
+     * @param latency nanoseconds the request took
+     * @param outcome {@link Outcome#DROPPED} if the server could not handle it, {@link Outcome#IGNORED} if it says
+     *                nothing about the server's capacity
+     */
+    synchronized void release(long latency, Outcome outcome) {
+        inFlight--;
+
+        if (outcome == Outcome.DROPPED) {
+            dropped.incrementAndGet();
+            decrease();
+        } else if (outcome == Outcome.SUCCESS) {
+            if (averageLatency == 0) {
+                averageLatency = latency;
+            } else if (latency > averageLatency * LATENCY_TOLERANCE) {
+                decrease();
+            } else if (inFlight + 1 >= (int) limit / 2) {
+                // only grow when the limit is actually being used
+                limit = Math.min(limit + 1 / limit, maxLimit);
+            }
+            averageLatency += (latency - averageLatency) * LATENCY_SMOOTHING;
+        }
+        notifyAll();
+    }
+
+    private void decrease() {
+        limit = Math.max(limit * BACKOFF_RATIO, minLimit);
+    }
+
+    /**
+     * @return current number of concurrent requests allowed
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return number of callers waiting for a request to complete
+     */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return number of callers rejected because too many were waiting already, or they waited too long
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return number of requests which made the limit decrease because the server could not handle them
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,117 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of the last decoded response per URL along with its validators ({@code ETag} and
+ * {@code Last-Modified}), evicting the least recently used URL when full.
+ * <p/>
+ * The validators are sent back with the next request to the same URL, and if the server answers
+ * 304 (Not Modified) the cached value is used instead of downloading and decoding the response again.
+ */
+public class ConditionalGetCache {
+    private final int maxSize;
+
+    private final LinkedHashMap<URI, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+    private final AtomicLong savedDecodeNanos = new AtomicLong();
+
+    ConditionalGetCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<URI, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URI, Entry> eldest) {
+                return size() > ConditionalGetCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cached response for {@code url}, or {@code null} if none
+     */
+    synchronized Entry get(URI url) {
+        return entries.get(url);
+    }
+
+    /**
+     * Cache a response, unless it has no validators to revalidate it with.
+     *
+     * @param bytes       size of the response body
+     * @param decodeNanos time it took to decode the response body
+     */
+    void put(URI url, String etag, String lastModified, Object value, long bytes, long decodeNanos) {
+        misses.incrementAndGet();
+        synchronized (this) {
+            if (etag == null && lastModified == null) {
+                entries.remove(url);
+            } else {
+                entries.put(url, new Entry(etag, lastModified, value, bytes, decodeNanos));
+            }
+        }
+    }
+
+    /**
+     * Record that the server answered 304 (Not Modified) for {@code entry}.
+     */
+    void hit(Entry entry) {
+        hits.incrementAndGet();
+        savedBytes.addAndGet(entry.bytes);
+        savedDecodeNanos.addAndGet(entry.decodeNanos);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of requests answered with 304 (Not Modified)
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of requests answered with a full response
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return bytes of response bodies not downloaded thanks to 304 (Not Modified)
+     */
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    /**
+     * @return nanoseconds not spent decoding response bodies thanks to 304 (Not Modified)
+     */
+    public long getSavedDecodeNanos() {
+        return savedDecodeNanos.get();
+    }
+
+    static class Entry {
+        final String etag;
+        final String lastModified;
+        final Object value;
+        final long bytes;
+        final long decodeNanos;
+
+        Entry(String etag, String lastModified, Object value, long bytes, long decodeNanos) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.value = value;
+            this.bytes = bytes;
+            this.decodeNanos = decodeNanos;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads entities by id, coalescing concurrent lookups.
+ * <ul>
+ * <li>Concurrent loads of the same id share one request.</li>
+ * <li>If {@code batchWindow} is positive, loads of different ids made within that many milliseconds of each other
+ * are answered by one request for all entities, if there are at least {@code batchMinSize} of them, and by one
+ * request per id otherwise.</li>
+ * <li>If {@code ttl} is positive, loaded entities, including ones which do not exist, are kept for that many
+ * milliseconds. At most {@code maxSize} entities are kept, the least recently used ones are evicted first.</li>
+ * </ul>
+ * Every invalidation starts a new generation. Loads only share a request with loads of the same generation, and
+ * only cache what they loaded if nothing has been invalidated since they started, so an entity loaded before it was
+ * changed is neither cached nor returned to those loading it after the change.
+ *
+ * @param <V> entity type
+ */
+public class EntityLoader<V> {
+    /**
+     * Where entities are loaded from.
+     */
+    interface Source<V> {
+        /**
+         * @return the entity, or {@code null} if it does not exist
+         */
+        V fetch(String id);
+
+        /**
+         * @return all entities by id, or {@code null} if they are not all available from one request in the same form
+         * as from {@link #fetch}, in which case they are fetched one by one
+         */
+        Map<String, V> fetchAll();
+    }
+
+    private final Source<V> source;
+    private final long ttl;
+    private final long batchWindow;
+    private final int batchMinSize;
+    private final int maxSize;
+
+    private final SingleFlight<FlightKey, V> inFlight = new SingleFlight<>();
+    // guarded by itself
+    private final Map<String, Entry<V>> cache;
+    // guarded by cache
+    private long generation;
+
+    private Batch<V> batch;
+
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    EntityLoader(Source<V> source, long ttl, long batchWindow, int batchMinSize, int maxSize) {
+        this.source = source;
+        this.ttl = ttl;
+        this.batchWindow = batchWindow;
+        this.batchMinSize = batchMinSize;
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+                return size() > EntityLoader.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the entity, or {@code null} if it does not exist
+     */
+    public V load(final String id) {
+        loads.incrementAndGet();
+
+        final long started;
+        synchronized (cache) {
+            Entry<V> entry = cache.get(id);
+            if (entry != null) {
+                if (System.currentTimeMillis() < entry.expiresAt) {
+                    cacheHits.incrementAndGet();
+                    return entry.value;
+                }
+                cache.remove(id);
+            }
+            started = generation;
+        }
+
+        return inFlight.execute(new FlightKey(id, started), new Callable<V>() {
+            @Override
+            public V call() {
+                V value = batchWindow > 0 ? loadInBatch(id, started) : fetch(id);
+                store(id, value, started);
+                return value;
+            }
+        });
+    }
+
+    /**
+     * Forget the entity, e.g. since it has been changed or removed.
+     */
+    public void invalidate(String id) {
+        synchronized (cache) {
+            generation++;
+            cache.remove(id);
+        }
+    }
+
+    private V fetch(String id) {
+        fetches.incrementAndGet();
+        return source.fetch(id);
+    }
+
+    /**
+     * Join the current batch, or start one and send it when the window has passed.
+     */
+    private V loadInBatch(String id, long started) {
+        Batch<V> joined;
+        boolean leader = false;
+        synchronized (this) {
+            if (batch == null) {
+                batch = new Batch<>();
+                leader = true;
+            }
+            joined = batch;
+            joined.ids.add(id);
+        }
+
+        if (leader) {
+            try {
+                Thread.sleep(batchWindow);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                batch = null;
+            }
+            send(joined, started);
+        } else {
+            try {
+                joined.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServerUnavailableException("Interrupted while waiting for batched server call");
+            }
+        }
+
+        if (joined.failure != null) {
+            throw joined.failure;
+        }
+        if (joined.all == null) {
+            return fetch(id);
+        }
+        return joined.all.get(id);
+    }
+
+    private void send(Batch<V> joined, long started) {
+        try {
+            if (joined.ids.size() >= batchMinSize) {
+                Map<String, V> all = source.fetchAll();
+                if (all != null) {
+                    batches.incrementAndGet();
+                    for (Map.Entry<String, V> entry : all.entrySet()) {
+                        store(entry.getKey(), entry.getValue(), started);
+                    }
+                    joined.all = all;
+                }
+            }
+        } catch (RuntimeException e) {
+            joined.failure = e;
+        } finally {
+            joined.done.countDown();
+        }
+    }
+
+    /**
+     * @param started the generation when the load started, nothing is cached if anything has been invalidated since
+     */
+    private void store(String id, V value, long started) {
+        if (ttl <= 0) {
+            return;
+        }
+        Entry<V> entry = new Entry<>(value, System.currentTimeMillis() + ttl);
+        synchronized (cache) {
+            if (started == generation) {
+                cache.put(id, entry);
+            }
+        }
+    }
+
+    /**
+     * @return number of loads
+     */
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    /**
+     * @return number of loads answered from the cache
+     */
+    public long getCacheHitCount() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return number of loads which waited for a request for the same id made by someone else
+     */
+    public long getJoinedCount() {
+        return inFlight.getJoinedCount();
+    }
+
+    /**
+     * @return number of requests for a single entity
+     */
+    public long getFetchCount() {
+        return fetches.get();
+    }
+
+    /**
+     * @return number of requests for all entities
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class FlightKey {
+        final String id;
+        final long generation;
+
+        FlightKey(String id, long generation) {
+            this.id = id;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlightKey)) return false;
+            FlightKey other = (FlightKey) o;
+            return id.equals(other.id) && generation == other.generation;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * id.hashCode() + (int) (generation ^ (generation >>> 32));
+        }
+    }
+
+    private static class Batch<V> {
+        final Set<String> ids = new HashSet<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Map<String, V> all;
+        volatile RuntimeException failure;
+    }
+}
@@ -0,0 +1,241 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads requests over several server nodes serving the same API below different base URLs.
+ * <p/>
+ * Each node has a latency score, an exponentially weighted moving average of its response times where the latest one
+ * weighs {@code smoothing}. Requests go to the healthy node with the lowest score, nodes not measured yet first.
+ * A node which fails to answer is unhealthy, and only tried when all healthy nodes have failed too, until it answers
+ * again, either to such a request or to a probe.
+ * <p/>
+ * Links are always resolved against the first base URL, and rewritten to the chosen node for each request, as are
+ * absolute links the server has sent for any other host.
+ */
+public class FailoverRouter {
+    private static final Log LOG = LogFactory.getLog(FailoverRouter.class);
+
+    private final List<Endpoint> endpoints;
+    private final double smoothing;
+
+    private final AtomicLong failovers = new AtomicLong();
+    private final AtomicLong probes = new AtomicLong();
+
+    FailoverRouter(List<String> baseUrls, double smoothing) {
+        List<Endpoint> endpoints = new ArrayList<>(baseUrls.size());
+        for (int i = 0; i < baseUrls.size(); i++) {
+            endpoints.add(new Endpoint(i, baseUrls.get(i)));
+        }
+        this.endpoints = Collections.unmodifiableList(endpoints);
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * @return the nodes to try in order: healthy nodes by latency, then unhealthy nodes, least recently failed first
+     */
+    List<Endpoint> route() {
+        Candidate[] candidates = new Candidate[endpoints.size()];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = new Candidate(endpoints.get(i));
+        }
+        Arrays.sort(candidates);
+        List<Endpoint> route = new ArrayList<>(candidates.length);
+        for (Candidate candidate : candidates) {
+            route.add(candidate.endpoint);
+        }
+        return route;
+    }
+
+    /**
+     * @return {@code url} with the base URL of whichever node it points at replaced by that of {@code endpoint},
+     * or if it does not point at any node, with its scheme, host and port replaced by those of {@code endpoint}
+     */
+    URI rewrite(URI url, Endpoint endpoint) {
+        String path = url.getRawPath();
+        for (Endpoint other : endpoints) {
+            if (other.sameOrigin(url) && path != null && path.startsWith(other.base.getRawPath())) {
+                if (other == endpoint) {
+                    return url;
+                }
+                path = endpoint.base.getRawPath() + path.substring(other.base.getRawPath().length());
+                break;
+            }
+        }
+        return UriComponentsBuilder.fromUri(url)
+                .scheme(endpoint.base.getScheme())
+                .host(endpoint.base.getHost())
+                .port(endpoint.base.getPort())
+                .replacePath(path)
+                .build(true)
+                .toUri();
+    }
+
+    /**
+     * Record that {@code endpoint} answered within {@code nanos}.
+     */
+    void success(Endpoint endpoint, long nanos) {
+        synchronized (endpoint) {
+            endpoint.latency = endpoint.latency < 0 ? nanos : smoothing * nanos + (1 - smoothing) * endpoint.latency;
+            endpoint.successes++;
+            if (!endpoint.healthy) {
+                endpoint.healthy = true;
+                LOG.info("Server at " + endpoint.baseUrl + " is available again");
+            }
+        }
+    }
+
+    /**
+     * Record that {@code endpoint} did not answer, or answered that it is unavailable.
+     *
+     * @param next whether the request will be tried on another node
+     */
+    void failure(Endpoint endpoint, boolean next) {
+        synchronized (endpoint) {
+            endpoint.failures++;
+            endpoint.failedAt = System.currentTimeMillis();
+            if (endpoint.healthy) {
+                endpoint.healthy = false;
+                LOG.warn("Server at " + endpoint.baseUrl + " is unavailable, failing over to other servers");
+            }
+        }
+        if (next) {
+            failovers.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the unhealthy nodes, to probe
+     */
+    List<Endpoint> unhealthy() {
+        List<Endpoint> unhealthy = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            if (!endpoint.isHealthy()) {
+                unhealthy.add(endpoint);
+            }
+        }
+        return unhealthy;
+    }
+
+    void probed() {
+        probes.incrementAndGet();
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * @return number of requests tried on another node after one failed
+     */
+    public long getFailoverCount() {
+        return failovers.get();
+    }
+
+    /**
+     * @return number of probes of unhealthy nodes
+     */
+    public long getProbeCount() {
+        return probes.get();
+    }
+
+    /**
+     * The state of a node when a route was asked for, as it may change while the route is sorted.
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        final Endpoint endpoint;
+        final boolean healthy;
+        final double latency;
+        final long failedAt;
+
+        Candidate(Endpoint endpoint) {
+            this.endpoint = endpoint;
+            synchronized (endpoint) {
+                healthy = endpoint.healthy;
+                latency = endpoint.latency;
+                failedAt = endpoint.failedAt;
+            }
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (healthy != other.healthy) {
+                return healthy ? -1 : 1;
+            }
+            int order = healthy ? Double.compare(latency, other.latency) : Long.compare(failedAt, other.failedAt);
+            return order != 0 ? order : endpoint.index - other.endpoint.index;
+        }
+    }
+
+    /**
+     * A server node and how it has been doing.
+     */
+    public static class Endpoint {
+        private final int index;
+        private final String baseUrl;
+        private final URI base;
+
+        /**
+         * Average latency in nanoseconds, -1 until measured.
+         */
+        private double latency = -1;
+        private boolean healthy = true;
+        private long failedAt;
+        private long successes;
+        private long failures;
+
+        Endpoint(int index, String baseUrl) {
+            this.index = index;
+            this.baseUrl = baseUrl;
+            this.base = URI.create(baseUrl);
+        }
+
+        boolean sameOrigin(URI url) {
+            return base.getScheme().equalsIgnoreCase(url.getScheme()) && base.getHost().equalsIgnoreCase(url.getHost())
+                    && base.getPort() == url.getPort();
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public synchronized boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * @return average latency in milliseconds, or -1 if not measured yet
+         */
+        public synchronized double getLatencyMillis() {
+            return latency < 0 ? -1 : latency / 1e6;
+        }
+
+        /**
+         * @return number of requests answered
+         */
+        public synchronized long getSuccessCount() {
+            return successes;
+        }
+
+        /**
+         * @return number of requests not answered, or answered with 503 (Service Unavailable)
+         */
+        public synchronized long getFailureCount() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return baseUrl;
+        }
+    }
+}
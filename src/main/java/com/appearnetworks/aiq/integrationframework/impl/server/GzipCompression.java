@@ -0,0 +1,273 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip encoding of request bodies and decoding of responses, counting the bytes before and after compression.
+ * <p/>
+ * JSON and text request bodies of at least {@code threshold} bytes, or of unknown length, are compressed.
+ * Other bodies, such as multipart requests with attachments, are usually compressed already and are sent as they are.
+ */
+public class GzipCompression {
+    private static final String GZIP = "gzip";
+
+    private final long threshold;
+
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong compressedRequestBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong compressedResponseBytes = new AtomicLong();
+
+    GzipCompression(long threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Must run before the request content headers are set.
+     */
+    HttpRequestInterceptor requestInterceptor() {
+        return new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) {
+                if (!request.containsHeader("Accept-Encoding")) {
+                    request.addHeader("Accept-Encoding", GZIP);
+                }
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest) request;
+                    HttpEntity entity = entityRequest.getEntity();
+                    if (entity != null && shouldCompress(request, entity)) {
+                        entityRequest.setEntity(new CompressingEntity(entity));
+                    }
+                }
+            }
+        };
+    }
+
+    HttpResponseInterceptor responseInterceptor() {
+        return new HttpResponseInterceptor() {
+            @Override
+            public void process(HttpResponse response, HttpContext context) {
+                HttpEntity entity = response.getEntity();
+                if (entity != null && entity.getContentEncoding() != null
+                        && GZIP.equalsIgnoreCase(entity.getContentEncoding().getValue())) {
+                    response.setEntity(new DecompressingEntity(entity));
+                    response.removeHeaders("Content-Length");
+                    response.removeHeaders("Content-Encoding");
+                    response.removeHeaders("Content-MD5");
+                }
+            }
+        };
+    }
+
+    private boolean shouldCompress(HttpRequest request, HttpEntity entity) {
+        if (entity.getContentEncoding() != null || request.containsHeader("Content-Encoding")) {
+            return false;
+        }
+        Header contentType = entity.getContentType() != null ? entity.getContentType() : request.getFirstHeader("Content-Type");
+        if (contentType == null) {
+            return false;
+        }
+        String value = contentType.getValue().toLowerCase();
+        if (!value.startsWith("text/") && !value.contains("json")) {
+            return false;
+        }
+        long length = entity.getContentLength();
+        return length < 0 || length >= threshold;
+    }
+
+    /**
+     * @return bytes of request bodies before compression
+     */
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    /**
+     * @return bytes of request bodies after compression, as sent to the server
+     */
+    public long getCompressedRequestBytes() {
+        return compressedRequestBytes.get();
+    }
+
+    /**
+     * @return bytes of gzip encoded responses after decompression
+     */
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    /**
+     * @return bytes of gzip encoded responses as received from the server
+     */
+    public long getCompressedResponseBytes() {
+        return compressedResponseBytes.get();
+    }
+
+    private class CompressingEntity extends HttpEntityWrapper {
+        CompressingEntity(HttpEntity wrapped) {
+            super(wrapped);
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return new BasicHeader("Content-Encoding", GZIP);
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public boolean isChunked() {
+            return true;
+        }
+
+        /**
+         * Compresses the whole body into memory, for those who read it rather than write it, such as loggers.
+         * Not counted, since it is not what is sent.
+         */
+        @Override
+        public InputStream getContent() throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(buffer, 8192);
+            wrappedEntity.writeTo(gzip);
+            gzip.finish();
+            return new ByteArrayInputStream(buffer.toByteArray());
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            OutputStream counted = new CountingOutputStream(outputStream, compressedRequestBytes);
+            GZIPOutputStream gzip = new GZIPOutputStream(counted, 8192);
+            wrappedEntity.writeTo(new CountingOutputStream(gzip, requestBytes));
+            gzip.finish();
+            counted.flush();
+        }
+    }
+
+    private class DecompressingEntity extends HttpEntityWrapper {
+        private InputStream content;
+
+        DecompressingEntity(HttpEntity wrapped) {
+            super(wrapped);
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (content == null) {
+                // an empty body has no gzip header to read
+                PushbackInputStream in = new PushbackInputStream(
+                        new CountingInputStream(wrappedEntity.getContent(), compressedResponseBytes));
+                int b = in.read();
+                if (b == -1) {
+                    content = in;
+                } else {
+                    in.unread(b);
+                    content = new CountingInputStream(new GZIPInputStream(in), responseBytes);
+                }
+            }
+            return content;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            InputStream in = getContent();
+            try {
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final AtomicLong counter;
+
+        CountingOutputStream(OutputStream out, AtomicLong counter) {
+            super(out);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            counter.incrementAndGet();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            counter.addAndGet(len);
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                counter.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            counter.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
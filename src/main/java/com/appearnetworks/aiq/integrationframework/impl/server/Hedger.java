@@ -0,0 +1,310 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedges idempotent requests: if a request has not been answered within a percentile of recent latencies,
+ * an identical request is sent and whichever answers first is used.
+ * <p/>
+ * Hedges are paid for from a budget which each request adds {@code maxRatio} to, so at most that fraction of requests
+ * is hedged over time, however slow the server gets. No request is hedged until enough latencies have been seen.
+ * The losing request is not aborted, its response is read and discarded.
+ * <p/>
+ * A request which cannot be hedged, since there are too few latencies or no budget, is made on the calling thread.
+ * Otherwise it is made on the executor, so the caller can take the answer of the hedge, and on the calling thread if
+ * the executor has no thread free. A hedge is not sent if the executor has no thread free, or if the concurrency
+ * limiter has no permit free right away, since the request it hedges holds only one.
+ */
+public class Hedger {
+    static final int MIN_SAMPLES = 20;
+
+    /**
+     * Unused budget kept, i.e. the largest burst of hedges.
+     */
+    private static final double MAX_BUDGET = 10;
+
+    private final Executor executor;
+    private final ConcurrencyLimiter limiter;
+    private final double percentile;
+    private final double maxRatio;
+    private final long minDelayNanos;
+
+    private final long[] latencies;
+    private long sampleCount;
+    private double budget;
+
+    private volatile long delayNanos = -1;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+
+    /**
+     * @param executor   runs the requests which may be hedged, and the hedges, while the caller waits for the first
+     *                   answer; should reject tasks rather than queue them when all its threads are busy
+     * @param windowSize number of recent latencies to take the percentile of
+     * @param percentile percentile of recent latencies to wait before hedging, e.g. 95
+     * @param maxRatio   largest fraction of requests to hedge, e.g. 0.05
+     * @param minDelay   least milliseconds to wait before hedging
+     */
+    Hedger(Executor executor, int windowSize, double percentile, double maxRatio, long minDelay) {
+        this(executor, null, windowSize, percentile, maxRatio, minDelay);
+    }
+
+    /**
+     * @param limiter the concurrency limiter each hedge takes a permit of, or {@code null} if not enabled
+     */
+    Hedger(Executor executor, ConcurrencyLimiter limiter, int windowSize, double percentile, double maxRatio,
+           long minDelay) {
+        this.executor = executor;
+        this.limiter = limiter;
+        this.latencies = new long[windowSize];
+        this.percentile = percentile;
+        this.maxRatio = maxRatio;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelay);
+    }
+
+    /**
+     * Make the request, and an identical one if it is slow to answer.
+     *
+     * @return the first successful result
+     * @throws RuntimeException the exception of the first request to fail, if all requests failed
+     */
+    <T> T call(URI url, IntegrationServiceImpl.ServerCall<T> serverCall) {
+        calls.incrementAndGet();
+        long delay = delayNanos;
+        boolean affordable;
+        synchronized (this) {
+            budget = Math.min(MAX_BUDGET, budget + maxRatio);
+            affordable = budget >= 1;
+        }
+        if (delay < 0) {
+            return attempt(url, serverCall);
+        }
+        if (!affordable) {
+            return attemptUnhedged(url, serverCall, delay);
+        }
+
+        CompletionService<T> completion = new ExecutorCompletionService<>(executor);
+        try {
+            completion.submit(task(url, serverCall));
+        } catch (RejectedExecutionException e) {
+            return attemptUnhedged(url, serverCall, delay);
+        }
+        int running = 1;
+
+        Future<T> hedge = null;
+        Future<T> done = poll(completion, delay);
+        if (done == null) {
+            if (spendBudget()) {
+                if (limiter == null || limiter.tryAcquire()) {
+                    try {
+                        hedge = completion.submit(limiter != null ? limitedTask(url, serverCall) : task(url, serverCall));
+                        hedged.incrementAndGet();
+                        running++;
+                    } catch (RejectedExecutionException e) {
+                        if (limiter != null) {
+                            limiter.release(0, ConcurrencyLimiter.Outcome.IGNORED);
+                        }
+                        refundBudget();
+                        throttled.incrementAndGet();
+                    }
+                } else {
+                    refundBudget();
+                    throttled.incrementAndGet();
+                }
+            } else {
+                throttled.incrementAndGet();
+            }
+        }
+
+        RuntimeException failure = null;
+        while (running > 0) {
+            if (done == null) {
+                done = take(completion);
+            }
+            running--;
+            try {
+                T result = result(done);
+                if (done == hedge) {
+                    hedgeWins.incrementAndGet();
+                }
+                return result;
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            done = null;
+        }
+        throw failure;
+    }
+
+    private <T> Callable<T> task(final URI url, final IntegrationServiceImpl.ServerCall<T> serverCall) {
+        return new Callable<T>() {
+            @Override
+            public T call() {
+                return attempt(url, serverCall);
+            }
+        };
+    }
+
+    /**
+     * @return a task making the request with a permit of the limiter already taken, and releasing it
+     */
+    private <T> Callable<T> limitedTask(final URI url, final IntegrationServiceImpl.ServerCall<T> serverCall) {
+        return new Callable<T>() {
+            @Override
+            public T call() {
+                long started = System.nanoTime();
+                ConcurrencyLimiter.Outcome outcome = ConcurrencyLimiter.Outcome.IGNORED;
+                try {
+                    T result = attempt(url, serverCall);
+                    outcome = ConcurrencyLimiter.Outcome.SUCCESS;
+                    return result;
+                } catch (RuntimeException e) {
+                    outcome = ConcurrencyLimiter.outcomeOf(e);
+                    throw e;
+                } finally {
+                    limiter.release(System.nanoTime() - started, outcome);
+                }
+            }
+        };
+    }
+
+    /**
+     * Make the request on the calling thread, counting it as throttled if it took long enough to be hedged.
+     */
+    private <T> T attemptUnhedged(URI url, IntegrationServiceImpl.ServerCall<T> serverCall, long delay) {
+        long started = System.nanoTime();
+        try {
+            return attempt(url, serverCall);
+        } finally {
+            if (System.nanoTime() - started >= delay) {
+                throttled.incrementAndGet();
+            }
+        }
+    }
+
+    private <T> T attempt(URI url, IntegrationServiceImpl.ServerCall<T> serverCall) {
+        long started = System.nanoTime();
+        try {
+            T result = serverCall.call(url);
+            record(System.nanoTime() - started);
+            return result;
+        } catch (ServerUnavailableException e) {
+            throw e; // no answer, so no latency
+        } catch (RuntimeException e) {
+            record(System.nanoTime() - started);
+            throw e;
+        }
+    }
+
+    private synchronized boolean spendBudget() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    private synchronized void refundBudget() {
+        budget = Math.min(MAX_BUDGET, budget + 1);
+    }
+
+    private synchronized void record(long latency) {
+        latencies[(int) (sampleCount % latencies.length)] = latency;
+        sampleCount++;
+        if (sampleCount >= MIN_SAMPLES && sampleCount % MIN_SAMPLES == 0) {
+            int n = (int) Math.min(sampleCount, latencies.length);
+            long[] sorted = Arrays.copyOf(latencies, n);
+            Arrays.sort(sorted);
+            int index = (int) Math.min(n - 1, Math.ceil(percentile / 100 * n) - 1);
+            delayNanos = Math.max(minDelayNanos, sorted[Math.max(0, index)]);
+        }
+    }
+
+    private static <T> Future<T> poll(CompletionService<T> completion, long nanos) {
+        try {
+            return completion.poll(nanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CallRejectedException("Interrupted while waiting for server");
+        }
+    }
+
+    private static <T> Future<T> take(CompletionService<T> completion) {
+        try {
+            return completion.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CallRejectedException("Interrupted while waiting for server");
+        }
+    }
+
+    private static <T> T result(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CallRejectedException("Interrupted while waiting for server");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else if (cause instanceof Error)
+                throw (Error) cause;
+            else
+                throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * @return milliseconds a request currently waits before it is hedged, or -1 if too few latencies have been seen
+     */
+    public long getDelay() {
+        long delay = delayNanos;
+        return delay < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(delay);
+    }
+
+    /**
+     * @return number of requests made through the hedger, not counting hedges
+     */
+    public long getCallCount() {
+        return calls.get();
+    }
+
+    /**
+     * @return number of hedges sent
+     */
+    public long getHedgedCount() {
+        return hedged.get();
+    }
+
+    /**
+     * @return number of hedges which answered before the request they hedged
+     */
+    public long getHedgeWinCount() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * @return number of slow requests not hedged since the budget was used up, or no thread or limiter permit was free
+     */
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+}
@@ -0,0 +1,166 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pooled HTTP transport shared by all outbound calls to the server.
+ * <p/>
+ * Owns one connection pool with keep-alive, connect/read timeouts and periodic eviction of idle connections.
+ * If {@code aiq.http.compression.enabled} is {@code true}, JSON request bodies of at least
+ * {@code aiq.http.compression.threshold} bytes (default 2048) are gzip encoded, and gzip encoded responses are accepted,
+ * with the bytes before and after compression counted in {@link #getCompression()}.
+ * Override {@link #createHttpClient} or {@link #createRequestFactory} to plug in a different transport.
+ */
+@Component
+public class HttpTransport {
+    @Value("${aiq.http.maxConnections:100}")
+    private int maxConnections;
+
+    @Value("${aiq.http.maxConnectionsPerRoute:20}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${aiq.http.connectTimeout:10000}")
+    private int connectTimeout;
+
+    @Value("${aiq.http.readTimeout:60000}")
+    private int readTimeout;
+
+    @Value("${aiq.http.keepAlive:30000}")
+    private long keepAlive;
+
+    @Value("${aiq.http.idleTimeout:30000}")
+    private long idleTimeout;
+
+    @Value("${aiq.http.compression.enabled:false}")
+    private boolean compressionEnabled;
+
+    @Value("${aiq.http.compression.threshold:2048}")
+    private long compressionThreshold;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private GzipCompression compression;
+    private CloseableHttpClient httpClient;
+    private ScheduledExecutorService evictor;
+    private ClientHttpRequestFactory requestFactory;
+    private ClientHttpRequestFactory streamingRequestFactory;
+
+    @PostConstruct
+    public void init() {
+        httpClient = createHttpClient();
+        requestFactory = createRequestFactory(true);
+        streamingRequestFactory = createRequestFactory(false);
+    }
+
+    /**
+     * @return the request factory all server calls should be made through
+     */
+    public ClientHttpRequestFactory getRequestFactory() {
+        return requestFactory;
+    }
+
+    /**
+     * @return request factory sharing the same connections, which streams request bodies instead of buffering them
+     */
+    public ClientHttpRequestFactory getStreamingRequestFactory() {
+        return streamingRequestFactory;
+    }
+
+    /**
+     * @return byte counts of compressed requests and responses, or {@code null} if compression is not enabled
+     */
+    public GzipCompression getCompression() {
+        return compression;
+    }
+
+    protected ClientHttpRequestFactory createRequestFactory(boolean bufferRequestBody) {
+        HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        factory.setBufferRequestBody(bufferRequestBody);
+        return factory;
+    }
+
+    protected CloseableHttpClient createHttpClient() {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(new DefaultKeepAliveStrategy(keepAlive))
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setConnectionRequestTimeout(connectTimeout)
+                        .setSocketTimeout(readTimeout)
+                        .build());
+        if (compressionEnabled) {
+            compression = new GzipCompression(compressionThreshold);
+            builder.disableContentCompression()
+                    .addInterceptorFirst(compression.requestInterceptor())
+                    .addInterceptorLast(compression.responseInterceptor());
+        }
+        CloseableHttpClient httpClient = builder.build();
+
+        evictor = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("aiq-http-evictor-"));
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+            }
+        }, idleTimeout, idleTimeout, TimeUnit.MILLISECONDS);
+
+        return httpClient;
+    }
+
+    @PreDestroy
+    public void destroy() throws IOException {
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        if (httpClient != null) {
+            httpClient.close();
+        }
+    }
+
+    static CustomizableThreadFactory daemonThreadFactory(String prefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+
+    /**
+     * Honour the server's Keep-Alive header, fall back to a fixed duration if it does not send any.
+     */
+    static class DefaultKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        private final long keepAlive;
+
+        DefaultKeepAliveStrategy(long keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : keepAlive;
+        }
+    }
+}
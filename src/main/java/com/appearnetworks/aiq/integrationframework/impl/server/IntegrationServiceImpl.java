@@ -2,49 +2,151 @@ package com.appearnetworks.aiq.integrationframework.impl.server;
 
 import com.appearnetworks.aiq.integrationframework.impl.ProtocolConstants;
 import com.appearnetworks.aiq.integrationframework.server.*;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
 import org.springframework.http.client.ClientHttpRequestExecution;
 import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.http.client.support.HttpRequestWrapper;
-import org.springframework.http.converter.FormHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageConversionException;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.HttpMessageConverterExtractor;
 import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Configured with these properties besides the server URL and credentials:
+ * <ul>
+ * <li>{@code aiq.url} with several comma separated URLs, of server nodes serving the same API: each request goes to the
+ * available node which has answered fastest lately, the latest response time weighing {@code aiq.failover.smoothing}
+ * (default 0.2) in the average, and to the next one if it is unavailable. Unavailable nodes are used again once they
+ * answer a probe, made every {@code aiq.failover.probeInterval} milliseconds (default 5000), or when all other
+ * nodes are unavailable too.</li>
+ * <li>{@code aiq.links.warmup} (default {@code true}): the links to the server endpoints are fetched in the background
+ * at startup, and refreshed every {@code aiq.links.refreshInterval} seconds (default 300, 0 to disable).</li>
+ * <li>{@code aiq.newdataavailable.chunkSize} (default 10000): the chunked {@code newDataAvailable} methods, and
+ * coalesced or outbox requests, split user lists into requests of that many users, sent at most
+ * {@code aiq.bulk.parallelism} (default 4) at a time. Backend messages with more than
+ * {@code aiq.backendmessages.recipientChunkSize} recipients (default 10000) are split the same way.</li>
+ * <li>{@code aiq.retry.maxAttempts} (default 1): calls failing with {@link ServerUnavailableException} are retried up
+ * to this many attempts, after a random delay below a bound growing from {@code aiq.retry.initialBackoff} to
+ * {@code aiq.retry.maxBackoff} milliseconds (default 200 and 10000), or as long as the server asked for with
+ * {@code Retry-After}, and no later than {@code aiq.retry.deadline} milliseconds (default 30000) after the first
+ * attempt. Calls which create or change data are only retried if they cannot have reached the server.</li>
+ * <li>{@code aiq.circuitbreaker.enabled} (default {@code false}): calls to an endpoint where at least
+ * {@code aiq.circuitbreaker.failureRateThreshold} percent (default 50) of the last {@code aiq.circuitbreaker.windowSize}
+ * calls (default 50, at least {@code aiq.circuitbreaker.minimumCalls}, default 10) failed are rejected with
+ * {@link ServerUnavailableException} for {@code aiq.circuitbreaker.openDuration} milliseconds (default 30000), and
+ * then until {@code aiq.circuitbreaker.halfOpenCalls} probe calls (default 3) succeed.</li>
+ * <li>{@code aiq.limiter.enabled} (default {@code false}): the number of concurrent requests is limited, starting at
+ * {@code aiq.limiter.initialLimit} (default 20), growing up to {@code aiq.limiter.maxLimit} (default 100) while the
+ * server responds steadily and shrinking down to {@code aiq.limiter.minLimit} (default 1) when it does not. At most
+ * {@code aiq.limiter.maxQueued} calls (default 100) wait over the limit, for at most {@code aiq.limiter.maxWait}
+ * milliseconds (default 10000), others are rejected with {@link ServerUnavailableException}.</li>
+ * <li>{@code aiq.hedge.enabled} (default {@code false}): {@code fetchClientSession}, {@code fetchUser} and
+ * {@code fetchBackendMessage} send a second request when the first has not been answered within the
+ * {@code aiq.hedge.percentile} (default 95) of the last {@code aiq.hedge.windowSize} (default 1000) latencies, but no
+ * sooner than {@code aiq.hedge.minDelay} milliseconds (default 10), and use whichever answer comes first. At most
+ * {@code aiq.hedge.maxRatio} (default 0.05) of the requests are hedged, and no more than {@code aiq.hedge.threads}
+ * (default 32) requests at a time.</li>
+ * <li>{@code aiq.conditionalget.cacheSize} (default 0): the last response of that many URLs of {@code fetchUsers},
+ * {@code fetchClientSessions} and {@code fetchBackendMessages} is reused when the server answers 304 (Not
+ * Modified).</li>
+ * <li>{@code aiq.validatetoken.cacheSize} (default 0): the results of {@code validateUserToken} for that many tokens
+ * are kept for {@code aiq.validatetoken.ttl} seconds (default 300), or {@code aiq.validatetoken.negativeTtl} seconds
+ * (default 10) for invalid tokens.</li>
+ * <li>{@code aiq.loader.enabled} (default {@code false}): concurrent calls of {@code fetchUser},
+ * {@code fetchClientSession} and {@code fetchBackendMessage} for the same id share one request. With
+ * {@code aiq.loader.batchWindow} milliseconds, calls of {@code fetchUser} or {@code fetchClientSession} for at least
+ * {@code aiq.loader.batchMinSize} (default 10) ids within that window share one request for the whole list. With
+ * {@code aiq.loader.ttl} milliseconds, results are reused that long, for at most {@code aiq.loader.cacheSize}
+ * (default 10000) ids of each kind.</li>
+ * <li>{@code aiq.backendmessages.replica} (default {@code false}): a local copy of all backend messages is kept,
+ * updated by this service and synced with the server every {@code aiq.backendmessages.replicaSyncInterval} seconds
+ * (default 60, 0 to only sync once). {@code fetchBackendMessages} is answered with copies of its messages,
+ * without expired ones.</li>
+ * <li>{@code aiq.newdataavailable.coalesceWindow} (default 0): the plain {@code newDataAvailable} methods return at
+ * once, and the notifications are merged for that many milliseconds before they are sent. The methods wait while
+ * {@code aiq.newdataavailable.coalesceMaxIds} ids (default 10000) are waiting to be sent.</li>
+ * <li>{@code aiq.outbox.directory} (default none): the plain {@code newDataAvailable} methods and
+ * {@code enqueueBackendMessage} return as soon as the request, merged first if
+ * {@code aiq.newdataavailable.coalesceWindow} is set, is written to a journal in that directory. The requests are
+ * sent in order in the background, retried while the server is unavailable, also after a restart, so each is sent
+ * at least once. Requests the server rejects are logged and dropped.</li>
+ * </ul>
+ */
 @Component
 public class IntegrationServiceImpl implements IntegrationService {
-    private static final String ROOT_LINK_CACHE_KEY = "link_";
-    private static final String ACCESS_TOKEN_CACHE_KEY = "token";
-    private static final String INTEGRATION_LINK_CACHE_KEY = "link_integration_";
+    private static final Log LOG = LogFactory.getLog(IntegrationServiceImpl.class);
+
+    private static final String ACCESS_TOKEN_KEY = "token";
+    private static final String ROOT_MENU_KEY = "rootmenu";
+    private static final String REPLICA_SYNC_KEY = "backendmessages";
 
     private static final String CLIENTSESSIONS = "clientsessions";
     private static final String NEWDATAAVAILABLE = "newdataavailable";
@@ -56,14 +158,49 @@ public class IntegrationServiceImpl implements IntegrationService {
     private static final String USERS = "users";
 
     private static final String AUTHORIZATION_HEADER = "Authorization";
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    private static final byte OUTBOX_NEW_DATA_AVAILABLE = 1;
+    private static final byte OUTBOX_BACKEND_MESSAGE = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final MediaType APPLICATION_JSON_UTF8 = new MediaType("application", "json", UTF8);
+
+    private volatile String accessToken;
+
+    private final AtomicReference<LinkRegistry> links = new AtomicReference<>(LinkRegistry.EMPTY);
+
+    private final SingleFlight<String, LinkRegistry> rootMenuRefresh = new SingleFlight<>();
+
+    private final SingleFlight<String, String> tokenRefresh = new SingleFlight<>();
+
+    private final SingleFlight<String, BackendMessageReplica> replicaSync = new SingleFlight<>();
 
-    private final Map<String, Object> cache = new ConcurrentHashMap<>();
+    /**
+     * Token rejected by the server, kept in the cache and used until a new one has been fetched.
+     */
+    private volatile String staleToken;
+
+    /**
+     * When the cached token expires, {@link Long#MAX_VALUE} if the server did not say.
+     */
+    private volatile long tokenExpiresAt = Long.MAX_VALUE;
+
+    private ScheduledFuture<?> tokenRenewal;
 
     private final ObjectMapper mapper = new ObjectMapper();
 
+    private final JsonHttpMessageConverter jsonConverter = new JsonHttpMessageConverter(mapper);
+
     @Value("${aiq.url}")
     private String aiqUrl;
 
+    /**
+     * The first of the comma separated URLs in {@code aiq.url}, which links are resolved against.
+     */
+    private String rootUrl;
+
     @Value("${aiq.orgname}")
     private String aiqOrgName;
 
@@ -79,45 +216,632 @@ public class IntegrationServiceImpl implements IntegrationService {
     @Value("${aiq.scope:integration}")
     private String aiqScope;
 
+    @Value("${aiq.token.renewBefore:60}")
+    private long tokenRenewBefore;
+
+    @Value("${aiq.links.warmup:true}")
+    private boolean linksWarmup;
+
+    @Value("${aiq.links.refreshInterval:300}")
+    private long linksRefreshInterval;
+
+    @Value("${aiq.newdataavailable.coalesceWindow:0}")
+    private long newDataAvailableCoalesceWindow;
+
+    @Value("${aiq.newdataavailable.coalesceMaxIds:10000}")
+    private int newDataAvailableCoalesceMaxIds;
+
+    @Value("${aiq.outbox.directory:}")
+    private String outboxDirectory;
+
+    @Value("${aiq.outbox.segmentSize:16777216}")
+    private long outboxSegmentSize;
+
+    @Value("${aiq.outbox.retryInterval:1000}")
+    private long outboxRetryInterval;
+
+    @Value("${aiq.outbox.maxRetryInterval:60000}")
+    private long outboxMaxRetryInterval;
+
+    @Value("${aiq.newdataavailable.chunkSize:10000}")
+    private int newDataAvailableChunkSize;
+
+    @Value("${aiq.backendmessages.recipientChunkSize:10000}")
+    private int backendMessageRecipientChunkSize;
+
+    @Value("${aiq.backendmessages.replica:false}")
+    private boolean backendMessageReplicaEnabled;
+
+    @Value("${aiq.backendmessages.replicaSyncInterval:60}")
+    private long backendMessageReplicaSyncInterval;
+
+    @Value("${aiq.bulk.parallelism:4}")
+    private int bulkParallelism;
+
+    @Value("${aiq.failover.probeInterval:5000}")
+    private long failoverProbeInterval;
+
+    @Value("${aiq.failover.smoothing:0.2}")
+    private double failoverSmoothing;
+
+    @Value("${aiq.circuitbreaker.enabled:false}")
+    private boolean circuitBreakerEnabled;
+
+    @Value("${aiq.circuitbreaker.failureRateThreshold:50}")
+    private int circuitBreakerFailureRateThreshold;
+
+    @Value("${aiq.circuitbreaker.minimumCalls:10}")
+    private int circuitBreakerMinimumCalls;
+
+    @Value("${aiq.circuitbreaker.windowSize:50}")
+    private int circuitBreakerWindowSize;
+
+    @Value("${aiq.circuitbreaker.openDuration:30000}")
+    private long circuitBreakerOpenDuration;
+
+    @Value("${aiq.circuitbreaker.halfOpenCalls:3}")
+    private int circuitBreakerHalfOpenCalls;
+
+    @Value("${aiq.retry.maxAttempts:1}")
+    private int retryMaxAttempts;
+
+    @Value("${aiq.retry.initialBackoff:200}")
+    private long retryInitialBackoff;
+
+    @Value("${aiq.retry.maxBackoff:10000}")
+    private long retryMaxBackoff;
+
+    @Value("${aiq.retry.deadline:30000}")
+    private long retryDeadline;
+
+    @Value("${aiq.limiter.enabled:false}")
+    private boolean limiterEnabled;
+
+    @Value("${aiq.limiter.initialLimit:20}")
+    private int limiterInitialLimit;
+
+    @Value("${aiq.limiter.minLimit:1}")
+    private int limiterMinLimit;
+
+    @Value("${aiq.limiter.maxLimit:100}")
+    private int limiterMaxLimit;
+
+    @Value("${aiq.limiter.maxQueued:100}")
+    private int limiterMaxQueued;
+
+    @Value("${aiq.limiter.maxWait:10000}")
+    private long limiterMaxWait;
+
+    @Value("${aiq.hedge.enabled:false}")
+    private boolean hedgeEnabled;
+
+    @Value("${aiq.hedge.percentile:95}")
+    private double hedgePercentile;
+
+    @Value("${aiq.hedge.maxRatio:0.05}")
+    private double hedgeMaxRatio;
+
+    @Value("${aiq.hedge.minDelay:10}")
+    private long hedgeMinDelay;
+
+    @Value("${aiq.hedge.windowSize:1000}")
+    private int hedgeWindowSize;
+
+    @Value("${aiq.hedge.threads:32}")
+    private int hedgeThreads;
+
+    @Value("${aiq.loader.enabled:false}")
+    private boolean loaderEnabled;
+
+    @Value("${aiq.loader.ttl:0}")
+    private long loaderTtl;
+
+    @Value("${aiq.loader.batchWindow:0}")
+    private long loaderBatchWindow;
+
+    @Value("${aiq.loader.batchMinSize:10}")
+    private int loaderBatchMinSize;
+
+    @Value("${aiq.loader.cacheSize:10000}")
+    private int loaderCacheSize;
+
+    @Value("${aiq.conditionalget.cacheSize:0}")
+    private int conditionalGetCacheSize;
+
+    @Value("${aiq.validatetoken.cacheSize:0}")
+    private int validateTokenCacheSize;
+
+    @Value("${aiq.validatetoken.ttl:300}")
+    private long validateTokenTtl;
+
+    @Value("${aiq.validatetoken.negativeTtl:10}")
+    private long validateTokenNegativeTtl;
+
+    @Autowired
+    private HttpTransport transport;
+
+    private RestTemplate restTemplate;
+    private RestTemplate restTemplateWithAuth;
+    private RestTemplate streamingRestTemplate;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Runs the parts of bulk operations, at most {@code aiq.bulk.parallelism} at a time.
+     */
+    private ThreadPoolExecutor bulkExecutor;
+
+    private NewDataAvailableCoalescer newDataAvailableCoalescer;
+
+    private Outbox outbox;
+
+    private UserTokenCache userTokenCache;
+
+    private ConditionalGetCache conditionalGetCache;
+
+    private EntityLoader<User> userLoader;
+
+    private EntityLoader<ClientSession> clientSessionLoader;
+
+    private EntityLoader<EnrichedBackendMessage> backendMessageLoader;
+
+    private BackendMessageReplica backendMessageReplica;
+
+    private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    private RetryPolicy retryPolicy;
+
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    private ExecutorService hedgeExecutor;
+
+    private Hedger hedger;
+
+    private FailoverRouter failoverRouter;
+
+    @PostConstruct
+    public void init() {
+        List<String> urls = new ArrayList<>();
+        for (String url : StringUtils.commaDelimitedListToStringArray(aiqUrl)) {
+            if (StringUtils.hasText(url)) {
+                urls.add(url.trim());
+            }
+        }
+        Assert.notEmpty(urls, "no aiq.url");
+        rootUrl = urls.get(0);
+
+        ClientHttpRequestFactory requestFactory = transport.getRequestFactory();
+        List<ClientHttpRequestInterceptor> interceptors =
+                Collections.<ClientHttpRequestInterceptor>singletonList(new HeaderHttpRequestInterceptor());
+
+        restTemplate = new RestTemplate(requestFactory);
+        useJsonConverter(restTemplate);
+
+        restTemplateWithAuth = new RestTemplate(requestFactory);
+        restTemplateWithAuth.setInterceptors(interceptors);
+        useJsonConverter(restTemplateWithAuth);
+
+        // interceptors would buffer the body, so requests through this one set the Authorization header themselves
+        streamingRestTemplate = new RestTemplate(transport.getStreamingRequestFactory());
+        useJsonConverter(streamingRestTemplate);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(HttpTransport.daemonThreadFactory("aiq-integration-service-"));
+
+        if (linksWarmup) {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fetchUserToken();
+                    } catch (RuntimeException e) {
+                        LOG.warn("Unable to fetch links from server at startup, will try again on first request", e);
+                    }
+                }
+            });
+        }
+        if (linksRefreshInterval > 0) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    refreshLinks();
+                }
+            }, linksRefreshInterval, linksRefreshInterval, TimeUnit.SECONDS);
+        }
+
+        bulkExecutor = new ThreadPoolExecutor(bulkParallelism, bulkParallelism, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), HttpTransport.daemonThreadFactory("aiq-bulk-"));
+        bulkExecutor.allowCoreThreadTimeOut(true);
+
+        if (newDataAvailableCoalesceWindow > 0) {
+            newDataAvailableCoalescer = new NewDataAvailableCoalescer(mapper, new NewDataAvailableCoalescer.Sender() {
+                @Override
+                public void send(ObjectNode request) {
+                    if (outbox != null) {
+                        appendToOutbox(OUTBOX_NEW_DATA_AVAILABLE, request);
+                    } else {
+                        sendNewDataAvailable(request);
+                    }
+                }
+            }, newDataAvailableCoalesceWindow, newDataAvailableCoalesceMaxIds);
+        }
+
+        retryPolicy = new RetryPolicy(retryMaxAttempts, retryInitialBackoff, retryMaxBackoff, retryDeadline);
+
+        if (limiterEnabled) {
+            concurrencyLimiter = new ConcurrencyLimiter(limiterInitialLimit, limiterMinLimit, limiterMaxLimit,
+                    limiterMaxQueued, limiterMaxWait);
+        }
+
+        if (urls.size() > 1) {
+            failoverRouter = new FailoverRouter(urls, failoverSmoothing);
+            if (failoverProbeInterval > 0) {
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        probeUnhealthyServers();
+                    }
+                }, failoverProbeInterval, failoverProbeInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (hedgeEnabled) {
+            hedgeExecutor = new ThreadPoolExecutor(0, hedgeThreads, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), HttpTransport.daemonThreadFactory("aiq-hedge-"));
+            hedger = new Hedger(hedgeExecutor, concurrencyLimiter, hedgeWindowSize, hedgePercentile, hedgeMaxRatio,
+                    hedgeMinDelay);
+        }
+
+        if (loaderEnabled) {
+            initLoaders();
+        }
+
+        if (backendMessageReplicaEnabled) {
+            backendMessageReplica = new BackendMessageReplica();
+            if (backendMessageReplicaSyncInterval > 0) {
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            syncBackendMessageReplica();
+                        } catch (RuntimeException e) {
+                            LOG.warn("Unable to sync backend messages from server, will try again later", e);
+                        }
+                    }
+                }, backendMessageReplicaSyncInterval, backendMessageReplicaSyncInterval, TimeUnit.SECONDS);
+            }
+        }
+
+        if (conditionalGetCacheSize > 0) {
+            conditionalGetCache = new ConditionalGetCache(conditionalGetCacheSize);
+        }
+
+        if (validateTokenCacheSize > 0) {
+            userTokenCache = new UserTokenCache(validateTokenCacheSize, validateTokenTtl, validateTokenNegativeTtl);
+        }
+
+        if (StringUtils.hasText(outboxDirectory)) {
+            try {
+                outbox = new Outbox(new File(outboxDirectory), new Outbox.Deliverer() {
+                    @Override
+                    public void deliver(byte type, byte[] payload) {
+                        deliverOutboxEntry(type, payload);
+                    }
+                }, outboxSegmentSize, outboxRetryInterval, outboxMaxRetryInterval);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open outbox in " + outboxDirectory, e);
+            }
+        }
+    }
+
+    private void initLoaders() {
+        userLoader = new EntityLoader<>(new EntityLoader.Source<User>() {
+            @Override
+            public User fetch(String id) {
+                return getUser(id);
+            }
+
+            @Override
+            public Map<String, User> fetchAll() {
+                Map<String, User> users = new HashMap<>();
+                for (User user : fetchUsers()) {
+                    users.put(user.get_id(), user);
+                }
+                return users;
+            }
+        }, loaderTtl, loaderBatchWindow, loaderBatchMinSize, loaderCacheSize);
+
+        clientSessionLoader = new EntityLoader<>(new EntityLoader.Source<ClientSession>() {
+            @Override
+            public ClientSession fetch(String id) {
+                return getClientSession(id);
+            }
+
+            @Override
+            public Map<String, ClientSession> fetchAll() {
+                Map<String, ClientSession> clientSessions = new HashMap<>();
+                for (ClientSession clientSession : fetchClientSessions()) {
+                    clientSessions.put(clientSession.get_id(), clientSession);
+                }
+                return clientSessions;
+            }
+        }, loaderTtl, loaderBatchWindow, loaderBatchMinSize, loaderCacheSize);
+
+        backendMessageLoader = new EntityLoader<>(new EntityLoader.Source<EnrichedBackendMessage>() {
+            @Override
+            public EnrichedBackendMessage fetch(String id) {
+                return getBackendMessage(id);
+            }
+
+            @Override
+            public Map<String, EnrichedBackendMessage> fetchAll() {
+                // the list leaves out the read reports and recipients, and may come from the replica
+                return null;
+            }
+        }, loaderTtl, 0, loaderBatchMinSize, loaderCacheSize);
+    }
+
+    /**
+     * Replace the template's own JSON converter, so all JSON goes through one mapper and its cached readers and writers.
+     */
+    private void useJsonConverter(RestTemplate template) {
+        List<HttpMessageConverter<?>> converters = template.getMessageConverters();
+        for (int i = 0; i < converters.size(); i++) {
+            if (converters.get(i) instanceof MappingJackson2HttpMessageConverter) {
+                converters.set(i, jsonConverter);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // pending merged requests go to the outbox, if there is one
+        if (newDataAvailableCoalescer != null) {
+            newDataAvailableCoalescer.shutdown();
+        }
+        if (outbox != null) {
+            outbox.shutdown();
+        }
+        scheduler.shutdownNow();
+        bulkExecutor.shutdownNow();
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the coalescer merging newdataavailable requests, or {@code null} if not enabled with
+     * {@code aiq.newdataavailable.coalesceWindow}
+     */
+    public NewDataAvailableCoalescer getNewDataAvailableCoalescer() {
+        return newDataAvailableCoalescer;
+    }
+
+    /**
+     * @return the outbox for newdataavailable requests and queued backend messages, or {@code null} if not enabled with
+     * {@code aiq.outbox.directory}
+     */
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * @return the cache of {@link #validateUserToken} results, or {@code null} if not enabled with
+     * {@code aiq.validatetoken.cacheSize}
+     */
+    public UserTokenCache getUserTokenCache() {
+        return userTokenCache;
+    }
+
+    /**
+     * @return the cache of list responses revalidated with the server, or {@code null} if not enabled with
+     * {@code aiq.conditionalget.cacheSize}
+     */
+    public ConditionalGetCache getConditionalGetCache() {
+        return conditionalGetCache;
+    }
+
+    /**
+     * @return the loader behind {@link #fetchUser}, or {@code null} if not enabled with {@code aiq.loader.enabled}
+     */
+    public EntityLoader<User> getUserLoader() {
+        return userLoader;
+    }
+
+    /**
+     * @return the loader behind {@link #fetchClientSession}, or {@code null} if not enabled with {@code aiq.loader.enabled}
+     */
+    public EntityLoader<ClientSession> getClientSessionLoader() {
+        return clientSessionLoader;
+    }
+
+    /**
+     * @return the loader behind {@link #fetchBackendMessage}, or {@code null} if not enabled with {@code aiq.loader.enabled}
+     */
+    public EntityLoader<EnrichedBackendMessage> getBackendMessageLoader() {
+        return backendMessageLoader;
+    }
+
+    /**
+     * @return the local copy of the backend messages behind {@link #fetchBackendMessages}, or {@code null} if not
+     * enabled with {@code aiq.backendmessages.replica}
+     */
+    public BackendMessageReplica getBackendMessageReplica() {
+        return backendMessageReplica;
+    }
+
+    /**
+     * Download all backend messages and reconcile the replica with them, or wait for a sync already in progress.
+     */
+    public void syncBackendMessageReplica() {
+        replicaSync.execute(REPLICA_SYNC_KEY, new Callable<BackendMessageReplica>() {
+            @Override
+            public BackendMessageReplica call() {
+                long since = backendMessageReplica.beginSync();
+                backendMessageReplica.reconcile(getBackendMessages(null, true), since);
+                return backendMessageReplica;
+            }
+        });
+    }
+
+    /**
+     * @return the replica, synced with the server if it has not been yet
+     */
+    private BackendMessageReplica syncedBackendMessageReplica() {
+        if (!backendMessageReplica.isSynced()) {
+            syncBackendMessageReplica();
+        }
+        return backendMessageReplica;
+    }
+
     public void fetchOrgRootMenu() {
-        URI url = UriComponentsBuilder.fromUriString(aiqUrl).queryParam("orgName", aiqOrgName).build().toUri();
-        try {
-            OrgRootMenu orgRootMenu = new RestTemplate().getForObject(url, OrgRootMenu.class);
+        OrgRootMenu orgRootMenu = callWithFailover(rootMenuLink(), true, new ServerCall<OrgRootMenu>() {
+            @Override
+            public OrgRootMenu call(URI url) {
+                try {
+                    return restTemplate.getForObject(url, OrgRootMenu.class);
+                } catch (HttpStatusCodeException e) {
+                    throw reportHttpError(url, e);
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
+            }
+        });
 
-            URI baseURL = URI.create(aiqUrl);
+        URI baseURL = URI.create(rootUrl);
 
-            for (Iterator<Map.Entry<String, JsonNode>> iterator = orgRootMenu.getLinks().fields(); iterator.hasNext(); ) {
-                Map.Entry<String, JsonNode> entry = iterator.next();
-                cache.put(ROOT_LINK_CACHE_KEY + entry.getKey(), baseURL.resolve(entry.getValue().textValue()));
+        LinkRegistry current;
+        do {
+            current = links.get();
+        } while (!links.compareAndSet(current, current.withRootLinks(baseURL, orgRootMenu.getLinks())));
+    }
+
+    private URI rootMenuLink() {
+        return UriComponentsBuilder.fromUriString(rootUrl).queryParam("orgName", aiqOrgName).build().toUri();
+    }
+
+    /**
+     * Fetch the root menu, and the integration links unless they are refreshed along with an expiring access token anyway.
+     */
+    private void refreshLinks() {
+        try {
+            refreshRootMenu();
+            boolean renewing;
+            synchronized (this) {
+                renewing = tokenRenewal != null;
             }
-        } catch (HttpStatusCodeException e) {
-            throw reportHttpError(url, e);
-        } catch (ResourceAccessException e) {
-            throw new ServerUnavailableException(e.getMessage());
-        } catch (HttpMessageConversionException | RestClientException e) {
-            throw new ServerException(url, e.getMessage());
+            if (!renewing && accessToken != null) {
+                refreshAccessToken(accessToken);
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("Unable to refresh links from server", e);
         }
     }
 
+    /**
+     * @return a valid access token, waits for a new token if the cached one has been rejected by the server or has expired
+     */
     public String fetchUserToken() {
-        if (!cache.containsKey(ACCESS_TOKEN_CACHE_KEY)) {
-            fetchAccessToken();
+        String token = accessToken;
+        // a second round if we joined a refresh which started before the token was rejected
+        for (int round = 0; round < 2 && !isUsable(token); round++) {
+            token = refreshAccessToken(token);
         }
-        return (String) cache.get(ACCESS_TOKEN_CACHE_KEY);
+        return token;
+    }
+
+    private boolean isUsable(String token) {
+        return token != null && !token.equals(staleToken) && System.currentTimeMillis() < tokenExpiresAt;
+    }
+
+    /**
+     * @return the cached access token even if it has been rejected, only waits if there is no token at all
+     */
+    private String currentUserToken() {
+        String token = accessToken;
+        if (token == null) {
+            token = refreshAccessToken(null);
+        }
+        return token;
     }
 
     public URI fetchIntegrationLink(String link) {
-        if (!cache.containsKey(INTEGRATION_LINK_CACHE_KEY + link)) {
-            fetchAccessToken();
+        URI uri = links.get().getIntegrationLink(link);
+        if (uri == null) {
+            refreshAccessToken(accessToken);
+            uri = links.get().getIntegrationLink(link);
         }
-        return (URI) cache.get(INTEGRATION_LINK_CACHE_KEY + link);
+        return uri;
     }
 
     public URI fetchRootLink(String link) {
-        if (!cache.containsKey(ROOT_LINK_CACHE_KEY + link)) {
-            fetchOrgRootMenu();
+        URI uri = links.get().getRootLink(link);
+        if (uri == null) {
+            refreshRootMenu();
+            uri = links.get().getRootLink(link);
         }
-        return (URI) cache.get(ROOT_LINK_CACHE_KEY + link);
+        return uri;
+    }
+
+    /**
+     * Fetch the root menu, unless another thread already is, in which case wait for that one.
+     */
+    private void refreshRootMenu() {
+        rootMenuRefresh.execute(ROOT_MENU_KEY, new Callable<LinkRegistry>() {
+            @Override
+            public LinkRegistry call() {
+                fetchOrgRootMenu();
+                return links.get();
+            }
+        });
+    }
+
+    /**
+     * @return the links currently known, which are never {@code null} but may be empty before the first request
+     */
+    public LinkRegistry getLinkRegistry() {
+        return links.get();
+    }
+
+    /**
+     * Fetch a new access token, unless another thread already is, in which case wait for that one.
+     *
+     * @param seenToken the token the caller considers invalid, or {@code null}
+     */
+    private String refreshAccessToken(final String seenToken) {
+        return tokenRefresh.execute(ACCESS_TOKEN_KEY, new Callable<String>() {
+            @Override
+            public String call() {
+                String token = accessToken;
+                if (isUsable(token) && !token.equals(seenToken)) {
+                    return token; // refreshed by someone else after the caller looked
+                }
+                fetchAccessToken();
+                return accessToken;
+            }
+        });
+    }
+
+    /**
+     * @return number of access token requests made to the server
+     */
+    public long getTokenRefreshCount() {
+        return tokenRefresh.getFlightCount();
+    }
+
+    /**
+     * @return number of callers which waited for a token request made by another thread
+     */
+    public long getTokenRefreshJoinedCount() {
+        return tokenRefresh.getJoinedCount();
+    }
+
+    /**
+     * @return number of callers which waited for the most recent token request
+     */
+    public int getLastTokenRefreshJoinedCount() {
+        return tokenRefresh.getLastJoinedCount();
     }
 
     private void fetchAccessToken() {
@@ -131,29 +855,77 @@ public class IntegrationServiceImpl implements IntegrationService {
         body.add("scope", aiqScope);
         body.add("x-solution", aiqSolution);
 
-        HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(body, headers);
+        final HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(body, headers);
 
         URI baseURL = fetchRootLink("token");
-        try {
-            AccessToken accessToken = new RestTemplate().postForObject(baseURL, request, AccessToken.class);
+        long requested = System.currentTimeMillis();
+        AccessToken accessToken = callWithFailover(baseURL, true, new ServerCall<AccessToken>() {
+            @Override
+            public AccessToken call(URI url) {
+                try {
+                    return restTemplate.postForObject(url, request, AccessToken.class);
+                } catch (HttpStatusCodeException e) {
+                    throw reportHttpError(url, e);
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
+            }
+        });
 
-            cache.put(ACCESS_TOKEN_CACHE_KEY, accessToken.getAccess_token());
+        LinkRegistry current;
+        do {
+            current = links.get();
+        } while (!links.compareAndSet(current, current.withIntegrationLinks(baseURL, accessToken.getLinks())));
 
-            for (Iterator<Map.Entry<String, JsonNode>> iterator = accessToken.getLinks().fields(); iterator.hasNext(); ) {
-                Map.Entry<String, JsonNode> entry = iterator.next();
-                cache.put(INTEGRATION_LINK_CACHE_KEY + entry.getKey(), baseURL.resolve(entry.getValue().textValue()));
-            }
-        } catch (HttpStatusCodeException e) {
-            throw reportHttpError(baseURL, e);
-        } catch (ResourceAccessException e) {
-            throw new ServerUnavailableException(e.getMessage());
-        } catch (HttpMessageConversionException | RestClientException e) {
-            throw new ServerException(baseURL, e.getMessage());
+        long expiresIn = accessToken.getExpiresInSeconds();
+        tokenExpiresAt = expiresIn > 0 ? requested + TimeUnit.SECONDS.toMillis(expiresIn) : Long.MAX_VALUE;
+        this.accessToken = accessToken.getAccess_token();
+        scheduleTokenRenewal(accessToken.getAccess_token(), expiresIn);
+    }
+
+    /**
+     * Renew {@code token} in the background {@code aiq.token.renewBefore} seconds before it expires,
+     * but not before half of its lifetime has passed, so requests never wait for a token under steady load.
+     * The integration links are refreshed along with the token.
+     */
+    private synchronized void scheduleTokenRenewal(String token, long expiresIn) {
+        if (tokenRenewal != null) {
+            tokenRenewal.cancel(false);
+            tokenRenewal = null;
+        }
+        if (expiresIn > 0) {
+            long delay = Math.max(expiresIn - tokenRenewBefore, expiresIn / 2);
+            scheduleTokenRenewal(token, Math.max(delay, 1), TimeUnit.SECONDS);
         }
     }
 
-    private void invalidateUserToken() {
-        cache.remove(ACCESS_TOKEN_CACHE_KEY);
+    private synchronized void scheduleTokenRenewal(final String token, long delay, TimeUnit unit) {
+        if (scheduler.isShutdown()) return;
+        tokenRenewal = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refreshAccessToken(token);
+                } catch (RuntimeException e) {
+                    long remaining = tokenExpiresAt - System.currentTimeMillis();
+                    LOG.warn("Unable to renew access token", e);
+                    if (remaining > 0 && token.equals(accessToken)) {
+                        scheduleTokenRenewal(token, Math.max(Math.min(remaining / 2, 30000), 1000), TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        }, delay, unit);
+    }
+
+    /**
+     * Mark {@code token} as rejected, unless it has already been replaced.
+     */
+    private void invalidateAccessToken(String token) {
+        if (token != null && token.equals(accessToken)) {
+            staleToken = token;
+        }
     }
 
     public static String authorizationValue(String token) {
@@ -165,10 +937,10 @@ public class IntegrationServiceImpl implements IntegrationService {
         ClientSession[] clientSessions;
 
         try {
-            clientSessions = getForObject(fetchIntegrationLink(CLIENTSESSIONS), ClientSession[].class);
+            clientSessions = getForArray(fetchIntegrationLink(CLIENTSESSIONS), ClientSession[].class);
         } catch (UnauthorizedException e) {
             if (fetchUserToken() != null)
-                clientSessions = getForObject(fetchIntegrationLink(CLIENTSESSIONS), ClientSession[].class);
+                clientSessions = getForArray(fetchIntegrationLink(CLIENTSESSIONS), ClientSession[].class);
             else
                 throw e;
         }
@@ -176,10 +948,28 @@ public class IntegrationServiceImpl implements IntegrationService {
         return Arrays.asList(clientSessions);
     }
 
+    @Override
+    public void forEachClientSession(Visitor<ClientSession> visitor) {
+        Assert.notNull(visitor, "visitor is null");
+
+        try {
+            getForEach(fetchIntegrationLink(CLIENTSESSIONS), ClientSession.class, visitor);
+        } catch (UnauthorizedException e) {
+            if (fetchUserToken() != null)
+                getForEach(fetchIntegrationLink(CLIENTSESSIONS), ClientSession.class, visitor);
+            else
+                throw e;
+        }
+    }
+
     @Override
     public ClientSession fetchClientSession(String id) {
         Assert.hasLength(id, "sessionId is missing");
 
+        return clientSessionLoader != null ? clientSessionLoader.load(id) : getClientSession(id);
+    }
+
+    private ClientSession getClientSession(String id) {
         try {
             return getForObjectOrNull(UriComponentsBuilder.fromUri(fetchIntegrationLink(CLIENTSESSIONS)).pathSegment(id).build().toUri(), ClientSession.class);
         } catch (UnauthorizedException e) {
@@ -201,6 +991,10 @@ public class IntegrationServiceImpl implements IntegrationService {
                 return delete(UriComponentsBuilder.fromUri(fetchIntegrationLink(CLIENTSESSIONS)).pathSegment(id).build().toUri());
             else
                 throw e;
+        } finally {
+            if (clientSessionLoader != null) {
+                clientSessionLoader.invalidate(id);
+            }
         }
     }
 
@@ -208,33 +1002,122 @@ public class IntegrationServiceImpl implements IntegrationService {
     public void newDataAvailableForUsers(List<String> userIds) {
         Assert.notNull(userIds, "userIds is null");
 
-        ObjectNode request = mapper.createObjectNode();
-        ArrayNode users = mapper.createArrayNode();
-        for (String userId : userIds) {
-            users.add(userId);
+        newDataAvailableForUsers(userIds, false, null);
+    }
+
+    @Override
+    public void newDataAvailableForUsers(List<String> userIds, ObjectNode condition) {
+        Assert.notNull(userIds, "userIds is null");
+
+        newDataAvailableForUsers(userIds, true, condition);
+    }
+
+    private void newDataAvailableForUsers(List<String> userIds, boolean urgent, ObjectNode condition) {
+        if (outbox != null || newDataAvailableCoalescer != null) {
+            ObjectNode request = mapper.createObjectNode();
+            ArrayNode users = mapper.createArrayNode();
+            for (String userId : userIds) {
+                users.add(userId);
+            }
+            request.put("users", users);
+            request.put("urgent", urgent);
+            if (condition != null) {
+                request.put("condition", condition);
+            }
+
+            makeNewDataAvailableRequest(request);
+        } else {
+            // one request, so that it either fails or succeeds as a whole; chunking is up to the Chunked methods
+            streamNewDataAvailableForUsers(userIds, urgent, condition);
         }
-        request.put("users", users);
-        request.put("urgent", false);
+    }
 
-        makeNewDataAvailableRequest(request);
+    @Override
+    public NewDataAvailableResult newDataAvailableForUsersChunked(List<String> userIds) {
+        Assert.notNull(userIds, "userIds is null");
+
+        return sendNewDataAvailableForUsers(userIds, false, null);
     }
 
     @Override
-    public void newDataAvailableForUsers(List<String> userIds, ObjectNode condition) {
+    public NewDataAvailableResult newDataAvailableForUsersChunked(List<String> userIds, ObjectNode condition) {
         Assert.notNull(userIds, "userIds is null");
 
-        ObjectNode request = mapper.createObjectNode();
-        ArrayNode users = mapper.createArrayNode();
-        for (String userId : userIds) {
-            users.add(userId);
+        return sendNewDataAvailableForUsers(userIds, true, condition);
+    }
+
+    /**
+     * Split {@code userIds} into chunks of {@code aiq.newdataavailable.chunkSize} and send them in parallel,
+     * streaming each request body rather than building it in memory.
+     */
+    private NewDataAvailableResult sendNewDataAvailableForUsers(List<String> userIds, final boolean urgent, final ObjectNode condition) {
+        List<List<String>> chunks = new ArrayList<>();
+        int chunkSize = Math.max(newDataAvailableChunkSize, 1);
+        for (int from = 0; from < userIds.size(); from += chunkSize) {
+            chunks.add(userIds.subList(from, Math.min(from + chunkSize, userIds.size())));
         }
-        request.put("users", users);
-        request.put("urgent", true);
-        if (condition != null) {
-            request.put("condition", condition);
+        if (chunks.isEmpty()) {
+            chunks.add(userIds);
         }
 
-        makeNewDataAvailableRequest(request);
+        List<NewDataAvailableResult.FailedChunk> failedChunks = new ArrayList<>();
+        if (chunks.size() == 1) {
+            try {
+                streamNewDataAvailableForUsers(chunks.get(0), urgent, condition);
+            } catch (RuntimeException e) {
+                failedChunks.add(new NewDataAvailableResult.FailedChunk(chunks.get(0), e));
+            }
+            return new NewDataAvailableResult(1, failedChunks);
+        }
+
+        List<Future<?>> futures = new ArrayList<>(chunks.size());
+        for (final List<String> chunk : chunks) {
+            futures.add(bulkExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    streamNewDataAvailableForUsers(chunk, urgent, condition);
+                }
+            }));
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            RuntimeException failure = awaitBulk(futures.get(i));
+            if (failure != null) {
+                failedChunks.add(new NewDataAvailableResult.FailedChunk(chunks.get(i), failure));
+            }
+        }
+        return new NewDataAvailableResult(chunks.size(), failedChunks);
+    }
+
+    /**
+     * Wait for a part of a bulk operation.
+     *
+     * @return the exception it failed with, or {@code null} if it succeeded
+     */
+    private RuntimeException awaitBulk(Future<?> future) {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            return (RuntimeException) e.getCause(); // the tasks are Runnables, so nothing checked
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return new ServerUnavailableException("Interrupted");
+        }
+    }
+
+    private void streamNewDataAvailableForUsers(List<String> userIds, boolean urgent, ObjectNode condition) {
+        try {
+            postForAccept(fetchIntegrationLink(NEWDATAAVAILABLE), new NewDataAvailableRequestCallback(userIds, urgent, condition));
+        } catch (UnauthorizedException e) {
+            if (fetchUserToken() != null)
+                postForAccept(fetchIntegrationLink(NEWDATAAVAILABLE), new NewDataAvailableRequestCallback(userIds, urgent, condition));
+            else
+                throw e;
+        }
     }
 
     @Override
@@ -288,10 +1171,75 @@ public class IntegrationServiceImpl implements IntegrationService {
             request.put("condition", condition);
         }
 
-        makeNewDataAvailableRequest(request);
+        makeNewDataAvailableRequest(request);
+    }
+
+    /**
+     * Merge the request with others if enabled, and write the result to the outbox if there is one.
+     */
+    private void makeNewDataAvailableRequest(ObjectNode request) {
+        if (newDataAvailableCoalescer != null) {
+            newDataAvailableCoalescer.add(request);
+        } else if (outbox != null) {
+            appendToOutbox(OUTBOX_NEW_DATA_AVAILABLE, request);
+        } else {
+            sendNewDataAvailableRequest(request);
+        }
+    }
+
+    private void appendToOutbox(byte type, Object request) {
+        try {
+            outbox.append(type, jsonConverter.writerFor(request.getClass()).writeValueAsBytes(request));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to outbox", e);
+        }
+    }
+
+    /**
+     * Send an entry from the outbox, which retries it if this throws {@link ServerUnavailableException}.
+     */
+    private void deliverOutboxEntry(byte type, byte[] payload) {
+        try {
+            switch (type) {
+                case OUTBOX_NEW_DATA_AVAILABLE:
+                    sendNewDataAvailable(jsonConverter.readerFor(ObjectNode.class).<ObjectNode>readValue(payload));
+                    break;
+
+                case OUTBOX_BACKEND_MESSAGE:
+                    createBackendMessage(jsonConverter.readerFor(BackendMessage.class).<BackendMessage>readValue(payload));
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unknown outbox entry type: " + type);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unreadable outbox entry", e);
+        }
+    }
+
+    /**
+     * Send a newdataavailable request, a list of users in chunks as {@link #newDataAvailableForUsersChunked} does.
+     */
+    private void sendNewDataAvailable(ObjectNode request) {
+        JsonNode users = request.get("users");
+        if (users == null) {
+            sendNewDataAvailableRequest(request);
+            return;
+        }
+
+        List<String> userIds = new ArrayList<>(users.size());
+        for (JsonNode user : users) {
+            userIds.add(user.textValue());
+        }
+        JsonNode condition = request.get("condition");
+        NewDataAvailableResult result = sendNewDataAvailableForUsers(userIds, request.path("urgent").asBoolean(),
+                condition instanceof ObjectNode ? (ObjectNode) condition : null);
+        if (!result.isSuccess()) {
+            throw result.getFailedChunks().get(0).getCause();
+        }
     }
 
-    private void makeNewDataAvailableRequest(ObjectNode request) {
+    private void sendNewDataAvailableRequest(ObjectNode request) {
         try {
             postForAccept(fetchIntegrationLink(NEWDATAAVAILABLE), request);
         } catch (UnauthorizedException e) {
@@ -352,6 +1300,41 @@ public class IntegrationServiceImpl implements IntegrationService {
         }
     }
 
+    @Override
+    public BackendContextUpdatesResult updateBackendContexts(Collection<BackendContextUpdate> updates) {
+        Assert.notNull(updates, "updates is null");
+        for (BackendContextUpdate update : updates) {
+            Assert.notNull(update, "update is null");
+            Assert.hasLength(update.getUserId(), "no userId");
+            Assert.hasLength(update.getDeviceId(), "no deviceId");
+            Assert.hasLength(update.getProvider(), "no provider");
+        }
+
+        final boolean[] found = new boolean[updates.size()];
+        List<Future<?>> futures = new ArrayList<>(updates.size());
+        int index = 0;
+        for (final BackendContextUpdate update : updates) {
+            final int updateIndex = index++;
+            futures.add(bulkExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    found[updateIndex] = update.isRemoval()
+                            ? removeBackendContext(update.getUserId(), update.getDeviceId(), update.getProvider())
+                            : updateBackendContext(update.getUserId(), update.getDeviceId(), update.getProvider(), update.getData());
+                }
+            }));
+        }
+
+        List<BackendContextUpdatesResult.UpdateResult> results = new ArrayList<>(updates.size());
+        index = 0;
+        for (BackendContextUpdate update : updates) {
+            RuntimeException failure = awaitBulk(futures.get(index));
+            results.add(new BackendContextUpdatesResult.UpdateResult(update, failure == null && found[index], failure));
+            index++;
+        }
+        return new BackendContextUpdatesResult(results);
+    }
+
     @Override
     public List<EnrichedBackendMessage> fetchBackendMessages() {
         return fetchBackendMessages(true);
@@ -359,21 +1342,46 @@ public class IntegrationServiceImpl implements IntegrationService {
 
     @Override
     public List<EnrichedBackendMessage> fetchBackendMessages(boolean withPayload) {
+        if (backendMessageReplica != null) {
+            return copyOf(syncedBackendMessageReplica().getAll(), withPayload);
+        }
+        return getBackendMessages(null, withPayload);
+    }
+
+    @Override
+    public List<EnrichedBackendMessage> fetchBackendMessages(String messageType, boolean withPayload) {
+        Assert.hasLength(messageType, "no messageType");
+
+        if (backendMessageReplica != null) {
+            return copyOf(syncedBackendMessageReplica().getByType(messageType), withPayload);
+        }
+        return getBackendMessages(messageType, withPayload);
+    }
+
+    /**
+     * @return copies of messages from the replica, as the server would return them, so that callers cannot change
+     * the replica
+     */
+    private List<EnrichedBackendMessage> copyOf(List<EnrichedBackendMessage> messages, boolean withPayload) {
+        List<EnrichedBackendMessage> copies = new ArrayList<>(messages.size());
+        for (EnrichedBackendMessage message : messages) {
+            ObjectNode tree = mapper.valueToTree(message);
+            if (!withPayload) {
+                tree.remove("payload");
+            }
+            copies.add(mapper.convertValue(tree, EnrichedBackendMessage.class));
+        }
+        return copies;
+    }
+
+    private List<EnrichedBackendMessage> getBackendMessages(String messageType, boolean withPayload) {
         EnrichedBackendMessage[] backendMessages;
 
         try {
-            backendMessages = getForObject(
-                    UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES))
-                            .queryParam("withPayload", withPayload)
-                            .build().toUri(),
-                    EnrichedBackendMessage[].class);
+            backendMessages = getForArray(backendMessagesLink(messageType, withPayload), EnrichedBackendMessage[].class);
         } catch (UnauthorizedException e) {
             if (fetchUserToken() != null)
-                backendMessages = getForObject(
-                        UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES))
-                                .queryParam("withPayload", withPayload)
-                                .build().toUri(),
-                        EnrichedBackendMessage[].class);
+                backendMessages = getForArray(backendMessagesLink(messageType, withPayload), EnrichedBackendMessage[].class);
             else
                 throw e;
         }
@@ -382,37 +1390,49 @@ public class IntegrationServiceImpl implements IntegrationService {
     }
 
     @Override
-    public List<EnrichedBackendMessage> fetchBackendMessages(String messageType, boolean withPayload) {
-        Assert.hasLength(messageType, "no messageType");
-
-        EnrichedBackendMessage[] backendMessages;
+    public void forEachBackendMessage(String messageType, boolean withPayload, Visitor<EnrichedBackendMessage> visitor) {
+        Assert.notNull(visitor, "visitor is null");
 
         try {
-            backendMessages = getForObject(
-                    UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES))
-                            .queryParam("type", messageType)
-                            .queryParam("withPayload", withPayload)
-                            .build().toUri(),
-                    EnrichedBackendMessage[].class);
+            getForEach(backendMessagesLink(messageType, withPayload), EnrichedBackendMessage.class, visitor);
         } catch (UnauthorizedException e) {
             if (fetchUserToken() != null)
-                backendMessages = getForObject(
-                        UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES))
-                                .queryParam("type", messageType)
-                                .queryParam("withPayload", withPayload)
-                                .build().toUri(),
-                        EnrichedBackendMessage[].class);
+                getForEach(backendMessagesLink(messageType, withPayload), EnrichedBackendMessage.class, visitor);
             else
                 throw e;
         }
+    }
 
-        return Arrays.asList(backendMessages);
+    private URI backendMessagesLink(String messageType, boolean withPayload) {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES));
+        if (messageType != null) {
+            builder.queryParam("type", messageType);
+        }
+        return builder.queryParam("withPayload", withPayload).build().toUri();
     }
 
     @Override
     public EnrichedBackendMessage fetchBackendMessage(String id) {
         Assert.hasLength(id, "no messageId");
 
+        return backendMessageLoader != null ? backendMessageLoader.load(id) : getBackendMessage(id);
+    }
+
+    @Override
+    public BackendMessageReadStatistics fetchBackendMessageReadStatistics(String id) {
+        Assert.hasLength(id, "no messageId");
+
+        try {
+            return getReadStatisticsOrNull(UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES)).pathSegment(id).build().toUri());
+        } catch (UnauthorizedException e) {
+            if (fetchUserToken() != null)
+                return getReadStatisticsOrNull(UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES)).pathSegment(id).build().toUri());
+            else
+                throw e;
+        }
+    }
+
+    private EnrichedBackendMessage getBackendMessage(String id) {
         EnrichedBackendMessage enrichedBackendMessage;
 
         try {
@@ -434,69 +1454,107 @@ public class IntegrationServiceImpl implements IntegrationService {
 
     @Override
     public String createBackendMessage(BackendMessage message) {
-        ObjectNode request = mapper.valueToTree(message);
         try {
-            return extractEntityId(postForEntity(fetchIntegrationLink(BACKENDMESSAGES), request, ObjectNode.class).getBody());
+            return replicateCreated(extractEntityId(postForEntity(fetchIntegrationLink(BACKENDMESSAGES), message, ObjectNode.class).getBody()), message);
         } catch (UnauthorizedException e) {
             if (fetchUserToken() != null)
-                return extractEntityId(postForEntity(fetchIntegrationLink(BACKENDMESSAGES), request, ObjectNode.class).getBody());
+                return replicateCreated(extractEntityId(postForEntity(fetchIntegrationLink(BACKENDMESSAGES), message, ObjectNode.class).getBody()), message);
             else
                 throw e;
         }
     }
 
     @Override
-    public String createBackendMessage(BackendMessage message, Collection<MessageAttachment> attachments) {
-        RestTemplate restTemplate = getRestTemplateWithAuth();
-        FormHttpMessageConverter formHttpMessageConverter = new FormHttpMessageConverter();
-        formHttpMessageConverter.addPartConverter(new AttachmentHttpMessageConverter());
-        formHttpMessageConverter.addPartConverter(new MappingJackson2HttpMessageConverter());
-        restTemplate.setMessageConverters(Arrays.asList(
-                formHttpMessageConverter,
-                new MappingJackson2HttpMessageConverter()
-        ));
-
-        MultiValueMap<String, Object> parts = new LinkedMultiValueMap<>();
-        parts.add(ProtocolConstants.MESSAGE, message);
-        for (MessageAttachment attachment : attachments) {
-            parts.add(attachment.name, attachment);
-        }
-
-        URI url = fetchIntegrationLink(BACKENDMESSAGES);
-        try {
-            return extractEntityId(restTemplate.postForObject(url, parts, ObjectNode.class));
-        } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode()) {
-                case UNAUTHORIZED:
-                    invalidateUserToken();
-                    if (fetchUserToken() != null) {
-                        URI url2 = fetchIntegrationLink(BACKENDMESSAGES);
-                        try {
-                            return extractEntityId(
-                                    restTemplate.postForObject(url2, parts, ObjectNode.class));
-                        } catch (HttpStatusCodeException e2) {
-                            switch (e2.getStatusCode()) {
-                                case UNAUTHORIZED:
-                                    throw new UnauthorizedException();
-
-                                default:
-                                    throw reportHttpError(url2, e2);
-                            }
-                        } catch (ResourceAccessException e2) {
-                            throw new ServerUnavailableException(e2.getMessage());
-                        } catch (HttpMessageConversionException | RestClientException e2) {
-                            throw new ServerException(url, e2.getMessage());
-                        }
-                    } else
-                        throw new UnauthorizedException();
+    public void enqueueBackendMessage(BackendMessage message) {
+        Assert.notNull(message, "message is null");
 
-                default:
-                    throw reportHttpError(url, e);
+        if (outbox != null) {
+            appendToOutbox(OUTBOX_BACKEND_MESSAGE, message);
+        } else {
+            createBackendMessage(message);
+        }
+    }
+
+    @Override
+    public BackendMessagesResult createBackendMessages(Collection<BackendMessage> messages) {
+        Assert.notNull(messages, "messages is null");
+
+        List<List<BackendMessage>> parts = new ArrayList<>(messages.size());
+        int count = 0;
+        for (BackendMessage message : messages) {
+            Assert.notNull(message, "message is null");
+            List<BackendMessage> split = splitRecipients(message);
+            parts.add(split);
+            count += split.size();
+        }
+
+        final String[] ids = new String[count];
+        List<Future<?>> futures = new ArrayList<>(count);
+        int index = 0;
+        for (List<BackendMessage> split : parts) {
+            for (final BackendMessage part : split) {
+                final int partIndex = index++;
+                futures.add(bulkExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        ids[partIndex] = createBackendMessage(part);
+                    }
+                }));
+            }
+        }
+
+        List<BackendMessagesResult.MessageResult> results = new ArrayList<>(messages.size());
+        index = 0;
+        Iterator<List<BackendMessage>> splits = parts.iterator();
+        for (BackendMessage message : messages) {
+            List<String> messageIds = new ArrayList<>();
+            List<BackendMessagesResult.FailedMessage> failedMessages = new ArrayList<>();
+            for (BackendMessage part : splits.next()) {
+                RuntimeException failure = awaitBulk(futures.get(index));
+                if (failure == null) {
+                    messageIds.add(ids[index]);
+                } else {
+                    failedMessages.add(new BackendMessagesResult.FailedMessage(part, failure));
+                }
+                index++;
             }
-        } catch (ResourceAccessException e) {
-            throw new ServerUnavailableException(e.getMessage());
-        } catch (HttpMessageConversionException | RestClientException e) {
-            throw new ServerException(url, e.getMessage());
+            results.add(new BackendMessagesResult.MessageResult(message, messageIds, failedMessages));
+        }
+        return new BackendMessagesResult(results);
+    }
+
+    /**
+     * @return {@code message} split into messages of at most {@code aiq.backendmessages.recipientChunkSize} recipients
+     */
+    private List<BackendMessage> splitRecipients(BackendMessage message) {
+        int chunkSize = Math.max(backendMessageRecipientChunkSize, 1);
+        BackendMessageRecipients recipients = message.getRecipients();
+        if (recipients == null || recipients.getUsers() == null || recipients.getUsers().size() <= chunkSize) {
+            return Collections.singletonList(message);
+        }
+
+        List<String> users = new ArrayList<>(recipients.getUsers());
+        List<BackendMessage> split = new ArrayList<>();
+        for (int from = 0; from < users.size(); from += chunkSize) {
+            split.add(new BackendMessage(message.getType(), message.getActiveFrom(), message.getTimeToLive(),
+                    message.isUrgent(), message.get_launchable(), message.getPayload(),
+                    new BackendMessageRecipients(users.subList(from, Math.min(from + chunkSize, users.size()))),
+                    message.getNotification()));
+        }
+        return split;
+    }
+
+    @Override
+    public String createBackendMessage(BackendMessage message, Collection<MessageAttachment> attachments) {
+        MultipartRequestCallback request = new MultipartRequestCallback(message, attachments);
+
+        try {
+            return replicateCreated(extractEntityId(postMultipart(fetchIntegrationLink(BACKENDMESSAGES), request)), message);
+        } catch (UnauthorizedException e) {
+            if (fetchUserToken() != null)
+                return replicateCreated(extractEntityId(postMultipart(fetchIntegrationLink(BACKENDMESSAGES), request)), message);
+            else
+                throw e;
         }
     }
 
@@ -505,12 +1563,16 @@ public class IntegrationServiceImpl implements IntegrationService {
         Assert.hasLength(id, "no messageId");
 
         try {
-            return delete(UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES)).pathSegment(id).build().toUri());
+            return replicateDeleted(id, delete(UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES)).pathSegment(id).build().toUri()));
         } catch (UnauthorizedException e) {
             if (fetchUserToken() != null)
-                return delete(UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES)).pathSegment(id).build().toUri());
+                return replicateDeleted(id, delete(UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES)).pathSegment(id).build().toUri()));
             else
                 throw e;
+        } finally {
+            if (backendMessageLoader != null) {
+                backendMessageLoader.invalidate(id);
+            }
         }
     }
 
@@ -518,23 +1580,72 @@ public class IntegrationServiceImpl implements IntegrationService {
     public boolean updateBackendMessage(String id, BackendMessageUpdate messageUpdate) {
         Assert.hasLength(id, "no messageId");
 
-        ObjectNode request = mapper.valueToTree(messageUpdate);
-
         try {
-            return postForEntity(UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES)).pathSegment(id).build().toUri(), request, Void.class) != null;
+            return replicateUpdated(id, messageUpdate, postForEntity(UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES)).pathSegment(id).build().toUri(), messageUpdate, Void.class) != null);
         } catch (UnauthorizedException e) {
             if (fetchUserToken() != null)
-                return postForEntity(UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES)).pathSegment(id).build().toUri(), request, Void.class) != null;
+                return replicateUpdated(id, messageUpdate, postForEntity(UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES)).pathSegment(id).build().toUri(), messageUpdate, Void.class) != null);
             else
                 throw e;
+        } finally {
+            if (backendMessageLoader != null) {
+                backendMessageLoader.invalidate(id);
+            }
+        }
+    }
+
+    /**
+     * Add a message just created to the replica, as the server would return it apart from the created time.
+     */
+    private String replicateCreated(String id, BackendMessage message) {
+        if (backendMessageReplica != null) {
+            backendMessageReplica.put(new EnrichedBackendMessage(message.getType(), message.getActiveFrom(),
+                    message.getTimeToLive(), message.isUrgent(), message.get_launchable(), message.getPayload(),
+                    message.getNotification(), id, System.currentTimeMillis(),
+                    new EnrichedBackendMessageLinks(UriComponentsBuilder.fromUri(fetchIntegrationLink(BACKENDMESSAGES)).pathSegment(id).build().toUriString()),
+                    Collections.<BackendMessageReadReport>emptyList()));
+        }
+        return id;
+    }
+
+    private boolean replicateUpdated(String id, BackendMessageUpdate messageUpdate, boolean updated) {
+        if (backendMessageReplica != null) {
+            EnrichedBackendMessage message = backendMessageReplica.get(id);
+            if (!updated) {
+                backendMessageReplica.remove(id);
+            } else if (message != null) {
+                backendMessageReplica.put(new EnrichedBackendMessage(message.getType(), message.getActiveFrom(),
+                        messageUpdate.getTimeToLive() != 0 ? messageUpdate.getTimeToLive() : message.getTimeToLive(),
+                        message.isUrgent(), message.get_launchable(),
+                        messageUpdate.getPayload() != null ? messageUpdate.getPayload() : message.getPayload(),
+                        messageUpdate.getNotification() != null ? messageUpdate.getNotification() : message.getNotification(),
+                        id, message.getCreated().getTime(), message.getLinks(), message.getReadBy()));
+            }
         }
+        return updated;
+    }
+
+    private boolean replicateDeleted(String id, boolean deleted) {
+        if (backendMessageReplica != null) {
+            backendMessageReplica.remove(id);
+        }
+        return deleted;
     }
 
     @Override
     public User validateUserToken(String token) {
         Assert.hasLength(token, "no token");
 
-        ObjectNode request = mapper.valueToTree(new UserToken(token));
+        long generation = 0;
+        if (userTokenCache != null) {
+            UserTokenCache.Entry cached = userTokenCache.get(token);
+            if (cached != null) {
+                return cached.user;
+            }
+            generation = userTokenCache.generation();
+        }
+
+        UserToken request = new UserToken(token);
         AuthorizedUser authorizedUser;
 
         try {
@@ -546,19 +1657,48 @@ public class IntegrationServiceImpl implements IntegrationService {
                 throw e;
         }
 
-        if (authorizedUser != null)
-            return authorizedUser.getUser();
-        else
-            return null;
+        User user = authorizedUser != null ? authorizedUser.getUser() : null;
+        if (userTokenCache != null) {
+            userTokenCache.put(token, user, generation);
+        }
+        return user;
+    }
+
+    @Override
+    public void invalidateUserToken(String token) {
+        if (userTokenCache != null) {
+            userTokenCache.invalidate(token);
+        }
+    }
+
+    @Override
+    public void invalidateUserTokens(String userId) {
+        if (userTokenCache != null) {
+            userTokenCache.invalidateUser(userId);
+        }
     }
 
     @Override
     public List<User> fetchUsers() {
         try {
-            return Arrays.asList(getForObject(fetchIntegrationLink(USERS), User[].class));
+            return Arrays.asList(getForArray(fetchIntegrationLink(USERS), User[].class));
+        } catch (UnauthorizedException e) {
+            if (fetchUserToken() != null)
+                return Arrays.asList(getForArray(fetchIntegrationLink(USERS), User[].class));
+            else
+                throw e;
+        }
+    }
+
+    @Override
+    public void forEachUser(Visitor<User> visitor) {
+        Assert.notNull(visitor, "visitor is null");
+
+        try {
+            getForEach(fetchIntegrationLink(USERS), User.class, visitor);
         } catch (UnauthorizedException e) {
             if (fetchUserToken() != null)
-                return Arrays.asList(getForObject(fetchIntegrationLink(USERS), User[].class));
+                getForEach(fetchIntegrationLink(USERS), User.class, visitor);
             else
                 throw e;
         }
@@ -568,6 +1708,10 @@ public class IntegrationServiceImpl implements IntegrationService {
     public User fetchUser(String id) {
         Assert.hasLength(id, "userId is missing");
 
+        return userLoader != null ? userLoader.load(id) : getUser(id);
+    }
+
+    private User getUser(String id) {
         try {
             return getForObjectOrNull(UriComponentsBuilder.fromUri(fetchIntegrationLink(USERS)).pathSegment(id).build().toUri(), User.class);
         } catch (UnauthorizedException e) {
@@ -579,7 +1723,7 @@ public class IntegrationServiceImpl implements IntegrationService {
     }
 
     public void register(String integrationURL, String integrationPassword) {
-        ObjectNode request = mapper.valueToTree(new RegisterAdapterRequest(integrationURL, integrationPassword));
+        RegisterAdapterRequest request = new RegisterAdapterRequest(integrationURL, integrationPassword);
         try {
             doPut(fetchIntegrationLink(ADAPTER), request);
         } catch (UnauthorizedException e) {
@@ -605,191 +1749,810 @@ public class IntegrationServiceImpl implements IntegrationService {
         return doc.get("_id").textValue();
     }
 
-    public <T> ResponseEntity<T> postForEntity(URI url, Object request, Class<T> type) {
-        try {
-            return getRestTemplateWithAuth().postForEntity(url, request, type);
-        } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode()) {
-                case NOT_FOUND:
-                    return null;
+    public <T> ResponseEntity<T> postForEntity(URI url, final Object request, final Class<T> type) {
+        return call(url, false, new ServerCall<ResponseEntity<T>>() {
+            @Override
+            public ResponseEntity<T> call(URI url) {
+                try {
+                    return getRestTemplateWithAuth().postForEntity(url, request, type);
+                } catch (HttpStatusCodeException e) {
+                    switch (e.getStatusCode()) {
+                        case NOT_FOUND:
+                            return null;
+
+                        case UNAUTHORIZED:
+                            throw new UnauthorizedException();
+
+                        default:
+                            throw reportHttpError(url, e);
+                    }
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
+            }
+        });
+    }
 
-                case UNAUTHORIZED:
-                    invalidateUserToken();
-                    throw new UnauthorizedException();
+    public boolean doPut(URI url, final Object data) {
+        return call(url, true, new ServerCall<Boolean>() {
+            @Override
+            public Boolean call(URI url) {
+                try {
+                    getRestTemplateWithAuth().put(url, data);
+                    return true;
+                } catch (HttpStatusCodeException e) {
+                    switch (e.getStatusCode()) {
+                        case NOT_FOUND:
+                            return false;
+
+                        case UNAUTHORIZED:
+                            throw new UnauthorizedException();
+
+                        default:
+                            throw reportHttpError(url, e);
+                    }
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
+            }
+        });
+    }
 
-                default:
-                    throw reportHttpError(url, e);
+    public <T> T getForObject(URI url, final Class<T> type) {
+        return call(url, true, new ServerCall<T>() {
+            @Override
+            public T call(URI url) {
+                try {
+                    return getRestTemplateWithAuth().getForObject(url, type);
+                } catch (HttpStatusCodeException e) {
+                    switch (e.getStatusCode()) {
+                        case UNAUTHORIZED:
+                            throw new UnauthorizedException();
+
+                        default:
+                            throw reportHttpError(url, e);
+                    }
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
             }
-        } catch (ResourceAccessException e) {
-            throw new ServerUnavailableException(e.getMessage());
-        } catch (HttpMessageConversionException | RestClientException e) {
-            throw new ServerException(url, e.getMessage());
+        });
+    }
+
+    /**
+     * GET a JSON array. If the conditional GET cache is enabled, the last response is revalidated with the server,
+     * and reused without being downloaded or decoded again if not modified. The elements are then shared between
+     * callers, the array is not.
+     */
+    public <T> T[] getForArray(URI url, final Class<T[]> type) {
+        if (conditionalGetCache == null) {
+            return getForObject(url, type);
         }
+
+        return call(url, true, new ServerCall<T[]>() {
+            @Override
+            public T[] call(final URI url) {
+                final ConditionalGetCache.Entry cached = conditionalGetCache.get(url);
+                try {
+                    return getRestTemplateWithAuth().execute(url, HttpMethod.GET, new RequestCallback() {
+                        @Override
+                        public void doWithRequest(ClientHttpRequest request) {
+                            HttpHeaders headers = request.getHeaders();
+                            headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+                            if (cached != null && cached.etag != null) {
+                                headers.set("If-None-Match", cached.etag);
+                            }
+                            if (cached != null && cached.lastModified != null) {
+                                headers.set("If-Modified-Since", cached.lastModified);
+                            }
+                        }
+                    }, new ResponseExtractor<T[]>() {
+                        @Override
+                        public T[] extractData(ClientHttpResponse response) throws IOException {
+                            if (response.getStatusCode() == HttpStatus.NOT_MODIFIED && cached != null) {
+                                conditionalGetCache.hit(cached);
+                                return type.cast(((Object[]) cached.value).clone());
+                            }
+
+                            byte[] body = StreamUtils.copyToByteArray(response.getBody());
+                            long started = System.nanoTime();
+                            T[] value;
+                            try {
+                                value = jsonConverter.readerFor(type).readValue(body);
+                            } catch (JsonProcessingException e) {
+                                throw new HttpMessageNotReadableException("Could not read JSON: " + e.getMessage(), e);
+                            }
+                            conditionalGetCache.put(url, response.getHeaders().getFirst("ETag"),
+                                    response.getHeaders().getFirst("Last-Modified"),
+                                    value, body.length, System.nanoTime() - started);
+                            return type.cast(value.clone());
+                        }
+                    });
+                } catch (HttpStatusCodeException e) {
+                    switch (e.getStatusCode()) {
+                        case UNAUTHORIZED:
+                            throw new UnauthorizedException();
+
+                        default:
+                            throw reportHttpError(url, e);
+                    }
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
+            }
+        });
     }
 
-    public boolean doPut(URI url, Object data) {
-        try {
-            getRestTemplateWithAuth().put(url, data);
-            return true;
-        } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode()) {
-                case NOT_FOUND:
-                    return false;
+    /**
+     * GET a JSON array and pass each element to {@code visitor} as soon as it has been parsed.
+     * Not repeated if the connection fails halfway, since the visitor would see the same elements again.
+     */
+    public <T> void getForEach(URI url, final Class<T> type, final Visitor<T> visitor) {
+        call(url, false, new ServerCall<Void>() {
+            @Override
+            public Void call(URI url) {
+                try {
+                    return getRestTemplateWithAuth().execute(url, HttpMethod.GET, new RequestCallback() {
+                        @Override
+                        public void doWithRequest(ClientHttpRequest request) {
+                            request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+                        }
+                    }, new ResponseExtractor<Void>() {
+                        @Override
+                        public Void extractData(ClientHttpResponse response) throws IOException {
+                            try (JsonParser parser = mapper.getFactory().createParser(response.getBody())) {
+                                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                                    throw new HttpMessageNotReadableException("Expected JSON array");
+                                }
+                                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                                    visitor.visit(jsonConverter.readerFor(type).<T>readValue(parser));
+                                }
+                            } catch (JsonProcessingException e) {
+                                throw new HttpMessageNotReadableException("Could not read JSON: " + e.getMessage(), e);
+                            }
+                            return null;
+                        }
+                    });
+                } catch (HttpStatusCodeException e) {
+                    switch (e.getStatusCode()) {
+                        case UNAUTHORIZED:
+                            throw new UnauthorizedException();
+
+                        default:
+                            throw reportHttpError(url, e);
+                    }
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
+            }
+        });
+    }
 
-                case UNAUTHORIZED:
-                    invalidateUserToken();
-                    throw new UnauthorizedException();
+    /**
+     * GET a backend message and aggregate its read reports while the response is parsed.
+     */
+    public BackendMessageReadStatistics getReadStatisticsOrNull(URI url) {
+        return call(url, true, new ServerCall<BackendMessageReadStatistics>() {
+            @Override
+            public BackendMessageReadStatistics call(URI url) {
+                try {
+                    return getRestTemplateWithAuth().execute(url, HttpMethod.GET, new RequestCallback() {
+                        @Override
+                        public void doWithRequest(ClientHttpRequest request) {
+                            request.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+                        }
+                    }, new ResponseExtractor<BackendMessageReadStatistics>() {
+                        @Override
+                        public BackendMessageReadStatistics extractData(ClientHttpResponse response) throws IOException {
+                            try (JsonParser parser = mapper.getFactory().createParser(response.getBody())) {
+                                return ReadReportAggregator.aggregate(parser);
+                            } catch (JsonProcessingException e) {
+                                throw new HttpMessageNotReadableException("Could not read JSON: " + e.getMessage(), e);
+                            }
+                        }
+                    });
+                } catch (HttpStatusCodeException e) {
+                    switch (e.getStatusCode()) {
+                        case NOT_FOUND:
+                            return null;
+
+                        case UNAUTHORIZED:
+                            throw new UnauthorizedException();
+
+                        default:
+                            throw reportHttpError(url, e);
+                    }
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
+            }
+        });
+    }
 
-                default:
-                    throw reportHttpError(url, e);
+    /**
+     * GET a single entity, hedged with a second request if slow and enabled with {@code aiq.hedge.enabled}.
+     */
+    public <T> T getForObjectOrNull(URI url, final Class<T> type) {
+        return call(url, true, hedged(new ServerCall<T>() {
+            @Override
+            public T call(URI url) {
+                try {
+                    return getRestTemplateWithAuth().getForObject(url, type);
+                } catch (HttpStatusCodeException e) {
+                    switch (e.getStatusCode()) {
+                        case NOT_FOUND:
+                            return null;
+
+                        case UNAUTHORIZED:
+                            throw new UnauthorizedException();
+
+                        default:
+                            throw reportHttpError(url, e);
+                    }
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
             }
-        } catch (ResourceAccessException e) {
-            throw new ServerUnavailableException(e.getMessage());
-        } catch (HttpMessageConversionException | RestClientException e) {
-            throw new ServerException(url, e.getMessage());
-        }
+        }));
     }
 
-    public <T> T getForObject(URI url, Class<T> type) {
-        try {
-            return getRestTemplateWithAuth().getForObject(url, type);
-        } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode()) {
-                case UNAUTHORIZED:
-                    invalidateUserToken();
-                    throw new UnauthorizedException();
+    public <T> T postForObjectOrNull(URI url, final Object requestEntity, final Class<T> type) {
+        return call(url, false, new ServerCall<T>() {
+            @Override
+            public T call(URI url) {
+                try {
+                    return getRestTemplateWithAuth().postForObject(url, requestEntity, type);
+                } catch (HttpStatusCodeException e) {
+                    switch (e.getStatusCode()) {
+                        case BAD_REQUEST:
+                            return null;
+
+                        case UNAUTHORIZED:
+                            throw new UnauthorizedException();
+
+                        default:
+                            throw reportHttpError(url, e);
+                    }
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
+            }
+        });
+    }
 
-                default:
-                    throw reportHttpError(url, e);
+    public void postForAccept(URI url, final JsonNode requestEntity) {
+        call(url, false, new ServerCall<Void>() {
+            @Override
+            public Void call(URI url) {
+                try {
+                    getRestTemplateWithAuth().postForEntity(url, requestEntity, Void.class);
+                    return null;
+                } catch (HttpStatusCodeException e) {
+                    switch (e.getStatusCode()) {
+                        case ACCEPTED:
+                            return null;
+
+                        case UNAUTHORIZED:
+                            throw new UnauthorizedException();
+
+                        default:
+                            throw reportHttpError(url, e);
+                    }
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
             }
-        } catch (ResourceAccessException e) {
-            throw new ServerUnavailableException(e.getMessage());
-        } catch (HttpMessageConversionException | RestClientException e) {
-            throw new ServerException(url, e.getMessage());
-        }
+        });
     }
 
-    public <T> T getForObjectOrNull(URI url, Class<T> type) {
-        try {
-            return getRestTemplateWithAuth().getForObject(url, type);
-        } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode()) {
-                case NOT_FOUND:
+    private void postForAccept(URI url, final StreamingRequestCallback requestCallback) {
+        call(url, false, new ServerCall<Void>() {
+            @Override
+            public Void call(URI url) {
+                try {
+                    streamingRestTemplate.execute(url, HttpMethod.POST, requestCallback, null);
                     return null;
+                } catch (HttpStatusCodeException e) {
+                    switch (e.getStatusCode()) {
+                        case UNAUTHORIZED:
+                            invalidateAccessToken(requestCallback.token);
+                            throw new UnauthorizedException();
+
+                        default:
+                            throw reportHttpError(url, e);
+                    }
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
+            }
+        });
+    }
 
-                case UNAUTHORIZED:
-                    invalidateUserToken();
-                    throw new UnauthorizedException();
+    private ObjectNode postMultipart(URI url, final MultipartRequestCallback requestCallback) {
+        return call(url, false, new ServerCall<ObjectNode>() {
+            @Override
+            public ObjectNode call(URI url) {
+                try {
+                    return streamingRestTemplate.execute(url, HttpMethod.POST, requestCallback,
+                            new HttpMessageConverterExtractor<>(ObjectNode.class, streamingRestTemplate.getMessageConverters()));
+                } catch (HttpStatusCodeException e) {
+                    switch (e.getStatusCode()) {
+                        case UNAUTHORIZED:
+                            invalidateAccessToken(requestCallback.token);
+                            throw new UnauthorizedException();
+
+                        default:
+                            throw reportHttpError(url, e);
+                    }
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
+            }
+        });
+    }
 
-                default:
-                    throw reportHttpError(url, e);
+    public boolean delete(URI url) {
+        return call(url, true, new ServerCall<Boolean>() {
+            @Override
+            public Boolean call(URI url) {
+                try {
+                    getRestTemplateWithAuth().delete(url);
+                    return true;
+                } catch (HttpStatusCodeException e) {
+                    switch (e.getStatusCode()) {
+                        case NOT_FOUND:
+                            return false;
+
+                        case UNAUTHORIZED:
+                            throw new UnauthorizedException();
+
+                        default:
+                            throw reportHttpError(url, e);
+                    }
+                } catch (ResourceAccessException e) {
+                    throw new ServerUnavailableException(e.getMessage(), e);
+                } catch (HttpMessageConversionException | RestClientException e) {
+                    throw new ServerException(url, e.getMessage());
+                }
             }
-        } catch (ResourceAccessException e) {
-            throw new ServerUnavailableException(e.getMessage());
-        } catch (HttpMessageConversionException | RestClientException e) {
-            throw new ServerException(url, e.getMessage());
-        }
+        });
     }
 
-    public <T> T postForObjectOrNull(URI url, JsonNode requestEntity, Class<T> type) {
-        try {
-            return getRestTemplateWithAuth().postForObject(url, requestEntity, type);
-        } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode()) {
-                case BAD_REQUEST:
-                    return null;
+    public RestTemplate getRestTemplateWithAuth() {
+        return restTemplateWithAuth;
+    }
 
-                case UNAUTHORIZED:
-                    invalidateUserToken();
-                    throw new UnauthorizedException();
+    /**
+     * One request to the server, mapping failures to {@link ServerUnavailableException}, {@link UnauthorizedException}
+     * or {@link ServerException}.
+     */
+    interface ServerCall<T> {
+        T call(URI url);
+    }
 
-                default:
-                    throw reportHttpError(url, e);
+    /**
+     * Make a request to the server, through the circuit breaker of its endpoint family if enabled.
+     *
+     * @param idempotent whether the request can be repeated if it may have reached the server
+     */
+    private <T> T call(URI url, boolean idempotent, ServerCall<T> serverCall) {
+        if (!circuitBreakerEnabled) {
+            return callWithRetry(url, idempotent, serverCall);
+        }
+
+        CircuitBreaker circuitBreaker = circuitBreakerFor(url);
+        boolean probe = circuitBreaker.acquire();
+        boolean success = false;
+        boolean rejected = false;
+        try {
+            T result = callWithRetry(url, idempotent, serverCall);
+            success = true;
+            return result;
+        } catch (ServerException e) {
+            success = e.getStatusCode() == null || !e.getStatusCode().is5xxServerError();
+            throw e;
+        } catch (CallRejectedException e) {
+            rejected = true; // never reached the server
+            throw e;
+        } catch (ServerUnavailableException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            success = true; // not the server's fault, e.g. thrown by a visitor
+            throw e;
+        } finally {
+            if (rejected) {
+                circuitBreaker.release(probe);
+            } else {
+                circuitBreaker.record(probe, success);
             }
-        } catch (ResourceAccessException e) {
-            throw new ServerUnavailableException(e.getMessage());
-        } catch (HttpMessageConversionException | RestClientException e) {
-            throw new ServerException(url, e.getMessage());
         }
     }
 
-    public void postForAccept(URI url, JsonNode requestEntity) {
+    /**
+     * Make a request, and repeat it while the server is unavailable as allowed by the retry policy.
+     */
+    private <T> T callWithRetry(URI url, boolean idempotent, ServerCall<T> serverCall) {
+        long started = System.currentTimeMillis();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return callWithLimit(url, failover(idempotent, serverCall));
+            } catch (ServerUnavailableException e) {
+                long delay = retryPolicy.nextDelay(e, idempotent, attempt, started);
+                if (delay < 0) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Make a request once the concurrency limiter allows it, if enabled, and adjust the limit to how the server coped.
+     */
+    private <T> T callWithLimit(URI url, ServerCall<T> serverCall) {
+        if (concurrencyLimiter == null) {
+            return serverCall.call(url);
+        }
+
+        concurrencyLimiter.acquire();
+        long started = System.nanoTime();
+        ConcurrencyLimiter.Outcome outcome = ConcurrencyLimiter.Outcome.IGNORED;
         try {
-            getRestTemplateWithAuth().postForEntity(url, requestEntity, Void.class);
-        } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode()) {
-                case ACCEPTED:
-                    return;
+            T result = serverCall.call(url);
+            outcome = ConcurrencyLimiter.Outcome.SUCCESS;
+            return result;
+        } catch (RuntimeException e) {
+            outcome = ConcurrencyLimiter.outcomeOf(e);
+            throw e;
+        } finally {
+            concurrencyLimiter.release(System.nanoTime() - started, outcome);
+        }
+    }
 
-                case UNAUTHORIZED:
-                    invalidateUserToken();
-                    throw new UnauthorizedException();
+    /**
+     * @return {@code serverCall} failing over to other servers, or {@code serverCall} itself if only one is configured
+     */
+    private <T> ServerCall<T> failover(final boolean idempotent, final ServerCall<T> serverCall) {
+        if (failoverRouter == null) {
+            return serverCall;
+        }
+        return new ServerCall<T>() {
+            @Override
+            public T call(URI url) {
+                return callWithFailover(url, idempotent, serverCall);
+            }
+        };
+    }
 
-                default:
-                    throw reportHttpError(url, e);
+    /**
+     * Make a request to the fastest healthy server, and to the next one as long as they are unavailable,
+     * if more than one is configured in {@code aiq.url}.
+     *
+     * @param idempotent whether the request can be repeated if it may have reached the server
+     */
+    private <T> T callWithFailover(URI url, boolean idempotent, ServerCall<T> serverCall) {
+        if (failoverRouter == null) {
+            return serverCall.call(url);
+        }
+
+        List<FailoverRouter.Endpoint> route = failoverRouter.route();
+        for (int i = 0; ; i++) {
+            FailoverRouter.Endpoint endpoint = route.get(i);
+            long started = System.nanoTime();
+            try {
+                T result = serverCall.call(failoverRouter.rewrite(url, endpoint));
+                failoverRouter.success(endpoint, System.nanoTime() - started);
+                return result;
+            } catch (CallRejectedException e) {
+                throw e;
+            } catch (ServerUnavailableException e) {
+                boolean next = i + 1 < route.size() && RetryPolicy.isRetryable(e, idempotent);
+                failoverRouter.failure(endpoint, next);
+                if (!next) {
+                    throw e;
+                }
             }
-        } catch (ResourceAccessException e) {
-            throw new ServerUnavailableException(e.getMessage());
-        } catch (HttpMessageConversionException | RestClientException e) {
-            throw new ServerException(url, e.getMessage());
         }
     }
 
-    public boolean delete(URI url) {
-        try {
-            getRestTemplateWithAuth().delete(url);
-            return true;
-        } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode()) {
-                case NOT_FOUND:
-                    return false;
+    /**
+     * Ask the unhealthy servers for the root menu, so they are used again as soon as they answer.
+     */
+    private void probeUnhealthyServers() {
+        for (FailoverRouter.Endpoint endpoint : failoverRouter.unhealthy()) {
+            failoverRouter.probed();
+            long started = System.nanoTime();
+            try {
+                restTemplate.getForObject(failoverRouter.rewrite(rootMenuLink(), endpoint), OrgRootMenu.class);
+                failoverRouter.success(endpoint, System.nanoTime() - started);
+            } catch (RuntimeException e) {
+                failoverRouter.failure(endpoint, false);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Server at " + endpoint + " is still unavailable: " + e.getMessage());
+                }
+            }
+        }
+    }
 
-                case UNAUTHORIZED:
-                    invalidateUserToken();
-                    throw new UnauthorizedException();
+    /**
+     * @return the choice of server among those in {@code aiq.url}, or {@code null} if only one is configured
+     */
+    public FailoverRouter getFailoverRouter() {
+        return failoverRouter;
+    }
 
-                default:
-                    throw reportHttpError(url, e);
-            }
-        } catch (ResourceAccessException e) {
-            throw new ServerUnavailableException(e.getMessage());
-        } catch (HttpMessageConversionException | RestClientException e) {
-            throw new ServerException(url, e.getMessage());
+    /**
+     * @return {@code serverCall} hedged by the {@link Hedger}, or {@code serverCall} itself if not enabled
+     */
+    private <T> ServerCall<T> hedged(final ServerCall<T> serverCall) {
+        if (hedger == null) {
+            return serverCall;
         }
+        return new ServerCall<T>() {
+            @Override
+            public T call(URI url) {
+                return hedger.call(url, serverCall);
+            }
+        };
     }
 
-    public RestTemplate getRestTemplateWithAuth() {
-        ClientHttpRequestInterceptor interceptor = new HeaderHttpRequestInterceptor(fetchUserToken());
-        List<ClientHttpRequestInterceptor> interceptors = new ArrayList<>();
-        interceptors.add(interceptor);
+    /**
+     * @return the hedger of single entity GETs, or {@code null} if not enabled with {@code aiq.hedge.enabled}
+     */
+    public Hedger getHedger() {
+        return hedger;
+    }
+
+    /**
+     * @return the adaptive limit on concurrent requests, or {@code null} if not enabled with {@code aiq.limiter.enabled}
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * @return the retry policy for requests which failed with {@link ServerUnavailableException}
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
 
-        RestTemplate restTemplate = new RestTemplate();
-        restTemplate.setInterceptors(interceptors);
+    /**
+     * @return the circuit breaker for the endpoint family (integration link) {@code url} belongs to
+     */
+    private CircuitBreaker circuitBreakerFor(URI url) {
+        String family = endpointFamily(url);
+        CircuitBreaker circuitBreaker = circuitBreakers.get(family);
+        if (circuitBreaker == null) {
+            circuitBreakers.putIfAbsent(family, new CircuitBreaker(family, circuitBreakerFailureRateThreshold,
+                    circuitBreakerMinimumCalls, circuitBreakerWindowSize, circuitBreakerOpenDuration, circuitBreakerHalfOpenCalls));
+            circuitBreaker = circuitBreakers.get(family);
+        }
+        return circuitBreaker;
+    }
+
+    private String endpointFamily(URI url) {
+        return links.get().endpointFamily(url);
+    }
 
-        return restTemplate;
+    /**
+     * @return circuit breakers by endpoint family, empty if not enabled with {@code aiq.circuitbreaker.enabled}
+     */
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        return Collections.<String, CircuitBreaker>unmodifiableMap(circuitBreakers);
     }
 
     private RuntimeException reportHttpError(URI url, HttpStatusCodeException e) {
         if (e.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE)
-            return new ServerUnavailableException();
+            return new ServerUnavailableException(retryAfterSeconds(e.getResponseHeaders()));
         else
             return new ServerException(url, e.getStatusCode(), e.getResponseBodyAsString());
     }
 
-    static class HeaderHttpRequestInterceptor implements ClientHttpRequestInterceptor {
-        private final String token;
+    /**
+     * @return the Retry-After header in seconds, given either as seconds or as a date, or 0 if absent or invalid
+     */
+    static int retryAfterSeconds(HttpHeaders headers) {
+        String retryAfter = headers == null ? null : headers.getFirst(RETRY_AFTER_HEADER);
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Math.max(Integer.parseInt(retryAfter.trim()), 0);
+        } catch (NumberFormatException e) {
+            try {
+                long millis = headers.getFirstDate(RETRY_AFTER_HEADER) - System.currentTimeMillis();
+                return millis > 0 ? (int) TimeUnit.MILLISECONDS.toSeconds(millis + 999) : 0;
+            } catch (IllegalArgumentException e2) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Writes a request body straight to the connection, along with the current access token.
+     */
+    abstract class StreamingRequestCallback implements RequestCallback {
+        String token;
+
+        @Override
+        public void doWithRequest(ClientHttpRequest request) throws IOException {
+            token = currentUserToken();
+            request.getHeaders().add(AUTHORIZATION_HEADER, authorizationValue(token));
+            writeHeaders(request.getHeaders());
+            if (request instanceof StreamingHttpOutputMessage) {
+                ((StreamingHttpOutputMessage) request).setBody(new StreamingHttpOutputMessage.Body() {
+                    @Override
+                    public void writeTo(OutputStream outputStream) throws IOException {
+                        writeBody(outputStream);
+                    }
+                });
+            } else {
+                writeBody(request.getBody());
+            }
+        }
+
+        abstract void writeHeaders(HttpHeaders headers) throws IOException;
+
+        abstract void writeBody(OutputStream outputStream) throws IOException;
+    }
+
+    /**
+     * Writes a JSON request body straight to the connection.
+     */
+    abstract class JsonRequestCallback extends StreamingRequestCallback {
+        @Override
+        void writeHeaders(HttpHeaders headers) {
+            headers.setContentType(MediaType.APPLICATION_JSON);
+        }
+
+        @Override
+        void writeBody(OutputStream outputStream) throws IOException {
+            JsonGenerator generator = mapper.getFactory().createGenerator(outputStream);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writeJson(generator);
+            generator.close();
+        }
+
+        abstract void writeJson(JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * Writes a backend message and its attachments as a multipart/form-data request body, copying each attachment
+     * to the connection through a small buffer so it is never held in memory as a whole.
+     */
+    class MultipartRequestCallback extends StreamingRequestCallback {
+        private final BackendMessage message;
+        private final Collection<MessageAttachment> attachments;
+        private String boundary;
+        private byte[] messageJson;
+
+        MultipartRequestCallback(BackendMessage message, Collection<MessageAttachment> attachments) {
+            this.message = message;
+            this.attachments = attachments;
+        }
+
+        @Override
+        void writeHeaders(HttpHeaders headers) throws IOException {
+            boundary = UUID.randomUUID().toString();
+            messageJson = jsonConverter.writerFor(BackendMessage.class).writeValueAsBytes(message);
+            headers.setContentType(new MediaType(MediaType.MULTIPART_FORM_DATA,
+                    Collections.singletonMap("boundary", boundary)));
+
+            long contentLength = partHeader(ProtocolConstants.MESSAGE, APPLICATION_JSON_UTF8, messageJson.length).length
+                    + messageJson.length + CRLF.length;
+            for (MessageAttachment attachment : attachments) {
+                long length = attachment.getContentLength();
+                contentLength += partHeader(attachment.name, attachment.contentType, length).length + length + CRLF.length;
+            }
+            contentLength += end().length;
+            headers.setContentLength(contentLength);
+        }
+
+        @Override
+        void writeBody(OutputStream outputStream) throws IOException {
+            outputStream.write(partHeader(ProtocolConstants.MESSAGE, APPLICATION_JSON_UTF8, messageJson.length));
+            outputStream.write(messageJson);
+            outputStream.write(CRLF);
+            for (MessageAttachment attachment : attachments) {
+                outputStream.write(partHeader(attachment.name, attachment.contentType, attachment.getContentLength()));
+                InputStream in = attachment.getInputStream();
+                try {
+                    StreamUtils.copy(in, outputStream);
+                } finally {
+                    in.close();
+                }
+                outputStream.write(CRLF);
+            }
+            outputStream.write(end());
+            outputStream.flush();
+        }
+
+        private byte[] partHeader(String name, MediaType contentType, long contentLength) {
+            return ("--" + boundary + "\r\n" +
+                    "Content-Disposition: form-data; name=\"" + name + "\"\r\n" +
+                    "Content-Type: " + contentType + "\r\n" +
+                    "Content-Length: " + contentLength + "\r\n" +
+                    "\r\n").getBytes(UTF8);
+        }
+
+        private byte[] end() {
+            return ("--" + boundary + "--\r\n").getBytes(UTF8);
+        }
+    }
+
+    class NewDataAvailableRequestCallback extends JsonRequestCallback {
+        private final List<String> userIds;
+        private final boolean urgent;
+        private final ObjectNode condition;
+
+        NewDataAvailableRequestCallback(List<String> userIds, boolean urgent, ObjectNode condition) {
+            this.userIds = userIds;
+            this.urgent = urgent;
+            this.condition = condition;
+        }
 
-        public HeaderHttpRequestInterceptor(String token) {
-            this.token = token;
+        @Override
+        void writeJson(JsonGenerator generator) throws IOException {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("users");
+            for (String userId : userIds) {
+                generator.writeString(userId);
+            }
+            generator.writeEndArray();
+            generator.writeBooleanField("urgent", urgent);
+            if (condition != null) {
+                generator.writeFieldName("condition");
+                generator.writeTree(condition);
+            }
+            generator.writeEndObject();
         }
+    }
 
+    /**
+     * Applies the current access token to each request, so a refreshed token is picked up without rebuilding the template,
+     * and marks it as rejected if the server responds with 401 Unauthorized.
+     */
+    class HeaderHttpRequestInterceptor implements ClientHttpRequestInterceptor {
         @Override
         public ClientHttpResponse intercept(HttpRequest request, byte[] body,
                                             ClientHttpRequestExecution execution) throws IOException {
 
+            String token = currentUserToken();
             HttpRequestWrapper requestWrapper = new HttpRequestWrapper(request);
             requestWrapper.getHeaders().add(AUTHORIZATION_HEADER, authorizationValue(token));
-            return execution.execute(requestWrapper, body);
+            ClientHttpResponse response = execution.execute(requestWrapper, body);
+            if (response.getStatusCode() == HttpStatus.UNAUTHORIZED) {
+                invalidateAccessToken(token);
+            }
+            return response;
         }
     }
 }
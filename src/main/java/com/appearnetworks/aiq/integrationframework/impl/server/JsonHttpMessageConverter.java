@@ -0,0 +1,81 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * JSON converter reading and writing through an {@link ObjectReader} and {@link ObjectWriter} per type,
+ * created once from a shared {@link ObjectMapper} so the serializers are looked up only once.
+ */
+public class JsonHttpMessageConverter extends MappingJackson2HttpMessageConverter {
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    public JsonHttpMessageConverter(ObjectMapper mapper) {
+        setObjectMapper(mapper);
+    }
+
+    ObjectReader readerFor(Class<?> type) {
+        ObjectReader reader = readers.get(type);
+        if (reader == null) {
+            reader = getObjectMapper().reader(type);
+            readers.putIfAbsent(type, reader);
+        }
+        return reader;
+    }
+
+    ObjectWriter writerFor(Class<?> type) {
+        ObjectWriter writer = writers.get(type);
+        if (writer == null) {
+            writer = getObjectMapper().writerWithType(type);
+            writers.putIfAbsent(type, writer);
+        }
+        return writer;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage)
+            throws IOException, HttpMessageNotReadableException {
+        try {
+            return readerFor(clazz).readValue(inputMessage.getBody());
+        } catch (JsonProcessingException e) {
+            throw new HttpMessageNotReadableException("Could not read JSON: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public Object read(Type type, Class<?> contextClass, HttpInputMessage inputMessage)
+            throws IOException, HttpMessageNotReadableException {
+        if (type instanceof Class) {
+            return readInternal((Class<?>) type, inputMessage);
+        }
+        return super.read(type, contextClass, inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(Object object, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        JsonEncoding encoding = getJsonEncoding(outputMessage.getHeaders().getContentType());
+        JsonGenerator generator = getObjectMapper().getFactory().createGenerator(outputMessage.getBody(), encoding);
+        try {
+            writerFor(object.getClass()).writeValue(generator, object);
+            generator.flush();
+        } catch (JsonProcessingException e) {
+            throw new HttpMessageNotWritableException("Could not write JSON: " + e.getMessage(), e);
+        }
+    }
+}
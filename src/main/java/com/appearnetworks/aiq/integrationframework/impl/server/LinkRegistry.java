@@ -0,0 +1,107 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.net.URI;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable set of links discovered from the server: root links from the organization's root menu, and integration
+ * links which come with each access token. Each link is resolved to an absolute {@link URI} once, when it is received.
+ * <p/>
+ * A new registry is built whenever links are fetched, and replaces the previous one as a whole.
+ */
+public class LinkRegistry {
+    static final LinkRegistry EMPTY = new LinkRegistry(Collections.<String, URI>emptyMap(), Collections.<String, URI>emptyMap());
+
+    private final Map<String, URI> rootLinks;
+    private final Map<String, URI> integrationLinks;
+
+    /**
+     * Integration links by path, longest path first, to find the endpoint a URL belongs to.
+     */
+    private final List<Map.Entry<String, String>> families;
+
+    private LinkRegistry(Map<String, URI> rootLinks, Map<String, URI> integrationLinks) {
+        this.rootLinks = rootLinks;
+        this.integrationLinks = integrationLinks;
+
+        families = new ArrayList<>(integrationLinks.size());
+        for (Map.Entry<String, URI> entry : integrationLinks.entrySet()) {
+            String path = entry.getValue().getPath();
+            families.add(new AbstractMap.SimpleImmutableEntry<>(path.endsWith("/") ? path : path + "/", entry.getKey()));
+        }
+        Collections.sort(families, new Comparator<Map.Entry<String, String>>() {
+            @Override
+            public int compare(Map.Entry<String, String> a, Map.Entry<String, String> b) {
+                return b.getKey().length() - a.getKey().length();
+            }
+        });
+    }
+
+    /**
+     * @return a registry with these root links instead of the current ones
+     */
+    LinkRegistry withRootLinks(URI baseURL, JsonNode links) {
+        return new LinkRegistry(resolve(baseURL, links), integrationLinks);
+    }
+
+    /**
+     * @return a registry with these integration links instead of the current ones
+     */
+    LinkRegistry withIntegrationLinks(URI baseURL, JsonNode links) {
+        return new LinkRegistry(rootLinks, resolve(baseURL, links));
+    }
+
+    /**
+     * @return the root link, or {@code null} if not known
+     */
+    public URI getRootLink(String name) {
+        return rootLinks.get(name);
+    }
+
+    /**
+     * @return the integration link, or {@code null} if not known
+     */
+    public URI getIntegrationLink(String name) {
+        return integrationLinks.get(name);
+    }
+
+    public Map<String, URI> getRootLinks() {
+        return rootLinks;
+    }
+
+    public Map<String, URI> getIntegrationLinks() {
+        return integrationLinks;
+    }
+
+    /**
+     * @return name of the integration link {@code url} is or is below, or the path of {@code url} if none
+     */
+    String endpointFamily(URI url) {
+        String path = url.getPath();
+        String prefix = path.endsWith("/") ? path : path + "/";
+        for (Map.Entry<String, String> family : families) {
+            if (prefix.startsWith(family.getKey())) {
+                return family.getValue();
+            }
+        }
+        return path;
+    }
+
+    private static Map<String, URI> resolve(URI baseURL, JsonNode links) {
+        Map<String, URI> resolved = new HashMap<>();
+        for (Iterator<Map.Entry<String, JsonNode>> iterator = links.fields(); iterator.hasNext(); ) {
+            Map.Entry<String, JsonNode> entry = iterator.next();
+            resolved.put(entry.getKey(), baseURL.resolve(entry.getValue().textValue()));
+        }
+        return Collections.unmodifiableMap(resolved);
+    }
+}
@@ -0,0 +1,249 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers newdataavailable requests for a short window and merges them before sending.
+ * <p/>
+ * Requests are merged when they have the same urgency and the same condition: user and launchable ids are unioned,
+ * and a pending request for all users replaces everything else. The buffer is flushed when the window has passed
+ * since the first buffered request, or as soon as it holds {@code maxIds} ids. While it is full and waiting to be
+ * flushed, or fills up again while the previous requests are still being sent, {@link #add} waits.
+ */
+public class NewDataAvailableCoalescer {
+    private static final Log LOG = LogFactory.getLog(NewDataAvailableCoalescer.class);
+
+    interface Sender {
+        void send(ObjectNode request);
+    }
+
+    private final ObjectMapper mapper;
+    private final Sender sender;
+    private final long window;
+    private final int maxIds;
+    private final ScheduledExecutorService flusher;
+
+    private Map<String, Batch> pending = new LinkedHashMap<>();
+    private int pendingIds;
+    private boolean flushScheduled;
+    private boolean immediateFlushPending;
+    private int flushing;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    NewDataAvailableCoalescer(ObjectMapper mapper, Sender sender, long window, int maxIds) {
+        this.mapper = mapper;
+        this.sender = sender;
+        this.window = window;
+        this.maxIds = maxIds;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(HttpTransport.daemonThreadFactory("aiq-newdataavailable-"));
+    }
+
+    /**
+     * Buffer a newdataavailable request, as sent to the server.
+     *
+     * @throws ServerUnavailableException if interrupted while waiting for buffered requests to be sent
+     */
+    public void add(ObjectNode request) {
+        submitted.incrementAndGet();
+
+        boolean urgent = request.path("urgent").asBoolean();
+        JsonNode condition = request.get("condition");
+        String key = (urgent ? "urgent:" : "normal:") + (condition == null || condition.isNull() ? "" : condition.toString());
+
+        synchronized (this) {
+            while (pendingIds >= maxIds && (flushing > 0 || immediateFlushPending)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ServerUnavailableException("Interrupted while waiting for newdataavailable requests to be sent");
+                }
+            }
+
+            Batch batch = pending.get(key);
+            if (batch == null) {
+                batch = new Batch(urgent, condition);
+                pending.put(key, batch);
+            }
+            pendingIds += batch.merge(request);
+
+            if (pendingIds >= maxIds) {
+                if (!immediateFlushPending) {
+                    immediateFlushPending = true;
+                    flushScheduled = true;
+                    flusher.execute(new Flush());
+                }
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                flusher.schedule(new Flush(), window, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Send everything buffered right away, on the calling thread.
+     */
+    public void flush() {
+        Collection<Batch> batches;
+        synchronized (this) {
+            batches = pending.values();
+            pending = new LinkedHashMap<>();
+            pendingIds = 0;
+            flushScheduled = false;
+            immediateFlushPending = false;
+            flushing++;
+        }
+        try {
+            for (Batch batch : batches) {
+                for (ObjectNode request : batch.toRequests()) {
+                    try {
+                        sender.send(request);
+                        sent.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                        LOG.warn("Unable to send newdataavailable request", e);
+                    }
+                }
+            }
+        } finally {
+            synchronized (this) {
+                flushing--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Flush pending requests and stop.
+     */
+    public void shutdown() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    /**
+     * @return number of requests submitted for merging
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * @return number of merged requests sent to the server
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * @return number of merged requests which could not be sent
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return submitted requests per request sent, 1.0 if nothing has been merged
+     */
+    public double getMergeRatio() {
+        long out = sent.get() + failed.get();
+        return out == 0 ? 1.0 : (double) submitted.get() / out;
+    }
+
+    private class Flush implements Runnable {
+        @Override
+        public void run() {
+            flush();
+        }
+    }
+
+    private class Batch {
+        final boolean urgent;
+        final JsonNode condition;
+        boolean all;
+        final Set<String> users = new LinkedHashSet<>();
+        final Set<String> launchables = new LinkedHashSet<>();
+
+        Batch(boolean urgent, JsonNode condition) {
+            this.urgent = urgent;
+            this.condition = condition;
+        }
+
+        /**
+         * @return number of ids added
+         */
+        int merge(ObjectNode request) {
+            if (all) return 0;
+            if (request.path("all").asBoolean()) {
+                all = true;
+                int removed = users.size() + launchables.size();
+                users.clear();
+                launchables.clear();
+                return -removed;
+            }
+            return addAll(users, request.get("users")) + addAll(launchables, request.get("launchables"));
+        }
+
+        List<ObjectNode> toRequests() {
+            List<ObjectNode> requests = new ArrayList<>(2);
+            if (all) {
+                ObjectNode request = newRequest();
+                request.put("all", true);
+                requests.add(request);
+            } else {
+                if (!users.isEmpty()) requests.add(newRequest("users", users));
+                if (!launchables.isEmpty()) requests.add(newRequest("launchables", launchables));
+            }
+            return requests;
+        }
+
+        private ObjectNode newRequest(String field, Set<String> ids) {
+            ObjectNode request = newRequest();
+            ArrayNode array = request.putArray(field);
+            for (String id : ids) {
+                array.add(id);
+            }
+            return request;
+        }
+
+        private ObjectNode newRequest() {
+            ObjectNode request = mapper.createObjectNode();
+            request.put("urgent", urgent);
+            if (condition != null && !condition.isNull()) {
+                request.put("condition", condition);
+            }
+            return request;
+        }
+
+        private int addAll(Set<String> target, JsonNode ids) {
+            int added = 0;
+            if (ids != null) {
+                for (JsonNode id : ids) {
+                    if (target.add(id.textValue())) added++;
+                }
+            }
+            return added;
+        }
+    }
+}
@@ -0,0 +1,597 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerException;
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import com.appearnetworks.aiq.integrationframework.server.UnauthorizedException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Durable queue of requests to the server, kept in an append-only journal on disk and delivered in order
+ * by a background thread.
+ * <p/>
+ * The journal is split into segment files of about {@code segmentSize} bytes. Callers appending at the same time
+ * share a single fsync before they return. Delivery is retried with exponential backoff, from {@code retryInterval}
+ * up to {@code maxRetryInterval} milliseconds, while the server is unavailable or rejects the credentials; entries
+ * the server rejects for any other reason are logged and dropped. The position of the last delivered entry is saved
+ * in an ack file, and segments which have been delivered completely are deleted.
+ * <p/>
+ * Undelivered entries are replayed when the outbox is opened again. An entry delivered just before the process
+ * stopped may be delivered again.
+ * <p/>
+ * Segments are written through a {@link RandomAccessFile} rather than a {@link FileChannel}, since an interrupt of
+ * one appending thread would close a shared channel for all of them.
+ */
+public class Outbox {
+    private static final Log LOG = LogFactory.getLog(Outbox.class);
+
+    private static final String SEGMENT_PREFIX = "outbox-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String ACK_FILE = "outbox.ack";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    // payload length, sequence number, timestamp, type
+    private static final int HEADER_SIZE = 4 + 8 + 8 + 1;
+    private static final int CRC_SIZE = 4;
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+
+    private static final int ACK_EVERY = 100;
+    private static final long ACK_INTERVAL = 1000;
+    private static final long RATE_INTERVAL = 10000;
+
+    interface Deliverer {
+        void deliver(byte type, byte[] payload);
+    }
+
+    private final File directory;
+    private final Deliverer deliverer;
+    private final long segmentSize;
+    private final long retryInterval;
+    private final long maxRetryInterval;
+    private final Thread drainer;
+
+    // guarded by this
+    private RandomAccessFile writeFile;
+    private long writeSegment;
+    private long writePosition;
+    private long lastSeq;
+    private boolean closed;
+
+    // guarded by syncLock
+    private final Object syncLock = new Object();
+    private long syncedSeq;
+    private boolean syncing;
+
+    // only used by the drainer
+    private FileChannel readChannel;
+    private long readSegment;
+    private long readPosition;
+    private int unsavedAcks;
+    private long ackSaved;
+    private long rateCount;
+
+    private volatile boolean running = true;
+    private volatile long ackedSeq;
+    private volatile long headTimestamp;
+    private volatile double drainRate;
+    private volatile long rateStart = System.currentTimeMillis();
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+
+    /**
+     * Open the journal in {@code directory}, creating it if necessary, and start delivering any entries left in it.
+     */
+    Outbox(File directory, Deliverer deliverer, long segmentSize, long retryInterval, long maxRetryInterval) throws IOException {
+        this.directory = directory;
+        this.deliverer = deliverer;
+        this.segmentSize = segmentSize;
+        this.retryInterval = retryInterval;
+        this.maxRetryInterval = maxRetryInterval;
+
+        Files.createDirectories(directory.toPath());
+        open();
+
+        drainer = HttpTransport.daemonThreadFactory("aiq-outbox-").newThread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+        drainer.start();
+    }
+
+    private void open() throws IOException {
+        List<Long> segments = listSegments();
+        long[] ack = readAck();
+        long ackSegment = ack != null ? ack[0] : (segments.isEmpty() ? 1 : segments.get(0));
+        long ackPosition = ack != null ? ack[1] : 0;
+        ackedSeq = ack != null ? ack[2] : 0;
+        lastSeq = ackedSeq;
+
+        readSegment = ackSegment;
+        readPosition = ackPosition;
+        long pending = 0;
+        for (Long segment : segments) {
+            if (segment < ackSegment) {
+                Files.delete(segmentFile(segment).toPath());
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.READ)) {
+                long position = segment == ackSegment ? ackPosition : 0;
+                Entry entry;
+                while ((entry = readEntry(channel, position, channel.size())) != null) {
+                    lastSeq = Math.max(lastSeq, entry.seq);
+                    position = entry.end;
+                    pending++;
+                }
+            }
+            writeSegment = segment;
+        }
+        writeSegment = Math.max(writeSegment + 1, ackSegment);
+        writeFile = openForWrite(writeSegment);
+        writePosition = 0;
+        syncedSeq = lastSeq;
+
+        if (pending > 0) {
+            LOG.info("Replaying " + pending + " undelivered outbox entries from " + directory);
+        }
+    }
+
+    /**
+     * Append an entry and wait until it is written to disk.
+     *
+     * @return the sequence number of the entry
+     */
+    long append(byte type, byte[] payload) throws IOException {
+        if (payload.length > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Outbox entry too large: " + payload.length + " bytes");
+        }
+
+        long seq;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Outbox is closed");
+            }
+            if (writePosition >= segmentSize) {
+                rotate();
+            }
+            seq = lastSeq + 1;
+            ByteBuffer buffer = encode(seq, System.currentTimeMillis(), type, payload);
+            writeFile.seek(writePosition);
+            writeFile.write(buffer.array(), 0, buffer.limit());
+            writePosition += buffer.limit();
+            lastSeq = seq;
+            appended.incrementAndGet();
+            notifyAll();
+        }
+
+        sync(seq);
+        return seq;
+    }
+
+    private void rotate() throws IOException {
+        writeFile.getFD().sync();
+        writeFile.close();
+        writeSegment++;
+        writeFile = openForWrite(writeSegment);
+        writePosition = 0;
+    }
+
+    private RandomAccessFile openForWrite(long segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw");
+        file.setLength(0);
+        return file;
+    }
+
+    /**
+     * Group commit: one caller forces everything written so far to disk while the others wait for it.
+     */
+    private void sync(long seq) throws IOException {
+        synchronized (syncLock) {
+            while (syncedSeq < seq && syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while writing to outbox");
+                }
+            }
+            if (syncedSeq >= seq) {
+                return;
+            }
+            syncing = true;
+        }
+
+        long target = 0;
+        try {
+            RandomAccessFile file;
+            long segment;
+            synchronized (this) {
+                target = lastSeq;
+                file = writeFile;
+                segment = writeSegment;
+            }
+            try {
+                file.getFD().sync();
+            } catch (IOException e) {
+                synchronized (this) {
+                    // rotated or closed in the meantime, which syncs it first
+                    if (segment == writeSegment && !closed) {
+                        throw e;
+                    }
+                }
+            }
+            syncs.incrementAndGet();
+        } finally {
+            synchronized (syncLock) {
+                syncedSeq = Math.max(syncedSeq, target);
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    private void drain() {
+        long backoff = retryInterval;
+        try {
+            while (running) {
+                try {
+                    if (readChannel == null || !readChannel.isOpen()) {
+                        readChannel = openForRead(readSegment);
+                    }
+                    Entry entry = next();
+                    if (entry == null) {
+                        break;
+                    }
+                    headTimestamp = entry.timestamp;
+                    if (!deliver(entry)) {
+                        break;
+                    }
+                    readPosition = entry.end;
+                    ackedSeq = entry.seq;
+                    headTimestamp = 0;
+                    countDelivery();
+                    if (++unsavedAcks >= ACK_EVERY || System.currentTimeMillis() - ackSaved >= ACK_INTERVAL || isDrained()) {
+                        saveAck();
+                    }
+                    backoff = retryInterval;
+                } catch (IOException | RuntimeException e) {
+                    if (!running) {
+                        break;
+                    }
+                    LOG.error("Unable to read outbox, retrying in " + backoff + " ms", e);
+                    closeQuietly(readChannel);
+                    readChannel = null;
+                    Thread.sleep(backoff);
+                    backoff = Math.min(backoff * 2, maxRetryInterval);
+                }
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        } finally {
+            // an interrupt left pending by shutdown would close the file channel while the ack is being written
+            boolean interrupted = Thread.interrupted();
+            try {
+                if (unsavedAcks > 0) {
+                    saveAck();
+                }
+            } catch (IOException e) {
+                LOG.warn("Unable to save outbox position", e);
+            }
+            closeQuietly(readChannel);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the next entry to deliver, or {@code null} if shutting down
+     */
+    private Entry next() throws IOException, InterruptedException {
+        while (running) {
+            long limit;
+            boolean active;
+            synchronized (this) {
+                active = readSegment == writeSegment;
+                if (active && readPosition >= writePosition) {
+                    if (unsavedAcks > 0) {
+                        saveAck();
+                    }
+                    wait();
+                    continue;
+                }
+                limit = active ? writePosition : Long.MAX_VALUE;
+            }
+
+            Entry entry = readChannel == null ? null : readEntry(readChannel, readPosition, Math.min(limit, readChannel.size()));
+            if (entry != null) {
+                return entry;
+            }
+            if (active) {
+                throw new IOException("Corrupt outbox entry at " + readPosition + " in " + segmentFile(readSegment));
+            }
+
+            // end of a segment which is not written to any more, so all of it has been delivered
+            if (readChannel != null && readPosition < readChannel.size()) {
+                LOG.warn("Skipping incomplete outbox entry at " + readPosition + " in " + segmentFile(readSegment));
+            }
+            long finished = readSegment;
+            closeQuietly(readChannel);
+            readSegment++;
+            readPosition = 0;
+            readChannel = openForRead(readSegment);
+            saveAck();
+            Files.deleteIfExists(segmentFile(finished).toPath());
+        }
+        return null;
+    }
+
+    /**
+     * @return {@code true} if delivered or dropped, {@code false} if shutting down
+     */
+    private boolean deliver(Entry entry) throws InterruptedException {
+        long backoff = retryInterval;
+        while (running) {
+            try {
+                deliverer.deliver(entry.type, entry.payload);
+                delivered.incrementAndGet();
+                return true;
+            } catch (ServerUnavailableException | UnauthorizedException e) {
+                LOG.warn("Unable to deliver outbox entry " + entry.seq + ", retrying in " + backoff + " ms: " + e.getMessage());
+            } catch (ServerException e) {
+                if (e.getStatusCode() != null && !e.getStatusCode().is5xxServerError()) {
+                    dropped.incrementAndGet();
+                    LOG.error("Dropping outbox entry " + entry.seq + " rejected by server", e);
+                    return true;
+                }
+                LOG.warn("Unable to deliver outbox entry " + entry.seq + ", retrying in " + backoff + " ms: " + e.getMessage());
+            } catch (RuntimeException e) {
+                dropped.incrementAndGet();
+                LOG.error("Dropping outbox entry " + entry.seq + " which could not be delivered", e);
+                return true;
+            }
+            retries.incrementAndGet();
+            Thread.sleep(backoff);
+            backoff = Math.min(backoff * 2, maxRetryInterval);
+        }
+        return false;
+    }
+
+    private void countDelivery() {
+        rateCount++;
+        long now = System.currentTimeMillis();
+        if (now - rateStart >= RATE_INTERVAL) {
+            drainRate = rateCount * 1000.0 / (now - rateStart);
+            rateStart = now;
+            rateCount = 0;
+        }
+    }
+
+    private boolean isDrained() {
+        synchronized (this) {
+            return readSegment == writeSegment && readPosition >= writePosition;
+        }
+    }
+
+    /**
+     * Stop delivering and close the journal. Undelivered entries stay in it.
+     */
+    public void shutdown() {
+        running = false;
+        drainer.interrupt();
+        try {
+            drainer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closed = true;
+            try {
+                writeFile.getFD().sync();
+                writeFile.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to write outbox to disk", e);
+            }
+        }
+    }
+
+    /**
+     * @return number of entries not delivered yet
+     */
+    public synchronized long getDepth() {
+        return lastSeq - ackedSeq;
+    }
+
+    /**
+     * @return milliseconds since the entry currently being delivered was appended, 0 if there is none
+     */
+    public long getLag() {
+        long timestamp = headTimestamp;
+        return timestamp == 0 ? 0 : Math.max(System.currentTimeMillis() - timestamp, 0);
+    }
+
+    /**
+     * @return entries delivered per second, measured over about the last 10 seconds
+     */
+    public double getDrainRate() {
+        // nothing delivered in a while
+        return System.currentTimeMillis() - rateStart >= 2 * RATE_INTERVAL ? 0 : drainRate;
+    }
+
+    public long getAppendedCount() {
+        return appended.get();
+    }
+
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * @return number of entries dropped because the server rejected them
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * @return number of times the journal was forced to disk, which is less than the appended count
+     * when appends are committed together
+     */
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    private FileChannel openForRead(long segment) throws IOException {
+        try {
+            return FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private void saveAck() throws IOException {
+        File tmp = new File(directory, ACK_FILE + ".tmp");
+        Files.write(tmp.toPath(), (readSegment + " " + readPosition + " " + ackedSeq).getBytes(ASCII));
+        Files.move(tmp.toPath(), new File(directory, ACK_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        unsavedAcks = 0;
+        ackSaved = System.currentTimeMillis();
+    }
+
+    /**
+     * @return segment, position and sequence number of the next entry to deliver, or {@code null} if never saved
+     */
+    private long[] readAck() throws IOException {
+        File file = new File(directory, ACK_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        String[] fields = new String(Files.readAllBytes(file.toPath()), ASCII).trim().split(" ");
+        try {
+            return new long[]{Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2])};
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt outbox ack file " + file);
+        }
+    }
+
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Ignoring unknown file in outbox directory: " + file);
+                    }
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, String.format("%s%019d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private static ByteBuffer encode(long seq, long timestamp, byte type, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length + CRC_SIZE);
+        buffer.putInt(payload.length).putLong(seq).putLong(timestamp).put(type).put(payload);
+        buffer.putInt(crc(buffer.array(), HEADER_SIZE + payload.length));
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return the entry at {@code position}, or {@code null} if there is no complete and intact entry before {@code limit}
+     */
+    private static Entry readEntry(FileChannel channel, long position, long limit) throws IOException {
+        if (position + HEADER_SIZE + CRC_SIZE > limit) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, position);
+        int length = header.getInt(0);
+        if (length < 0 || length > MAX_PAYLOAD_SIZE || position + HEADER_SIZE + length + CRC_SIZE > limit) {
+            return null;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length + CRC_SIZE);
+        readFully(channel, record, position);
+        if (record.getInt(HEADER_SIZE + length) != crc(record.array(), HEADER_SIZE + length)) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        System.arraycopy(record.array(), HEADER_SIZE, payload, 0, length);
+        return new Entry(record.getLong(4), record.getLong(12), record.get(20), payload, position + record.capacity());
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.debug("Unable to close outbox segment", e);
+            }
+        }
+    }
+
+    private static class Entry {
+        final long seq;
+        final long timestamp;
+        final byte type;
+        final byte[] payload;
+        final long end;
+
+        Entry(long seq, long timestamp, byte type, byte[] payload, long end) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.type = type;
+            this.payload = payload;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.BackendMessageReadStatistics;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Aggregates the read reports of a backend message while parsing it, keeping only the revision, read time and user
+ * roles of each report.
+ * <p/>
+ * The read times are kept as they are until the whole message has been parsed, since the time the message became
+ * active may come after them.
+ */
+class ReadReportAggregator {
+    private final Map<Long, Long> readCountByRevision = new HashMap<>();
+    private final LongBuffer readTimestamps = new LongBuffer();
+    private final Map<String, LongBuffer> readTimestampsByRole = new HashMap<>();
+
+    private Long created;
+    private Long activeFrom;
+
+    /**
+     * @param parser positioned before the backend message object
+     */
+    static BackendMessageReadStatistics aggregate(JsonParser parser) throws IOException {
+        ReadReportAggregator aggregator = new ReadReportAggregator();
+        aggregator.readMessage(parser);
+        return aggregator.toStatistics();
+    }
+
+    private void readMessage(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new HttpMessageNotReadableException("Expected JSON object");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("created".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                created = parser.getLongValue();
+            } else if ("activeFrom".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                activeFrom = parser.getLongValue();
+            } else if ("readBy".equals(field) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    readReport(parser);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void readReport(JsonParser parser) throws IOException {
+        long revision = 0;
+        long readTimestamp = 0;
+        String[] roles = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("revision".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                revision = parser.getLongValue();
+            } else if ("readTimestamp".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                readTimestamp = parser.getLongValue();
+            } else if ("user".equals(field) && value == JsonToken.START_OBJECT) {
+                roles = readRoles(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        Long count = readCountByRevision.get(revision);
+        readCountByRevision.put(revision, count != null ? count + 1 : 1);
+        readTimestamps.add(readTimestamp);
+        if (roles != null) {
+            for (String role : roles) {
+                LongBuffer timestamps = readTimestampsByRole.get(role);
+                if (timestamps == null) {
+                    timestamps = new LongBuffer();
+                    readTimestampsByRole.put(role, timestamps);
+                }
+                timestamps.add(readTimestamp);
+            }
+        }
+    }
+
+    /**
+     * @return the roles of the user object the parser is in, skipping the rest of it
+     */
+    private static String[] readRoles(JsonParser parser) throws IOException {
+        String[] roles = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if ("roles".equals(field) && value == JsonToken.START_ARRAY) {
+                roles = new String[4];
+                int count = 0;
+                JsonToken role;
+                while ((role = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (role != JsonToken.VALUE_STRING) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    if (count == roles.length) {
+                        roles = Arrays.copyOf(roles, count * 2);
+                    }
+                    roles[count++] = parser.getText();
+                }
+                roles = Arrays.copyOf(roles, count);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return roles;
+    }
+
+    private BackendMessageReadStatistics toStatistics() {
+        long start = activeFrom != null ? activeFrom : created != null ? created : 0;
+        Map<String, long[]> timesToReadByRole = new HashMap<>();
+        for (Map.Entry<String, LongBuffer> entry : readTimestampsByRole.entrySet()) {
+            timesToReadByRole.put(entry.getKey(), entry.getValue().toTimesSince(start));
+        }
+        return new BackendMessageReadStatistics(readCountByRevision, readTimestamps.toTimesSince(start), timesToReadByRole);
+    }
+
+    private static class LongBuffer {
+        private long[] values = new long[16];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * @return the values minus {@code start}, at least 0
+         */
+        long[] toTimesSince(long start) {
+            long[] times = new long[size];
+            for (int i = 0; i < size; i++) {
+                times[i] = Math.max(values[i] - start, 0);
+            }
+            return times;
+        }
+    }
+}
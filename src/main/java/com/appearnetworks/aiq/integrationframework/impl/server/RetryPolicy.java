@@ -0,0 +1,109 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.ConnectException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether and when to retry a call which failed with {@link ServerUnavailableException}.
+ * <p/>
+ * Waits grow exponentially from {@code initialBackoff} up to {@code maxBackoff} milliseconds, and each wait is
+ * picked at random below that bound ("full jitter") so that clients do not come back all at once after an outage.
+ * A {@code Retry-After} sent by the server is honoured instead. No retry is made if it would end after
+ * {@code deadline} milliseconds from the first attempt, nor after {@code maxAttempts} attempts.
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final long deadline;
+
+    private final Random random = new Random();
+
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    RetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff, long deadline) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @param e          why the last attempt failed
+     * @param idempotent whether the call can safely be repeated even if the server may have received it
+     * @param attempt    number of attempts made so far, starting at 1
+     * @param started    when the first attempt started, from {@link System#currentTimeMillis()}
+     *
+     * @return milliseconds to wait before the next attempt, or -1 to give up
+     */
+    long nextDelay(ServerUnavailableException e, boolean idempotent, int attempt, long started) {
+        if (!isRetryable(e, idempotent)) {
+            return -1;
+        }
+        if (attempt >= maxAttempts) {
+            exhausted.incrementAndGet();
+            return -1;
+        }
+
+        long delay;
+        if (e.getRetryAfterSeconds() > 0) {
+            delay = TimeUnit.SECONDS.toMillis(e.getRetryAfterSeconds());
+        } else {
+            long bound = Math.min(maxBackoff, initialBackoff << Math.min(attempt - 1, 30));
+            delay = bound <= 0 ? 0 : (long) (random.nextDouble() * bound);
+        }
+
+        if (System.currentTimeMillis() + delay - started > deadline) {
+            exhausted.incrementAndGet();
+            return -1;
+        }
+        retries.incrementAndGet();
+        waited.addAndGet(delay);
+        return delay;
+    }
+
+    /**
+     * A 503 response means the request was not processed, and a request which could not even connect was never sent.
+     * Anything else may have reached the server, so is only repeated if idempotent.
+     */
+    static boolean isRetryable(ServerUnavailableException e, boolean idempotent) {
+        if (!(e.getCause() instanceof ResourceAccessException)) {
+            return true;
+        }
+        Throwable cause = e.getCause().getCause();
+        return idempotent || cause instanceof ConnectException || cause instanceof ConnectTimeoutException;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return number of retries made
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * @return total milliseconds spent waiting between attempts
+     */
+    public long getWaitedMillis() {
+        return waited.get();
+    }
+
+    /**
+     * @return number of calls which still failed when the attempts or the deadline ran out
+     */
+    public long getExhaustedCount() {
+        return exhausted.get();
+    }
+}
@@ -0,0 +1,99 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs at most one call per key at a time, concurrent callers for the same key wait for and share its result.
+ *
+ * @param <K> key type
+ * @param <V> result type
+ */
+class SingleFlight<K, V> {
+    private final ConcurrentMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong flights = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private volatile int lastJoined;
+
+    /**
+     * Run {@code call}, or wait for the call already in flight for {@code key}.
+     *
+     * @throws RuntimeException the exception thrown by the call, rethrown to every caller sharing it
+     */
+    public V execute(K key, Callable<V> call) {
+        Flight<V> flight = new Flight<>(call);
+        Flight<V> existing = inFlight.putIfAbsent(key, flight);
+        while (existing != null && existing.isDone()) {
+            // finished but not yet removed, its result may predate what the caller has seen since
+            existing = inFlight.replace(key, existing, flight) ? null : inFlight.putIfAbsent(key, flight);
+        }
+        if (existing != null) {
+            existing.joined.incrementAndGet();
+            joined.incrementAndGet();
+            return await(existing);
+        }
+
+        flights.incrementAndGet();
+        try {
+            flight.run();
+        } finally {
+            inFlight.remove(key, flight);
+            lastJoined = flight.joined.get();
+        }
+        return await(flight);
+    }
+
+    /**
+     * @return number of calls actually executed
+     */
+    public long getFlightCount() {
+        return flights.get();
+    }
+
+    /**
+     * @return number of callers which waited for a call started by someone else
+     */
+    public long getJoinedCount() {
+        return joined.get();
+    }
+
+    /**
+     * @return number of callers which joined the most recently completed call
+     */
+    public int getLastJoinedCount() {
+        return lastJoined;
+    }
+
+    private static <V> V await(Flight<V> flight) {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerUnavailableException("Interrupted while waiting for server call in flight");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            else if (cause instanceof Error)
+                throw (Error) cause;
+            else
+                throw new IllegalStateException(cause);
+        }
+    }
+
+    private static class Flight<V> extends FutureTask<V> {
+        final AtomicInteger joined = new AtomicInteger();
+
+        Flight(Callable<V> call) {
+            super(call);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.IntegrationService;
+import com.appearnetworks.aiq.integrationframework.server.User;
+import com.appearnetworks.aiq.integrationframework.server.UserDirectory;
+import com.appearnetworks.aiq.integrationframework.server.Visitor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps an immutable snapshot of all users with indexes by role and profile entry,
+ * replaced as a whole on each refresh so lookups never lock.
+ */
+@Component
+public class UserDirectoryImpl implements UserDirectory {
+    private static final Log LOG = LogFactory.getLog(UserDirectoryImpl.class);
+
+    @Autowired
+    private IntegrationService integrationService;
+
+    @Value("${aiq.users.refreshInterval:300}")
+    private long refreshInterval;
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile Snapshot snapshot;
+
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong failedRefreshCount = new AtomicLong();
+
+    public UserDirectoryImpl() { }
+
+    UserDirectoryImpl(IntegrationService integrationService, long refreshInterval) {
+        this.integrationService = integrationService;
+        this.refreshInterval = refreshInterval;
+    }
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(HttpTransport.daemonThreadFactory("aiq-user-directory-"));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public User getUser(String id) {
+        return snapshot().users.get(id);
+    }
+
+    @Override
+    public Collection<User> getUsers() {
+        return Collections.unmodifiableCollection(snapshot().users.values());
+    }
+
+    @Override
+    public Set<String> getUserIdsWithRole(String role) {
+        return unmodifiable(snapshot().byRole.get(role));
+    }
+
+    @Override
+    public Set<String> getUserIdsWithProfile(String key, String value) {
+        return unmodifiable(snapshot().byProfile.get(new ProfileEntry(key, value)));
+    }
+
+    @Override
+    public void refresh() {
+        final Snapshot.Builder builder = new Snapshot.Builder();
+        integrationService.forEachUser(new Visitor<User>() {
+            @Override
+            public void visit(User user) {
+                builder.add(user);
+            }
+        });
+        snapshot = builder.build();
+        refreshCount.incrementAndGet();
+    }
+
+    /**
+     * @return number of successful refreshes, including the initial fetch
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * @return number of background refreshes which failed
+     */
+    public long getFailedRefreshCount() {
+        return failedRefreshCount.get();
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    refresh();
+                    scheduleRefresh();
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    private void scheduleRefresh() {
+        if (refreshInterval <= 0 || scheduler == null) return;
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    failedRefreshCount.incrementAndGet();
+                    LOG.warn("Unable to refresh users, keeping previous ones", e);
+                }
+            }
+        }, refreshInterval, refreshInterval, TimeUnit.SECONDS);
+    }
+
+    private static Set<String> unmodifiable(Set<String> ids) {
+        return ids == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(ids);
+    }
+
+    private static class Snapshot {
+        final Map<String, User> users;
+        final Map<String, Set<String>> byRole;
+        final Map<ProfileEntry, Set<String>> byProfile;
+
+        Snapshot(Map<String, User> users, Map<String, Set<String>> byRole, Map<ProfileEntry, Set<String>> byProfile) {
+            this.users = users;
+            this.byRole = byRole;
+            this.byProfile = byProfile;
+        }
+
+        static class Builder {
+            private final Map<String, User> users = new LinkedHashMap<>();
+            private final Map<String, Set<String>> byRole = new HashMap<>();
+            private final Map<ProfileEntry, Set<String>> byProfile = new HashMap<>();
+
+            /**
+             * Roles and profile entries repeat across most users, so only one copy of each string is kept.
+             */
+            private final Map<String, String> strings = new HashMap<>();
+
+            void add(User user) {
+                List<String> roles = null;
+                if (user.getRoles() != null) {
+                    roles = new ArrayList<>(user.getRoles().size());
+                    for (String role : user.getRoles()) {
+                        role = intern(role);
+                        roles.add(role);
+                        index(byRole, role, user.get_id());
+                    }
+                }
+                Map<String, String> profile = null;
+                if (user.getProfile() != null) {
+                    profile = new LinkedHashMap<>(user.getProfile().size() * 2);
+                    for (Map.Entry<String, String> entry : user.getProfile().entrySet()) {
+                        String key = intern(entry.getKey());
+                        String value = intern(entry.getValue());
+                        profile.put(key, value);
+                        index(byProfile, new ProfileEntry(key, value), user.get_id());
+                    }
+                }
+                users.put(user.get_id(), new User(user.get_id(), user.getUsername(), user.getEmail(), user.getFullName(),
+                        profile, roles == null ? Collections.<String>emptyList() : roles));
+            }
+
+            Snapshot build() {
+                return new Snapshot(users, byRole, byProfile);
+            }
+
+            private String intern(String s) {
+                if (s == null) return null;
+                String interned = strings.get(s);
+                if (interned == null) {
+                    strings.put(s, s);
+                    interned = s;
+                }
+                return interned;
+            }
+
+            private static <K> void index(Map<K, Set<String>> index, K key, String id) {
+                Set<String> ids = index.get(key);
+                if (ids == null) {
+                    ids = new LinkedHashSet<>();
+                    index.put(key, ids);
+                }
+                ids.add(id);
+            }
+        }
+    }
+
+    private static class ProfileEntry {
+        final String key;
+        final String value;
+
+        ProfileEntry(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ProfileEntry)) return false;
+            ProfileEntry that = (ProfileEntry) o;
+            return (key == null ? that.key == null : key.equals(that.key))
+                    && (value == null ? that.value == null : value.equals(that.value));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (key == null ? 0 : key.hashCode()) + (value == null ? 0 : value.hashCode());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.User;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of {@code validatetoken} results, evicting the least recently used token when full.
+ * <p/>
+ * Tokens are only kept as SHA-256 hashes. A valid token is cached for {@code ttl} seconds and an invalid one
+ * for {@code negativeTtl} seconds, so a token which becomes valid is not rejected for long.
+ * <p/>
+ * Every invalidation starts a new generation, and a result is only cached if no invalidation has happened since the
+ * validation started, so that a validation still in progress when the user logs out does not cache the token again.
+ */
+public class UserTokenCache {
+    private final int maxSize;
+    private final long ttl;
+    private final long negativeTtl;
+
+    private final LinkedHashMap<String, Entry> entries;
+    private final Map<String, Set<String>> keysByUser = new HashMap<>();
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    UserTokenCache(int maxSize, long ttl, long negativeTtl) {
+        this.maxSize = maxSize;
+        this.ttl = TimeUnit.SECONDS.toMillis(ttl);
+        this.negativeTtl = TimeUnit.SECONDS.toMillis(negativeTtl);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > UserTokenCache.this.maxSize) {
+                    unindex(eldest.getKey(), eldest.getValue());
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return the cached result for {@code token}, or {@code null} if not cached or expired
+     */
+    synchronized Entry get(String token) {
+        String key = key(token);
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() >= entry.expiresAt) {
+            entries.remove(key);
+            unindex(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * @return the current generation, to pass to {@link #put} for a validation starting now
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * @param user the user the token belongs to, {@code null} if the token is not valid
+     * @param generation the {@link #generation()} when the validation started, nothing is cached if anything has
+     *                   been invalidated since
+     */
+    synchronized void put(String token, User user, long generation) {
+        if (generation != this.generation) return;
+        String key = key(token);
+        Entry entry = new Entry(user, System.currentTimeMillis() + (user != null ? ttl : negativeTtl));
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            unindex(key, previous);
+        }
+        if (user != null) {
+            Set<String> keys = keysByUser.get(user.get_id());
+            if (keys == null) {
+                keys = new HashSet<>();
+                keysByUser.put(user.get_id(), keys);
+            }
+            keys.add(key);
+        }
+    }
+
+    /**
+     * Remove a token, so that it is validated by the server next time.
+     */
+    public synchronized void invalidate(String token) {
+        generation++;
+        String key = key(token);
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            unindex(key, entry);
+        }
+    }
+
+    /**
+     * Remove all tokens belonging to a user, e.g. when the user logs out.
+     */
+    public synchronized void invalidateUser(String userId) {
+        generation++;
+        Set<String> keys = keysByUser.remove(userId);
+        if (keys != null) {
+            for (String key : keys) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        keysByUser.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private void unindex(String key, Entry entry) {
+        if (entry.user == null) return;
+        Set<String> keys = keysByUser.get(entry.user.get_id());
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                keysByUser.remove(entry.user.get_id());
+            }
+        }
+    }
+
+    private static String key(String token) {
+        return DigestUtils.sha256Hex(token);
+    }
+
+    static class Entry {
+        final User user;
+        final long expiresAt;
+
+        Entry(User user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.appearnetworks.aiq.integrationframework.server;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Non-blocking variant of {@link IntegrationService}, every operation returns immediately with a future result.
+ * <p>
+ * The framework will provide exactly one thread-safe implementation of it in the Spring application context,
+ * alongside the {@link IntegrationService}. The easiest way to obtain a reference to it is:
+ * <pre>
+ * {@literal @Autowired}
+ * private AsyncIntegrationService asyncIntegrationService;
+ * </pre>
+ *
+ * The operations are run on a bounded pool of threads, configured with {@code aiq.async.threads} (default 8)
+ * and {@code aiq.async.queueCapacity} (default 1000).
+ *
+ * A failed operation completes its future with the same exceptions as {@link IntegrationService}, i.e.
+ * {@link ServerUnavailableException}, {@link UnauthorizedException} or {@link ServerException}, available as the cause
+ * of the {@link java.util.concurrent.ExecutionException} or passed to
+ * {@link org.springframework.util.concurrent.ListenableFutureCallback#onFailure(Throwable)}.
+ * If too many operations are pending, the future fails with {@link ServerUnavailableException}.
+ */
+public interface AsyncIntegrationService {
+    /**
+     * Fetch all currently active client sessions.
+     *
+     * @return future list of all currently active client sessions, never {@code null}
+     */
+    ListenableFuture<List<ClientSession>> fetchClientSessions();
+
+    /**
+     * Fetch all currently active client sessions one by one, without holding them all in memory.
+     *
+     * @param visitor called for each client session as it is read from the response, on a pool thread
+     *
+     * @return future completed when all client sessions have been visited
+     */
+    ListenableFuture<Void> forEachClientSession(Visitor<ClientSession> visitor);
+
+    /**
+     * Fetch a specific client session by id.
+     *
+     * @param id client session id, from {@link ClientSession#get_id()}
+     *
+     * @return future client session if still active, or {@code null} if the session was not found or no longer active
+     */
+    ListenableFuture<ClientSession> fetchClientSession(String id);
+
+    /**
+     * Terminate a specific client session by id.
+     *
+     * @param id client session id, from {@link ClientSession#get_id()}
+     *
+     * @return future {@code true} if client session existed and was terminated, {@code false} if the session was not found or no longer active
+     */
+    ListenableFuture<Boolean> terminateClientSession(String id);
+
+    /**
+     * Update backend context for a client session.
+     *
+     * @param userId user id, from {@link User#get_id()}
+     * @param deviceId device id, from {@link ClientSession#getDeviceId()}
+     * @param provider context provider name
+     * @param data context data
+     *
+     * @return future {@code true} if session existed and was updated, {@code false} if session was not found
+     */
+    ListenableFuture<Boolean> updateBackendContext(String userId, String deviceId, String provider, ObjectNode data);
+
+    /**
+     * Remove backend context for a client session.
+     *
+     * @param userId user id, from {@link User#get_id()}
+     * @param deviceId device id, from {@link ClientSession#getDeviceId()}
+     * @param provider context provider name
+     *
+     * @return future {@code true} if session existed and was updated, {@code false} if session was not found
+     */
+    ListenableFuture<Boolean> removeBackendContext(String userId, String deviceId, String provider);
+
+    /**
+     * Update or remove the backend context of many client sessions.
+     *
+     * @param updates contexts to set, or to remove if their data is {@code null}
+     *
+     * @return future with whether each session was found, or why the update failed
+     *
+     * @see IntegrationService#updateBackendContexts(java.util.Collection)
+     */
+    ListenableFuture<BackendContextUpdatesResult> updateBackendContexts(Collection<BackendContextUpdate> updates);
+
+    /**
+     * Create a new backend message.
+     *
+     * @param message message to create
+     *
+     * @return future id of the newly created backend message, never {@code null}
+     */
+    ListenableFuture<String> createBackendMessage(BackendMessage message);
+
+    /**
+     * Create a new backend message with attachments.
+     *
+     * @param message message to create
+     * @param attachments attachments
+     *
+     * @return future id of the newly created backend message, never {@code null}
+     */
+    ListenableFuture<String> createBackendMessage(BackendMessage message, Collection<MessageAttachment> attachments);
+
+    /**
+     * Create a new backend message without waiting for the server, if an outbox is enabled.
+     *
+     * @param message message to create
+     *
+     * @return future completed when the message has been written to the outbox, or created if there is none
+     *
+     * @see IntegrationService#enqueueBackendMessage(BackendMessage)
+     */
+    ListenableFuture<Void> enqueueBackendMessage(BackendMessage message);
+
+    /**
+     * Create many backend messages.
+     *
+     * @param messages messages to create
+     *
+     * @return future with the ids or failure of each message
+     *
+     * @see IntegrationService#createBackendMessages(java.util.Collection)
+     */
+    ListenableFuture<BackendMessagesResult> createBackendMessages(Collection<BackendMessage> messages);
+
+    /**
+     * Fetch a specific backend message by id along with read reports and payload.
+     *
+     * @param id backend message id, from {@link EnrichedBackendMessage#get_id()}
+     *
+     * @return future backend message, or {@code null} if not found
+     */
+    ListenableFuture<EnrichedBackendMessage> fetchBackendMessage(String id);
+
+    /**
+     * Count the read reports of a backend message, by revision and by user role, and compute how long it took to be
+     * read.
+     *
+     * @param id backend message id, from {@link EnrichedBackendMessage#get_id()}
+     *
+     * @return future read statistics, or {@code null} if not found
+     *
+     * @see IntegrationService#fetchBackendMessageReadStatistics(String)
+     */
+    ListenableFuture<BackendMessageReadStatistics> fetchBackendMessageReadStatistics(String id);
+
+    /**
+     * Update an existing backend message.
+     *
+     * @param id backend message id, from {@link EnrichedBackendMessage#get_id()}
+     * @param messageUpdate updates on the message
+     *
+     * @return future {@code true} if the message existed and was updated, {@code false} if not found or was not updated
+     */
+    ListenableFuture<Boolean> updateBackendMessage(String id, BackendMessageUpdate messageUpdate);
+
+    /**
+     * Delete a backend message.
+     *
+     * @param id backend message id, from {@link EnrichedBackendMessage#get_id()}
+     *
+     * @return future {@code true} if the message existed and were deleted, {@code false} if not found
+     */
+    ListenableFuture<Boolean> deleteBackendMessage(String id);
+
+    /**
+     * Fetch list of all backend messages available on the server, including payload.
+     *
+     * @return future list of messages, never {@code null}
+     */
+    ListenableFuture<List<EnrichedBackendMessage>> fetchBackendMessages();
+
+    /**
+     * Fetch list of all backend messages available on the server.
+     *
+     * @param withPayload whether to include the payload
+     *
+     * @return future list of messages, never {@code null}
+     */
+    ListenableFuture<List<EnrichedBackendMessage>> fetchBackendMessages(boolean withPayload);
+
+    /**
+     * Fetch list of backend messages of a specified type available on the server.
+     *
+     * @param messageType the type of message to fetch
+     * @param withPayload whether to include the payload
+     *
+     * @return future list of messages, never {@code null}
+     */
+    ListenableFuture<List<EnrichedBackendMessage>> fetchBackendMessages(String messageType, boolean withPayload);
+
+    /**
+     * Fetch backend messages available on the server one by one, without holding them all in memory
+     * (not including read reports nor recipients data).
+     *
+     * @param messageType the type of message to fetch, {@code null} to fetch all types
+     * @param withPayload whether to include the payload
+     * @param visitor called for each message as it is read from the response, on a pool thread
+     *
+     * @return future completed when all messages have been visited
+     */
+    ListenableFuture<Void> forEachBackendMessage(String messageType, boolean withPayload, Visitor<EnrichedBackendMessage> visitor);
+
+    /**
+     * Notify server that there is new data available for some users, but do not send push notifications to devices.
+     *
+     * @param userIds list of user ids for whom there is new data available
+     *
+     * @return future completed when the server has accepted the notification
+     */
+    ListenableFuture<Void> newDataAvailableForUsers(List<String> userIds);
+
+    /**
+     * Notify server that there is new data available for some users, and send push notifications to affected devices.
+     *
+     * @param userIds list of user ids for whom there is new data available
+     * @param condition only notify devices matching this context condition, {@code null} to not filter on context
+     *
+     * @return future completed when the server has accepted the notification
+     */
+    ListenableFuture<Void> newDataAvailableForUsers(List<String> userIds, ObjectNode condition);
+
+    /**
+     * Notify server that there is new data available for a possibly very large list of users,
+     * but do not send push notifications to devices.
+     *
+     * @param userIds list of user ids for whom there is new data available
+     *
+     * @return future with the outcome of each chunk
+     *
+     * @see IntegrationService#newDataAvailableForUsersChunked(java.util.List)
+     */
+    ListenableFuture<NewDataAvailableResult> newDataAvailableForUsersChunked(List<String> userIds);
+
+    /**
+     * Notify server that there is new data available for a possibly very large list of users,
+     * and send push notifications to affected devices.
+     *
+     * @param userIds list of user ids for whom there is new data available
+     * @param condition only notify devices matching this context condition, {@code null} to not filter on context
+     *
+     * @return future with the outcome of each chunk
+     *
+     * @see IntegrationService#newDataAvailableForUsersChunked(java.util.List, com.fasterxml.jackson.databind.node.ObjectNode)
+     */
+    ListenableFuture<NewDataAvailableResult> newDataAvailableForUsersChunked(List<String> userIds, ObjectNode condition);
+
+    /**
+     * Notify server that there is new data available for some launchables, but do not send push notifications to devices.
+     *
+     * @param launchableIds list of launchable ids for which there is new data available
+     *
+     * @return future completed when the server has accepted the notification
+     */
+    ListenableFuture<Void> newDataAvailableForLaunchables(List<String> launchableIds);
+
+    /**
+     * Notify server that there is new data available for some launchables, and send push notifications to affected devices.
+     *
+     * @param launchableIds list of launchable ids for which there is new data available
+     * @param condition only notify devices matching this context condition, {@code null} to not filter on context
+     *
+     * @return future completed when the server has accepted the notification
+     */
+    ListenableFuture<Void> newDataAvailableForLaunchables(List<String> launchableIds, ObjectNode condition);
+
+    /**
+     * Notify server that there is new data available for all users, but do not send push notifications to devices.
+     *
+     * @return future completed when the server has accepted the notification
+     */
+    ListenableFuture<Void> newDataAvailableForAllUsers();
+
+    /**
+     * Notify server that there is new data available for all users, and send push notifications to affected devices.
+     *
+     * @param condition only notify devices matching this context condition, {@code null} to not filter on context
+     *
+     * @return future completed when the server has accepted the notification
+     */
+    ListenableFuture<Void> newDataAvailableForAllUsers(ObjectNode condition);
+
+    /**
+     * Validates the token for a user.
+     *
+     * @param token token to validate
+     *
+     * @return future server user if token is valid, or {@code null} if token is not valid
+     */
+    ListenableFuture<User> validateUserToken(String token);
+
+    /**
+     * Fetch list of users.
+     *
+     * @return future list of users, never {@code null}
+     */
+    ListenableFuture<List<User>> fetchUsers();
+
+    /**
+     * Fetch users one by one, without holding them all in memory.
+     *
+     * @param visitor called for each user as it is read from the response, on a pool thread
+     *
+     * @return future completed when all users have been visited
+     */
+    ListenableFuture<Void> forEachUser(Visitor<User> visitor);
+
+    /**
+     * Fetch a specific user by id.
+     *
+     * @param id user id, from {@link User#get_id()}
+     *
+     * @return future user, or {@code null} if the user was not found
+     */
+    ListenableFuture<User> fetchUser(String id);
+}
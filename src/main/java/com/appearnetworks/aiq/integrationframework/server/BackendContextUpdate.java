@@ -0,0 +1,64 @@
+package com.appearnetworks.aiq.integrationframework.server;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Backend context to set or remove for one client session, used to update many sessions at once.
+ *
+ * @see IntegrationService#updateBackendContexts(java.util.Collection)
+ */
+public class BackendContextUpdate {
+    private final String userId;
+    private final String deviceId;
+    private final String provider;
+    private final ObjectNode data;
+
+    /**
+     * Main constructor.
+     *
+     * @param userId user id, from {@link User#get_id()}
+     * @param deviceId device id, from {@link ClientSession#getDeviceId()}
+     * @param provider context provider name
+     * @param data context data, or {@code null} to remove the context
+     */
+    public BackendContextUpdate(String userId, String deviceId, String provider, ObjectNode data) {
+        this.userId = userId;
+        this.deviceId = deviceId;
+        this.provider = provider;
+        this.data = data;
+    }
+
+    /**
+     * Remove the backend context of a client session.
+     *
+     * @param userId user id, from {@link User#get_id()}
+     * @param deviceId device id, from {@link ClientSession#getDeviceId()}
+     * @param provider context provider name
+     */
+    public static BackendContextUpdate removal(String userId, String deviceId, String provider) {
+        return new BackendContextUpdate(userId, deviceId, provider, null);
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public ObjectNode getData() {
+        return data;
+    }
+
+    /**
+     * @return {@code true} if the context is to be removed
+     */
+    public boolean isRemoval() {
+        return data == null;
+    }
+}
@@ -0,0 +1,95 @@
+package com.appearnetworks.aiq.integrationframework.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of updating the backend context of many client sessions at once.
+ *
+ * @see IntegrationService#updateBackendContexts(java.util.Collection)
+ */
+public class BackendContextUpdatesResult {
+    private final List<UpdateResult> results;
+
+    public BackendContextUpdatesResult(List<UpdateResult> results) {
+        this.results = Collections.unmodifiableList(results);
+    }
+
+    /**
+     * @return {@code true} if no update failed, even if some sessions were not found
+     */
+    public boolean isSuccess() {
+        for (UpdateResult result : results) {
+            if (!result.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the outcome of each update, in the order they were passed in
+     */
+    public List<UpdateResult> getResults() {
+        return results;
+    }
+
+    /**
+     * @return the updates which failed, possibly empty but never {@code null}
+     */
+    public List<UpdateResult> getFailedUpdates() {
+        List<UpdateResult> failedUpdates = new ArrayList<>();
+        for (UpdateResult result : results) {
+            if (!result.isSuccess()) {
+                failedUpdates.add(result);
+            }
+        }
+        return failedUpdates;
+    }
+
+    /**
+     * The outcome of one update passed in.
+     */
+    public static class UpdateResult {
+        private final BackendContextUpdate update;
+        private final boolean found;
+        private final RuntimeException cause;
+
+        public UpdateResult(BackendContextUpdate update, boolean found, RuntimeException cause) {
+            this.update = update;
+            this.found = found;
+            this.cause = cause;
+        }
+
+        /**
+         * @return {@code true} if the server was reached and answered, whether or not the session was found
+         */
+        public boolean isSuccess() {
+            return cause == null;
+        }
+
+        /**
+         * @return the update as passed in
+         */
+        public BackendContextUpdate getUpdate() {
+            return update;
+        }
+
+        /**
+         * @return {@code true} if the session existed and was updated, {@code false} if it was not found or the
+         * update failed
+         */
+        public boolean isFound() {
+            return found;
+        }
+
+        /**
+         * @return {@link ServerUnavailableException}, {@link UnauthorizedException} or {@link ServerException},
+         * or {@code null} if the update did not fail
+         */
+        public RuntimeException getCause() {
+            return cause;
+        }
+    }
+}
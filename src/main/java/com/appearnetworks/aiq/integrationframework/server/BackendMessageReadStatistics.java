@@ -0,0 +1,101 @@
+package com.appearnetworks.aiq.integrationframework.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Counts and time-to-read distribution of the read reports of a backend message, computed without keeping the
+ * reports themselves.
+ * <p>
+ * The time to read is the time from when the message became active, {@code activeFrom} or {@code created} if not set,
+ * until it was read.
+ *
+ * @see IntegrationService#fetchBackendMessageReadStatistics(String)
+ * @see BackendMessageReadReport
+ */
+public class BackendMessageReadStatistics {
+    private final SortedMap<Long, Long> readCountByRevision;
+    private final Map<String, Long> readCountByRole;
+    private final long[] timesToRead;
+    private final Map<String, long[]> timesToReadByRole;
+
+    /**
+     * @param readCountByRevision number of reads of each revision
+     * @param timesToRead         time to read of each read, in milliseconds, in any order
+     * @param timesToReadByRole   time to read of each read by a user with the role, in milliseconds, in any order
+     */
+    public BackendMessageReadStatistics(Map<Long, Long> readCountByRevision, long[] timesToRead,
+                                        Map<String, long[]> timesToReadByRole) {
+        this.readCountByRevision = Collections.unmodifiableSortedMap(new TreeMap<>(readCountByRevision));
+        this.timesToRead = timesToRead.clone();
+        Arrays.sort(this.timesToRead);
+        Map<String, Long> readCountByRole = new HashMap<>();
+        Map<String, long[]> sortedByRole = new HashMap<>();
+        for (Map.Entry<String, long[]> entry : timesToReadByRole.entrySet()) {
+            long[] times = entry.getValue().clone();
+            Arrays.sort(times);
+            sortedByRole.put(entry.getKey(), times);
+            readCountByRole.put(entry.getKey(), (long) times.length);
+        }
+        this.readCountByRole = Collections.unmodifiableMap(readCountByRole);
+        this.timesToReadByRole = sortedByRole;
+    }
+
+    /**
+     * @return number of read reports
+     */
+    public long getReadCount() {
+        return timesToRead.length;
+    }
+
+    /**
+     * @return number of read reports of each revision, by revision in ascending order
+     */
+    public SortedMap<Long, Long> getReadCountByRevision() {
+        return readCountByRevision;
+    }
+
+    /**
+     * @return number of read reports by users with each role, a user with several roles is counted for each of them
+     */
+    public Map<String, Long> getReadCountByRole() {
+        return readCountByRole;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     *
+     * @return the time to read, in milliseconds, which {@code percentile} percent of the reads were within,
+     * or -1 if there are no reads
+     */
+    public long getTimeToReadPercentile(double percentile) {
+        return percentile(timesToRead, percentile);
+    }
+
+    /**
+     * @param role       user role
+     * @param percentile between 0 and 100
+     *
+     * @return the time to read, in milliseconds, which {@code percentile} percent of the reads by users with
+     * {@code role} were within, or -1 if there are no such reads
+     */
+    public long getTimeToReadPercentile(String role, double percentile) {
+        long[] times = timesToReadByRole.get(role);
+        return times != null ? percentile(times, percentile) : -1;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        }
+        if (sorted.length == 0) {
+            return -1;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+}
@@ -0,0 +1,119 @@
+package com.appearnetworks.aiq.integrationframework.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of creating many backend messages at once. A message with many recipients may have been split into
+ * several messages, each for a part of the recipients.
+ *
+ * @see IntegrationService#createBackendMessages(java.util.Collection)
+ */
+public class BackendMessagesResult {
+    private final List<MessageResult> results;
+
+    public BackendMessagesResult(List<MessageResult> results) {
+        this.results = Collections.unmodifiableList(results);
+    }
+
+    /**
+     * @return {@code true} if all messages were created
+     */
+    public boolean isSuccess() {
+        for (MessageResult result : results) {
+            if (!result.isSuccess()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the outcome of each message, in the order they were passed in
+     */
+    public List<MessageResult> getResults() {
+        return results;
+    }
+
+    /**
+     * @return the messages which could not be created, possibly empty but never {@code null}
+     */
+    public List<FailedMessage> getFailedMessages() {
+        List<FailedMessage> failedMessages = new ArrayList<>();
+        for (MessageResult result : results) {
+            failedMessages.addAll(result.getFailedMessages());
+        }
+        return failedMessages;
+    }
+
+    /**
+     * The outcome of one message passed in.
+     */
+    public static class MessageResult {
+        private final BackendMessage message;
+        private final List<String> ids;
+        private final List<FailedMessage> failedMessages;
+
+        public MessageResult(BackendMessage message, List<String> ids, List<FailedMessage> failedMessages) {
+            this.message = message;
+            this.ids = Collections.unmodifiableList(ids);
+            this.failedMessages = Collections.unmodifiableList(failedMessages);
+        }
+
+        /**
+         * @return {@code true} if the message was created for all its recipients
+         */
+        public boolean isSuccess() {
+            return failedMessages.isEmpty();
+        }
+
+        /**
+         * @return the message as passed in
+         */
+        public BackendMessage getMessage() {
+            return message;
+        }
+
+        /**
+         * @return ids of the created backend messages, more than one if the recipients were split
+         */
+        public List<String> getIds() {
+            return ids;
+        }
+
+        /**
+         * @return the parts of the message which could not be created, possibly empty but never {@code null}
+         */
+        public List<FailedMessage> getFailedMessages() {
+            return failedMessages;
+        }
+    }
+
+    /**
+     * A message which could not be created, and why.
+     */
+    public static class FailedMessage {
+        private final BackendMessage message;
+        private final RuntimeException cause;
+
+        public FailedMessage(BackendMessage message, RuntimeException cause) {
+            this.message = message;
+            this.cause = cause;
+        }
+
+        /**
+         * @return the message as sent, with only the recipients it was split into, to retry with
+         */
+        public BackendMessage getMessage() {
+            return message;
+        }
+
+        /**
+         * @return {@link ServerUnavailableException}, {@link UnauthorizedException} or {@link ServerException}
+         */
+        public RuntimeException getCause() {
+            return cause;
+        }
+    }
+}
@@ -15,9 +15,11 @@ public class EnrichedBackendMessageLinks {
     public EnrichedBackendMessageLinks() { }
 
     /**
-     * Used for testing.
+     * Main constructor.
+     *
+     * @param self the link to the backend message
      */
-    EnrichedBackendMessageLinks(String self) {
+    public EnrichedBackendMessageLinks(String self) {
         this.self = self;
     }
 
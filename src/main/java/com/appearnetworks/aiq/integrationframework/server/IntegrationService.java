@@ -26,6 +26,13 @@ import java.util.List;
  * The methods in this class will throw {@link ServerException}
  * if the server responds with an unexpected HTTP status code (other than 503). In this case, you should <em>not</em>
  * automatically retry the same operation, since it will likely fail again.
+ * <p>
+ * If {@code aiq.newdataavailable.coalesceWindow} or {@code aiq.outbox.directory} is set, the {@code newDataAvailable}
+ * methods (except the chunked ones) return before the request is sent, and failures to send it are logged rather than
+ * thrown. So does {@link #enqueueBackendMessage(BackendMessage)} if {@code aiq.outbox.directory} is set.
+ * <p>
+ * If {@code aiq.conditionalget.cacheSize} is set, {@code fetchUsers}, {@code fetchClientSessions} and
+ * {@code fetchBackendMessages} may return the same objects again, which must not be modified.
  */
 public interface IntegrationService {
     /**
@@ -35,6 +42,13 @@ public interface IntegrationService {
      */
     List<ClientSession> fetchClientSessions();
 
+    /**
+     * Fetch all currently active client sessions one by one, without holding them all in memory.
+     *
+     * @param visitor  called for each client session as it is read from the response
+     */
+    void forEachClientSession(Visitor<ClientSession> visitor);
+
     /**
      * Fetch a specific client session by id.
      *
@@ -76,6 +90,18 @@ public interface IntegrationService {
      */
     boolean removeBackendContext(String userId, String deviceId, String provider);
 
+    /**
+     * Update or remove the backend context of many client sessions.
+     * <p>
+     * The updates are sent in parallel, at most {@code aiq.bulk.parallelism} at a time (default 4). Failures are
+     * reported per update instead of thrown, so the failed updates can be retried.
+     *
+     * @param updates  contexts to set, or to remove if their data is {@code null}
+     *
+     * @return whether each session was found, or why the update failed, never {@code null}
+     */
+    BackendContextUpdatesResult updateBackendContexts(Collection<BackendContextUpdate> updates);
+
     /**
      * Create a new backend message.
      *
@@ -85,6 +111,28 @@ public interface IntegrationService {
      */
     String createBackendMessage(BackendMessage message);
 
+    /**
+     * Create a new backend message without waiting for the server, if an outbox is enabled with
+     * {@code aiq.outbox.directory}. Otherwise the message is created right away.
+     *
+     * @param message  message to create
+     */
+    void enqueueBackendMessage(BackendMessage message);
+
+    /**
+     * Create many backend messages.
+     * <p>
+     * A message with more than {@code aiq.backendmessages.recipientChunkSize} recipients (default 10000) is split
+     * into several messages with that many recipients at most. The messages are sent in parallel, at most
+     * {@code aiq.bulk.parallelism} at a time (default 4). Failures are reported per message instead of thrown,
+     * so the failed messages can be retried.
+     *
+     * @param messages  messages to create
+     *
+     * @return the ids or failure of each message, never {@code null}
+     */
+    BackendMessagesResult createBackendMessages(Collection<BackendMessage> messages);
+
     /**
      * Create a new backend message with attachments.
      *
@@ -105,6 +153,17 @@ public interface IntegrationService {
      */
     EnrichedBackendMessage fetchBackendMessage(String id);
 
+    /**
+     * Count the read reports of a backend message, by revision and by user role, and compute how long it took to be
+     * read. The read reports are aggregated while they are received, without creating them, which makes this much
+     * cheaper than {@link #fetchBackendMessage(String)} for messages read by many users.
+     *
+     * @param id  backend message id, from {@link com.appearnetworks.aiq.integrationframework.server.EnrichedBackendMessage#get_id()}
+     *
+     * @return the read statistics, or {@code null} if not found
+     */
+    BackendMessageReadStatistics fetchBackendMessageReadStatistics(String id);
+
     /**
      * update an existing backend message.
      * Time to live, payload and notification can only be updated for a backend message
@@ -151,6 +210,16 @@ public interface IntegrationService {
      */
     List<EnrichedBackendMessage> fetchBackendMessages(String messageType, boolean withPayload);
 
+    /**
+     * Fetch backend messages available on the server one by one, without holding them all in memory
+     * (not including read reports nor recipients data).
+     *
+     * @param messageType  the type of message to fetch, {@code null} to fetch all types
+     * @param withPayload  whether to include the payload
+     * @param visitor      called for each message as it is read from the response
+     */
+    void forEachBackendMessage(String messageType, boolean withPayload, Visitor<EnrichedBackendMessage> visitor);
+
     /**
      * Notify server that there is new data available for some users, but do not send push notifications to devices.
      *
@@ -166,6 +235,33 @@ public interface IntegrationService {
      */
     void newDataAvailableForUsers(List<String> userIds, ObjectNode condition);
 
+    /**
+     * Notify server that there is new data available for a possibly very large list of users,
+     * but do not send push notifications to devices.
+     * <p>
+     * The list is split into chunks of {@code aiq.newdataavailable.chunkSize} users (default 10000),
+     * which are sent in parallel, at most {@code aiq.bulk.parallelism} at a time (default 4).
+     * Failures are reported per chunk instead of thrown, so the failed chunks can be retried.
+     *
+     * @param userIds   list of user ids for whom there is new data available
+     *
+     * @return the outcome of each chunk, never {@code null}
+     */
+    NewDataAvailableResult newDataAvailableForUsersChunked(List<String> userIds);
+
+    /**
+     * Notify server that there is new data available for a possibly very large list of users,
+     * and send push notifications to affected devices.
+     * <p>
+     * The list is split into chunks as described in {@link #newDataAvailableForUsersChunked(java.util.List)}.
+     *
+     * @param userIds    list of user ids for whom there is new data available
+     * @param condition  only notify devices matching this context condition, {@code null} to not filter on context
+     *
+     * @return the outcome of each chunk, never {@code null}
+     */
+    NewDataAvailableResult newDataAvailableForUsersChunked(List<String> userIds, ObjectNode condition);
+
     /**
      * Notify server that there is new data available for some launchables, but do not send push notifications to devices.
      *
@@ -202,6 +298,26 @@ public interface IntegrationService {
      */
     User validateUserToken(String token);
 
+    /**
+     * Forget the cached result of {@link #validateUserToken(String)} for a token, e.g. when the user logs out of a web session.
+     * <p>
+     * Results are only cached if {@code aiq.validatetoken.cacheSize} is set to the maximum number of tokens to keep.
+     * Valid tokens are then kept for {@code aiq.validatetoken.ttl} seconds (default 300) and invalid ones
+     * for {@code aiq.validatetoken.negativeTtl} seconds (default 10).
+     *
+     * @param token token to forget
+     */
+    void invalidateUserToken(String token);
+
+    /**
+     * Forget the cached results of {@link #validateUserToken(String)} for all tokens of a user.
+     * This is done automatically before {@link com.appearnetworks.aiq.integrationframework.integration.IntegrationAdapter#logout(String)}
+     * is called.
+     *
+     * @param userId user id, from {@link User#get_id()}
+     */
+    void invalidateUserTokens(String userId);
+
     /**
      * Fetch list of users.
      *
@@ -209,6 +325,13 @@ public interface IntegrationService {
      */
     List<User> fetchUsers();
 
+    /**
+     * Fetch users one by one, without holding them all in memory.
+     *
+     * @param visitor  called for each user as it is read from the response
+     */
+    void forEachUser(Visitor<User> visitor);
+
     /**
      * Fetch a specific user by id.
      *
@@ -1,29 +1,95 @@
 package com.appearnetworks.aiq.integrationframework.server;
 
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.PathResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
 import org.springframework.util.Assert;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.UUID;
 
 /**
  * Attachment associated with a message.
+ * <p>
+ * Attachments built from a stream, file or {@link Resource} are streamed to the server when the message is sent,
+ * without being held in memory.
  */
 public class MessageAttachment {
     public final String name;
     public final MediaType contentType;
+
+    /**
+     * Attachment data, or {@code null} if the attachment is read from a stream.
+     */
     public final byte[] data;
 
+    private final InputStreamSource source;
+    private final long contentLength;
+
     /**
      * @param name           attachment name, must be unique within a message, set to {@code null} to have it auto-generated
      * @param contentType    content type of attachment
      * @param data           attachment data
      */
     public MessageAttachment(String name, MediaType contentType, byte[] data) {
+        this(name, contentType, data, data == null ? null : new ByteArrayResource(data), data == null ? 0 : data.length);
+    }
+
+    /**
+     * @param name           attachment name, must be unique within a message, set to {@code null} to have it auto-generated
+     * @param contentType    content type of attachment
+     * @param source         attachment data, must return a new stream each time, since the message may be sent more than once
+     * @param contentLength  number of bytes in the stream
+     */
+    public MessageAttachment(String name, MediaType contentType, InputStreamSource source, long contentLength) {
+        this(name, contentType, null, source, contentLength);
+        Assert.isTrue(contentLength >= 0, "contentLength cannot be negative");
+    }
+
+    /**
+     * @param name           attachment name, must be unique within a message, set to {@code null} to have it auto-generated
+     * @param contentType    content type of attachment
+     * @param resource       attachment data, its length is determined when the message is sent
+     */
+    public MessageAttachment(String name, MediaType contentType, Resource resource) {
+        this(name, contentType, null, resource, -1);
+    }
+
+    /**
+     * @param name           attachment name, must be unique within a message, set to {@code null} to have it auto-generated
+     * @param contentType    content type of attachment
+     * @param file           file with attachment data
+     */
+    public MessageAttachment(String name, MediaType contentType, Path file) {
+        this(name, contentType, new PathResource(file));
+    }
+
+    private MessageAttachment(String name, MediaType contentType, byte[] data, InputStreamSource source, long contentLength) {
         Assert.notNull(contentType, "contentType cannot be null");
-        Assert.notNull(data, "data cannot be null");
+        Assert.notNull(source, "data cannot be null");
         if (name == null) name = UUID.randomUUID().toString();
         this.name = name;
         this.contentType = contentType;
         this.data = data;
+        this.source = source;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * @return a new stream of the attachment data, which the caller must close
+     */
+    public InputStream getInputStream() throws IOException {
+        return source.getInputStream();
+    }
+
+    /**
+     * @return number of bytes in the attachment data
+     */
+    public long getContentLength() throws IOException {
+        return contentLength >= 0 ? contentLength : ((Resource) source).contentLength();
     }
 }
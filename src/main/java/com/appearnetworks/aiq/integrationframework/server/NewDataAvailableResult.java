@@ -0,0 +1,67 @@
+package com.appearnetworks.aiq.integrationframework.server;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of notifying the server about new data for a large list of users, which is sent in chunks.
+ *
+ * @see IntegrationService#newDataAvailableForUsersChunked(java.util.List)
+ */
+public class NewDataAvailableResult {
+    private final int chunkCount;
+    private final List<FailedChunk> failedChunks;
+
+    public NewDataAvailableResult(int chunkCount, List<FailedChunk> failedChunks) {
+        this.chunkCount = chunkCount;
+        this.failedChunks = Collections.unmodifiableList(failedChunks);
+    }
+
+    /**
+     * @return {@code true} if all chunks were accepted by the server
+     */
+    public boolean isSuccess() {
+        return failedChunks.isEmpty();
+    }
+
+    /**
+     * @return number of chunks the user list was split into
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * @return the chunks which could not be sent, possibly empty but never {@code null}
+     */
+    public List<FailedChunk> getFailedChunks() {
+        return failedChunks;
+    }
+
+    /**
+     * A chunk of users which could not be notified, and why.
+     */
+    public static class FailedChunk {
+        private final List<String> userIds;
+        private final RuntimeException cause;
+
+        public FailedChunk(List<String> userIds, RuntimeException cause) {
+            this.userIds = userIds;
+            this.cause = cause;
+        }
+
+        /**
+         * @return ids of the users in this chunk, to retry with
+         */
+        public List<String> getUserIds() {
+            return userIds;
+        }
+
+        /**
+         * @return {@link ServerUnavailableException}, {@link UnauthorizedException} or {@link ServerException}
+         */
+        public RuntimeException getCause() {
+            return cause;
+        }
+    }
+}
@@ -6,11 +6,36 @@ package com.appearnetworks.aiq.integrationframework.server;
  * Corresponds to HTTP status 503 Service Unavailable, or unable to connect to server.
  */
 public class ServerUnavailableException extends RuntimeException {
+    private final int retryAfterSeconds;
 
     public ServerUnavailableException() {
+        this.retryAfterSeconds = 0;
     }
 
     public ServerUnavailableException(String message) {
         super(message);
+        this.retryAfterSeconds = 0;
+    }
+
+    public ServerUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+        this.retryAfterSeconds = 0;
+    }
+
+    /**
+     * Unavailable for a number of seconds specified by the server.
+     *
+     * @param retryAfterSeconds number of seconds to wait before retrying, or 0 to leave it unspecified.
+     */
+    public ServerUnavailableException(int retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return number of seconds the server asked to wait before retrying, from the {@code Retry-After} header,
+     * or 0 if not specified
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
     }
 }
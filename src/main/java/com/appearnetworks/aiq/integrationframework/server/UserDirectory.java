@@ -0,0 +1,52 @@
+package com.appearnetworks.aiq.integrationframework.server;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * In-memory replica of the users on the server, for fast lookups without round trips.
+ * <p>
+ * The framework will provide exactly one thread-safe implementation of it in the Spring application context,
+ * alongside the {@link IntegrationService}. The easiest way to obtain a reference to it is:
+ * <pre>
+ * {@literal @Autowired}
+ * private UserDirectory userDirectory;
+ * </pre>
+ *
+ * The users are fetched on first use and then refreshed in the background every
+ * {@code aiq.users.refreshInterval} seconds (default 300). If a refresh fails, the previous users are kept.
+ * The first lookup throws the same exceptions as {@link IntegrationService#fetchUsers()} if the users cannot be fetched.
+ */
+public interface UserDirectory {
+    /**
+     * @param id  user id, from {@link User#get_id()}
+     *
+     * @return the user, or {@code null} if not found
+     */
+    User getUser(String id);
+
+    /**
+     * @return all users, never {@code null}
+     */
+    Collection<User> getUsers();
+
+    /**
+     * @param role  role name
+     *
+     * @return ids of the users with the role, never {@code null}
+     */
+    Set<String> getUserIdsWithRole(String role);
+
+    /**
+     * @param key    profile key
+     * @param value  profile value
+     *
+     * @return ids of the users whose profile has {@code key} set to {@code value}, never {@code null}
+     */
+    Set<String> getUserIdsWithProfile(String key, String value);
+
+    /**
+     * Fetch the users from the server now, instead of waiting for the next scheduled refresh.
+     */
+    void refresh();
+}
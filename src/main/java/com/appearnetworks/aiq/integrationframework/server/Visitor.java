@@ -0,0 +1,18 @@
+package com.appearnetworks.aiq.integrationframework.server;
+
+/**
+ * Receives the items of a list fetched from the server one by one, as they are read from the response.
+ *
+ * @param <T> item type
+ *
+ * @see IntegrationService#forEachUser(Visitor)
+ */
+public interface Visitor<T> {
+    /**
+     * Called once for each item, in the order sent by the server.
+     * An exception thrown from here aborts the fetch and is propagated to the caller.
+     *
+     * @param item the item, never {@code null}
+     */
+    void visit(T item);
+}
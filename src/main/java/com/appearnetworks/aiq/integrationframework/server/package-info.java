@@ -8,6 +8,10 @@
  * {@literal @Autowired}
  * private IntegrationService integrationService;
  * </pre>
+ *<p>
+ * A non-blocking variant, {@link com.appearnetworks.aiq.integrationframework.server.AsyncIntegrationService},
+ * is provided alongside it, as well as {@link com.appearnetworks.aiq.integrationframework.server.UserDirectory},
+ * an in-memory replica of the users for fast lookups.
  *
  * @see com.appearnetworks.aiq.integrationframework.server.IntegrationService
  */
@@ -0,0 +1,122 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.BackendMessage;
+import com.appearnetworks.aiq.integrationframework.server.ClientSession;
+import com.appearnetworks.aiq.integrationframework.server.IntegrationService;
+import com.appearnetworks.aiq.integrationframework.server.ServerException;
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import com.appearnetworks.aiq.integrationframework.server.UnauthorizedException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class AsyncIntegrationServiceImplTest {
+    private IntegrationService integrationService;
+    private AsyncIntegrationServiceImpl service;
+
+    @Before
+    public void setUp() {
+        integrationService = mock(IntegrationService.class);
+        service = new AsyncIntegrationServiceImpl();
+        ReflectionTestUtils.setField(service, "integrationService", integrationService);
+        ReflectionTestUtils.setField(service, "threads", 1);
+        ReflectionTestUtils.setField(service, "queueCapacity", 1);
+        service.init();
+    }
+
+    @After
+    public void tearDown() {
+        service.destroy();
+    }
+
+    @Test
+    public void serverExceptionFailsFuture() throws Exception {
+        ServerException failure = new ServerException(URI.create("http://localhost/"), HttpStatus.BAD_REQUEST, "bad");
+        when(integrationService.fetchClientSessions()).thenThrow(failure);
+
+        assertSame(failure, awaitFailure(service.fetchClientSessions()));
+    }
+
+    @Test
+    public void unauthorizedExceptionFailsFuture() throws Exception {
+        when(integrationService.terminateClientSession("s1")).thenThrow(new UnauthorizedException());
+
+        assertTrue(awaitFailure(service.terminateClientSession("s1")) instanceof UnauthorizedException);
+    }
+
+    @Test
+    public void fullQueueIsRejected() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        when(integrationService.fetchClientSession("s1")).thenAnswer(new Answer<ClientSession>() {
+            @Override
+            public ClientSession answer(InvocationOnMock invocation) throws InterruptedException {
+                release.await();
+                return null;
+            }
+        });
+
+        ListenableFuture<ClientSession> running = service.fetchClientSession("s1");
+        ListenableFuture<ClientSession> queued = service.fetchClientSession("s1");
+        Throwable rejected = awaitFailure(service.fetchClientSession("s1"));
+        release.countDown();
+
+        assertTrue(rejected instanceof ServerUnavailableException);
+        assertNull(running.get(5, TimeUnit.SECONDS));
+        assertNull(queued.get(5, TimeUnit.SECONDS));
+        verify(integrationService, times(2)).fetchClientSession("s1");
+    }
+
+    @Test
+    public void enqueuesBackendMessage() throws Exception {
+        BackendMessage message = new BackendMessage("test", null, 60, false, null, new ObjectMapper().createObjectNode(), null);
+
+        assertNull(service.enqueueBackendMessage(message).get(5, TimeUnit.SECONDS));
+        verify(integrationService).enqueueBackendMessage(message);
+    }
+
+    /**
+     * @return the failure passed to the callbacks of {@code future}, after checking that {@code get} throws it too
+     */
+    private static Throwable awaitFailure(ListenableFuture<?> future) throws InterruptedException {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        future.addCallback(new ListenableFutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                failure.set(t);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotNull(failure.get());
+
+        try {
+            future.get();
+            fail("Expected failure");
+        } catch (ExecutionException e) {
+            assertSame(failure.get(), e.getCause());
+        }
+        return failure.get();
+    }
+}
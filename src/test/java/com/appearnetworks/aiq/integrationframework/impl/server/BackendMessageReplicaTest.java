@@ -0,0 +1,145 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.BackendMessage;
+import com.appearnetworks.aiq.integrationframework.server.BackendMessageReadReport;
+import com.appearnetworks.aiq.integrationframework.server.BackendMessageUpdate;
+import com.appearnetworks.aiq.integrationframework.server.EnrichedBackendMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BackendMessageReplicaTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final AtomicInteger listRequests = new AtomicInteger();
+    private final AtomicInteger ids = new AtomicInteger();
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        server.handle("backendmessages", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                String method = exchange.getRequestMethod();
+                if ("GET".equals(method) && path.endsWith("/backendmessages")) {
+                    listRequests.incrementAndGet();
+                    long created = System.currentTimeMillis();
+                    StubServer.respond(exchange, 200, "["
+                            + "{\"_id\":\"a\",\"type\":\"alert\",\"_launchable\":\"app1\",\"timeToLive\":3600,\"created\":" + created + ",\"payload\":{}},"
+                            + "{\"_id\":\"b\",\"type\":\"news\",\"_launchable\":\"app2\",\"timeToLive\":60,\"created\":" + created + ",\"payload\":{}},"
+                            + "{\"_id\":\"c\",\"type\":\"alert\",\"timeToLive\":10,\"created\":" + (created - 20000) + ",\"payload\":{}}"
+                            + "]");
+                } else if ("POST".equals(method) && path.endsWith("/backendmessages")) {
+                    StubServer.readBody(exchange);
+                    StubServer.respond(exchange, 201, "{\"_id\":\"new" + ids.incrementAndGet() + "\"}");
+                } else {
+                    StubServer.readBody(exchange);
+                    StubServer.respond(exchange, 204, null);
+                }
+            }
+        });
+        context = server.newContext(Collections.<String, Object>singletonMap("aiq.backendmessages.replica", "true"));
+        service = context.getBean(IntegrationServiceImpl.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Test
+    public void answersLookupsLocallyAfterFirstSync() {
+        List<EnrichedBackendMessage> alerts = service.fetchBackendMessages("alert", true);
+        service.fetchBackendMessages("news", false);
+        service.fetchBackendMessages(true);
+
+        assertEquals(1, listRequests.get());
+        assertEquals(1, alerts.size());
+        assertEquals("a", alerts.get(0).get_id());
+        assertEquals(2, service.fetchBackendMessages(true).size());
+
+        BackendMessageReplica replica = service.getBackendMessageReplica();
+        assertEquals("b", replica.getByLaunchable("app2").get(0).get_id());
+        assertEquals(1, replica.getExpiringBefore(System.currentTimeMillis() + 120000).size());
+        assertEquals(1, replica.getSyncCount());
+    }
+
+    @Test
+    public void returnsCopies() {
+        EnrichedBackendMessage alert = service.fetchBackendMessages("alert", true).get(0);
+        alert.getPayload().put("text", "changed");
+
+        EnrichedBackendMessage again = service.fetchBackendMessages("alert", true).get(0);
+        assertNotSame(alert, again);
+        assertFalse(again.getPayload().has("text"));
+        assertEquals("a", again.get_id());
+        assertEquals("app1", again.get_launchable());
+        assertEquals(3600, again.getTimeToLive());
+        assertEquals(service.getBackendMessageReplica().get("a").getCreated(), again.getCreated());
+        assertNull(service.fetchBackendMessages("alert", false).get(0).getPayload());
+    }
+
+    @Test
+    public void followsChangesMadeThroughService() {
+        service.syncBackendMessageReplica();
+
+        String id = service.createBackendMessage(new BackendMessage("alert", null, 600, false, "app2",
+                mapper.createObjectNode(), null));
+        assertEquals(2, service.fetchBackendMessages("alert", true).size());
+        assertEquals(2, service.getBackendMessageReplica().getByLaunchable("app2").size());
+        assertTrue(service.getBackendMessageReplica().get(id).getURL().getPath().endsWith("/backendmessages/" + id));
+
+        service.updateBackendMessage("a", new BackendMessageUpdate(0, mapper.createObjectNode().put("text", "updated"), null));
+        assertEquals("updated", service.getBackendMessageReplica().get("a").getPayload().get("text").textValue());
+        assertEquals(3600, service.getBackendMessageReplica().get("a").getTimeToLive());
+
+        service.deleteBackendMessage("b");
+        assertTrue(service.fetchBackendMessages("news", true).isEmpty());
+        assertEquals(1, listRequests.get());
+    }
+
+    @Test
+    public void syncKeepsLocalChangesMadeDuringDownload() {
+        BackendMessageReplica replica = new BackendMessageReplica();
+        replica.reconcile(Arrays.asList(message("a", "alert"), message("b", "alert")), replica.beginSync());
+
+        long since = replica.beginSync();
+        replica.put(message("c", "alert"));
+        replica.remove("a");
+        replica.reconcile(Arrays.asList(message("a", "alert"), message("b", "news")), since);
+
+        assertNull(replica.get("a"));
+        assertNotNull(replica.get("c"));
+        assertEquals(1, replica.getByType("alert").size());
+        assertEquals("b", replica.getByType("news").get(0).get_id());
+
+        replica.reconcile(Collections.singletonList(message("a", "alert")), replica.beginSync());
+        assertNotNull(replica.get("a"));
+        assertNull(replica.get("c"));
+        assertEquals(1, replica.size());
+    }
+
+    private EnrichedBackendMessage message(String id, String type) {
+        return new EnrichedBackendMessage(type, null, 3600, false, null, mapper.createObjectNode(), null, id,
+                new Date().getTime(), null, Collections.<BackendMessageReadReport>emptyList());
+    }
+}
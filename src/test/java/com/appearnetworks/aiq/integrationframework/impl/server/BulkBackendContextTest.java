@@ -0,0 +1,125 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.BackendContextUpdate;
+import com.appearnetworks.aiq.integrationframework.server.BackendContextUpdatesResult;
+import com.appearnetworks.aiq.integrationframework.server.ServerException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BulkBackendContextTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        server.handle("backendcontext", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int now = concurrent.incrementAndGet();
+                while (true) {
+                    int max = maxConcurrent.get();
+                    if (now <= max || maxConcurrent.compareAndSet(max, now)) break;
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                String body = StubServer.readBody(exchange);
+                concurrent.decrementAndGet();
+                String query = exchange.getRequestURI().getQuery();
+                if (query.contains("userId=missing")) {
+                    StubServer.respond(exchange, 404, "{}");
+                } else if (query.contains("userId=fail")) {
+                    StubServer.respond(exchange, 400, "{}");
+                } else {
+                    received.add(exchange.getRequestMethod() + " " + query + " " + body);
+                    StubServer.respond(exchange, 204, null);
+                }
+            }
+        });
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.bulk.parallelism", "2");
+        context = server.newContext(properties);
+        service = context.getBean(IntegrationServiceImpl.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Test
+    public void updatesAllSessionsWithBoundedParallelism() {
+        List<BackendContextUpdate> updates = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            updates.add(new BackendContextUpdate("u" + i, "d" + i, "location", mapper.createObjectNode().put("i", i)));
+        }
+
+        BackendContextUpdatesResult result = service.updateBackendContexts(updates);
+
+        assertTrue(result.isSuccess());
+        assertEquals(10, result.getResults().size());
+        assertEquals(10, received.size());
+        for (int i = 0; i < 10; i++) {
+            assertSame(updates.get(i), result.getResults().get(i).getUpdate());
+            assertTrue(result.getResults().get(i).isFound());
+        }
+        assertTrue(received.contains("PUT userId=u3&deviceId=d3&provider=location {\"i\":3}"));
+        assertTrue(maxConcurrent.get() <= 2);
+    }
+
+    @Test
+    public void removesContextWithoutData() {
+        BackendContextUpdatesResult result = service.updateBackendContexts(Collections.singletonList(
+                BackendContextUpdate.removal("u1", "d1", "location")));
+
+        assertTrue(result.isSuccess());
+        assertTrue(result.getResults().get(0).isFound());
+        assertEquals(1, received.size());
+        assertTrue(received.get(0), received.get(0).startsWith("DELETE userId=u1&deviceId=d1&provider=location"));
+    }
+
+    @Test
+    public void reportsOutcomePerUpdate() {
+        BackendContextUpdatesResult result = service.updateBackendContexts(Arrays.asList(
+                new BackendContextUpdate("u1", "d1", "location", mapper.createObjectNode()),
+                new BackendContextUpdate("missing", "d2", "location", mapper.createObjectNode()),
+                new BackendContextUpdate("fail", "d3", "location", mapper.createObjectNode())));
+
+        assertFalse(result.isSuccess());
+        assertTrue(result.getResults().get(0).isFound());
+        assertTrue(result.getResults().get(1).isSuccess());
+        assertFalse(result.getResults().get(1).isFound());
+        assertFalse(result.getResults().get(2).isSuccess());
+        assertEquals(1, result.getFailedUpdates().size());
+        BackendContextUpdatesResult.UpdateResult failed = result.getFailedUpdates().get(0);
+        assertEquals("fail", failed.getUpdate().getUserId());
+        assertTrue(String.valueOf(failed.getCause()), failed.getCause() instanceof ServerException);
+    }
+}
@@ -0,0 +1,137 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.BackendMessage;
+import com.appearnetworks.aiq.integrationframework.server.BackendMessageRecipients;
+import com.appearnetworks.aiq.integrationframework.server.BackendMessagesResult;
+import com.appearnetworks.aiq.integrationframework.server.ServerException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BulkBackendMessagesTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<JsonNode> received = Collections.synchronizedList(new ArrayList<JsonNode>());
+    private final AtomicInteger ids = new AtomicInteger();
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        server.handle("backendmessages", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int now = concurrent.incrementAndGet();
+                while (true) {
+                    int max = maxConcurrent.get();
+                    if (now <= max || maxConcurrent.compareAndSet(max, now)) break;
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                JsonNode request = mapper.readTree(StubServer.readBody(exchange));
+                concurrent.decrementAndGet();
+                if ("fail".equals(request.get("type").textValue())) {
+                    StubServer.respond(exchange, 400, "{}");
+                } else {
+                    received.add(request);
+                    StubServer.respond(exchange, 201, "{\"_id\":\"m" + ids.incrementAndGet() + "\"}");
+                }
+            }
+        });
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.backendmessages.recipientChunkSize", "3");
+        properties.put("aiq.bulk.parallelism", "2");
+        context = server.newContext(properties);
+        service = context.getBean(IntegrationServiceImpl.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Test
+    public void createsAllMessagesWithBoundedParallelism() {
+        List<BackendMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            messages.add(message("greeting", "u" + i));
+        }
+
+        BackendMessagesResult result = service.createBackendMessages(messages);
+
+        assertTrue(result.isSuccess());
+        assertEquals(10, result.getResults().size());
+        assertEquals(10, received.size());
+        for (int i = 0; i < 10; i++) {
+            assertSame(messages.get(i), result.getResults().get(i).getMessage());
+            assertEquals(1, result.getResults().get(i).getIds().size());
+        }
+        assertTrue(maxConcurrent.get() <= 2);
+    }
+
+    @Test
+    public void splitsLargeRecipientLists() {
+        BackendMessagesResult result = service.createBackendMessages(Collections.singletonList(
+                message("greeting", "u1", "u2", "u3", "u4", "u5", "u6", "u7")));
+
+        assertTrue(result.isSuccess());
+        assertEquals(3, result.getResults().get(0).getIds().size());
+        assertEquals(3, received.size());
+        List<String> recipients = new ArrayList<>();
+        for (JsonNode request : received) {
+            assertTrue(request.get("recipients").get("users").size() <= 3);
+            assertEquals("greeting", request.get("type").textValue());
+            for (JsonNode user : request.get("recipients").get("users")) {
+                recipients.add(user.textValue());
+            }
+        }
+        Collections.sort(recipients);
+        assertEquals(Arrays.asList("u1", "u2", "u3", "u4", "u5", "u6", "u7"), recipients);
+    }
+
+    @Test
+    public void reportsFailuresPerMessage() {
+        BackendMessagesResult result = service.createBackendMessages(Arrays.asList(
+                message("greeting", "u1"), message("fail", "u2"), message("greeting", "u3")));
+
+        assertFalse(result.isSuccess());
+        assertTrue(result.getResults().get(0).isSuccess());
+        assertFalse(result.getResults().get(1).isSuccess());
+        assertTrue(result.getResults().get(2).isSuccess());
+        assertEquals(1, result.getFailedMessages().size());
+        BackendMessagesResult.FailedMessage failed = result.getFailedMessages().get(0);
+        assertEquals("fail", failed.getMessage().getType());
+        assertTrue(String.valueOf(failed.getCause()), failed.getCause() instanceof ServerException);
+        assertEquals(2, received.size());
+    }
+
+    private BackendMessage message(String type, String... users) {
+        return new BackendMessage(type, null, 3600, false, null, mapper.createObjectNode().put("text", "hello"),
+                new BackendMessageRecipients(Arrays.asList(users)), null);
+    }
+}
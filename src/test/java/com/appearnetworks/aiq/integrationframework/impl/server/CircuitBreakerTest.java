@@ -0,0 +1,183 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+    private final CircuitBreaker breaker = new CircuitBreaker("test", 50, 4, 10, 100, 2);
+
+    @Test
+    public void opensOnFailureRate() {
+        record(true, true, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        record(false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getOpenedCount());
+
+        try {
+            breaker.acquire();
+            fail("Expected ServerUnavailableException");
+        } catch (ServerUnavailableException e) {
+            assertEquals(1, breaker.getRejectedCount());
+        }
+    }
+
+    @Test
+    public void staysClosedBelowMinimumCalls() {
+        record(false, false, false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void closesAfterSuccessfulProbes() throws Exception {
+        record(false, false, false, false);
+        Thread.sleep(150);
+
+        boolean probe1 = breaker.acquire();
+        boolean probe2 = breaker.acquire();
+        assertTrue(probe1 && probe2);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        try {
+            breaker.acquire();
+            fail("Only two probes expected");
+        } catch (ServerUnavailableException expected) {
+        }
+
+        breaker.record(true, true);
+        breaker.record(true, true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getHalfOpenedCount());
+        assertEquals(1, breaker.getClosedCount());
+    }
+
+    @Test
+    public void reopensOnFailedProbe() throws Exception {
+        record(false, false, false, false);
+        Thread.sleep(150);
+
+        breaker.record(breaker.acquire(), false);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpenedCount());
+    }
+
+    @Test
+    public void releasedProbeCanBeTakenAgain() throws Exception {
+        record(false, false, false, false);
+        Thread.sleep(150);
+
+        breaker.acquire();
+        breaker.release(breaker.acquire());
+        assertTrue(breaker.acquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void ignoresCallsRejectedByLimiter() throws Exception {
+        StubServer server = new StubServer();
+        server.handle("users", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                StubServer.respond(exchange, 200, "[]");
+            }
+        });
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.circuitbreaker.enabled", "true");
+        properties.put("aiq.circuitbreaker.minimumCalls", "3");
+        properties.put("aiq.limiter.enabled", "true");
+        properties.put("aiq.limiter.initialLimit", "1");
+        properties.put("aiq.limiter.maxLimit", "1");
+        properties.put("aiq.limiter.maxQueued", "0");
+        AnnotationConfigApplicationContext context = server.newContext(properties);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final IntegrationServiceImpl service = context.getBean(IntegrationServiceImpl.class);
+            service.fetchUsers();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return service.fetchUsers();
+                    }
+                }));
+            }
+            int rejected = 0;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof ServerUnavailableException);
+                    rejected++;
+                }
+            }
+
+            assertTrue(rejected >= 3);
+            assertEquals(CircuitBreaker.State.CLOSED, service.getCircuitBreakers().get("users").getState());
+        } finally {
+            executor.shutdownNow();
+            context.close();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void failsFastWhileServerIsDown() throws IOException {
+        StubServer server = new StubServer();
+        server.handle("users", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                StubServer.respond(exchange, 503, null);
+            }
+        });
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.circuitbreaker.enabled", "true");
+        properties.put("aiq.circuitbreaker.minimumCalls", "3");
+        AnnotationConfigApplicationContext context = server.newContext(properties);
+        try {
+            IntegrationServiceImpl service = context.getBean(IntegrationServiceImpl.class);
+            for (int i = 0; i < 10; i++) {
+                try {
+                    service.fetchUsers();
+                    fail("Expected ServerUnavailableException");
+                } catch (ServerUnavailableException expected) {
+                }
+            }
+
+            assertEquals(3, server.getRequestCount("/api/integration/users"));
+            CircuitBreaker usersBreaker = service.getCircuitBreakers().get("users");
+            assertEquals(CircuitBreaker.State.OPEN, usersBreaker.getState());
+            assertEquals(7, usersBreaker.getRejectedCount());
+        } finally {
+            context.close();
+            server.stop();
+        }
+    }
+
+    private void record(boolean... outcomes) {
+        for (boolean success : outcomes) {
+            breaker.record(breaker.acquire(), success);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyLimiterTest {
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void growsWhileLatencyIsStable() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 4, 0, 0);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.acquire();
+            limiter.acquire();
+            limiter.release(LATENCY, ConcurrencyLimiter.Outcome.SUCCESS);
+            limiter.release(LATENCY, ConcurrencyLimiter.Outcome.SUCCESS);
+        }
+
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void shrinksOnDrops() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 2, 10, 0, 0);
+
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire();
+            limiter.release(LATENCY, ConcurrencyLimiter.Outcome.DROPPED);
+        }
+        assertEquals(7, limiter.getLimit());
+        assertEquals(3, limiter.getDroppedCount());
+
+        for (int i = 0; i < 50; i++) {
+            limiter.acquire();
+            limiter.release(LATENCY, ConcurrencyLimiter.Outcome.DROPPED);
+        }
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void shrinksOnLatencyIncrease() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 10, 0, 0);
+
+        limiter.acquire();
+        limiter.release(LATENCY, ConcurrencyLimiter.Outcome.SUCCESS);
+        limiter.acquire();
+        limiter.release(LATENCY * 5, ConcurrencyLimiter.Outcome.SUCCESS);
+
+        assertEquals(9, limiter.getLimit());
+        assertEquals(0, limiter.getDroppedCount());
+    }
+
+    @Test
+    public void ignoredOutcomeKeepsLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(3, 1, 10, 0, 0);
+
+        limiter.acquire();
+        limiter.release(LATENCY * 100, ConcurrencyLimiter.Outcome.IGNORED);
+
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void rejectsWhenQueueIsFull() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 0, 1000);
+        limiter.acquire();
+
+        try {
+            limiter.acquire();
+            fail("Expected ServerUnavailableException");
+        } catch (ServerUnavailableException e) {
+            assertEquals(1, limiter.getRejectedCount());
+        }
+    }
+
+    @Test
+    public void rejectsAfterMaxWait() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 10, 50);
+        limiter.acquire();
+
+        long started = System.currentTimeMillis();
+        try {
+            limiter.acquire();
+            fail("Expected ServerUnavailableException");
+        } catch (ServerUnavailableException e) {
+            assertTrue(System.currentTimeMillis() - started >= 50);
+            assertEquals(1, limiter.getRejectedCount());
+            assertEquals(0, limiter.getQueued());
+        }
+    }
+
+    @Test
+    public void queuedCallerProceedsOnRelease() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 10, 5000);
+        limiter.acquire();
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final AtomicBoolean failed = new AtomicBoolean();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    limiter.acquire();
+                    acquired.countDown();
+                } catch (ServerUnavailableException e) {
+                    failed.set(true);
+                }
+            }
+        });
+        waiter.start();
+
+        while (limiter.getQueued() == 0) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, acquired.getCount());
+
+        limiter.release(LATENCY, ConcurrencyLimiter.Outcome.SUCCESS);
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        assertFalse(failed.get());
+        assertEquals(1, limiter.getInFlight());
+    }
+}
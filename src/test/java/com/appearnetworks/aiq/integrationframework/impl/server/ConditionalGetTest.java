@@ -0,0 +1,128 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.User;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConditionalGetTest {
+    private static final int USERS = 500;
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+
+    private final List<String> validators = Collections.synchronizedList(new ArrayList<String>());
+    private volatile String version = "\"v1\"";
+    private volatile String body;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        context = server.newContext(Collections.<String, Object>singletonMap("aiq.conditionalget.cacheSize", "10"));
+        service = context.getBean(IntegrationServiceImpl.class);
+
+        body = users("alice");
+        server.handle("users", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                validators.add(ifNoneMatch);
+                exchange.getResponseHeaders().set("ETag", version);
+                if (version.equals(ifNoneMatch))
+                    StubServer.respond(exchange, 304, null);
+                else
+                    StubServer.respond(exchange, 200, body);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Test
+    public void reusesResponseWhenNotModified() {
+        List<User> first = service.fetchUsers();
+        List<User> second = service.fetchUsers();
+
+        assertEquals(USERS, second.size());
+        assertEquals("alice0", second.get(0).getUsername());
+        assertSame(first.get(0), second.get(0));
+        assertEquals(null, validators.get(0));
+        assertEquals("\"v1\"", validators.get(1));
+
+        ConditionalGetCache cache = service.getConditionalGetCache();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(body.getBytes(StubServer.UTF8).length, cache.getSavedBytes());
+        assertTrue(cache.getSavedDecodeNanos() > 0);
+    }
+
+    @Test
+    public void downloadsAgainWhenModified() {
+        service.fetchUsers();
+
+        version = "\"v2\"";
+        body = users("bob");
+        List<User> users = service.fetchUsers();
+
+        assertEquals("bob0", users.get(0).getUsername());
+        assertEquals(0, service.getConditionalGetCache().getHitCount());
+
+        assertEquals("bob0", service.fetchUsers().get(0).getUsername());
+        assertEquals(1, service.getConditionalGetCache().getHitCount());
+    }
+
+    @Test
+    public void callersCannotChangeCachedList() {
+        List<User> first = service.fetchUsers();
+        first.set(0, null);
+
+        assertNotNull(service.fetchUsers().get(0));
+    }
+
+    @Test
+    public void revalidatesWithLastModified() {
+        final List<String> ifModifiedSince = new ArrayList<>();
+        server.handle("clientsessions", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String since = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+                ifModifiedSince.add(since);
+                exchange.getResponseHeaders().set("Last-Modified", "Sat, 17 Oct 2026 10:00:00 GMT");
+                if (since != null)
+                    StubServer.respond(exchange, 304, null);
+                else
+                    StubServer.respond(exchange, 200, "[{\"_id\":\"s1\",\"deviceId\":\"d1\"}]");
+            }
+        });
+
+        service.fetchClientSessions();
+        assertEquals("s1", service.fetchClientSessions().get(0).get_id());
+        assertEquals(Collections.singletonList("Sat, 17 Oct 2026 10:00:00 GMT"), ifModifiedSince.subList(1, 2));
+    }
+
+    private static String users(String prefix) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < USERS; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"_id\":\"u").append(i).append("\",\"username\":\"").append(prefix).append(i)
+                    .append("\",\"roles\":[\"user\"],\"profile\":{\"site\":\"A\",\"email\":\"").append(prefix).append(i)
+                    .append("@example.com\"}}");
+        }
+        return json.append(']').toString();
+    }
+}
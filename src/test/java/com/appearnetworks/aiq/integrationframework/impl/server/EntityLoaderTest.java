@@ -0,0 +1,315 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.EnrichedBackendMessage;
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EntityLoaderTest {
+    private static final int THREADS = 20;
+
+    private ExecutorService executor;
+    private FakeSource source;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(THREADS);
+        source = new FakeSource();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentLoadsOfSameIdShareOneRequest() throws Exception {
+        source.delay = 200;
+        EntityLoader<String> loader = new EntityLoader<>(source, 0, 0, 10, 100);
+
+        List<String> values = loadConcurrently(loader, 1);
+
+        assertEquals(1, source.fetches.get());
+        assertEquals(THREADS - 1, loader.getJoinedCount());
+        for (String value : values) {
+            assertEquals("value-0", value);
+        }
+    }
+
+    @Test
+    public void loadsOfDifferentIdsAreBatched() throws Exception {
+        EntityLoader<String> loader = new EntityLoader<>(source, 0, 100, 10, 100);
+
+        List<String> values = loadConcurrently(loader, THREADS);
+
+        assertEquals(1, source.fetchAlls.get());
+        assertEquals(0, source.fetches.get());
+        assertEquals(1, loader.getBatchCount());
+        for (int i = 0; i < THREADS; i++) {
+            assertEquals("value-" + i, values.get(i));
+        }
+    }
+
+    @Test
+    public void smallBatchesAreLoadedOneByOne() {
+        EntityLoader<String> loader = new EntityLoader<>(source, 0, 10, 10, 100);
+
+        assertEquals("value-1", loader.load("id-1"));
+        assertEquals(0, source.fetchAlls.get());
+        assertEquals(1, source.fetches.get());
+    }
+
+    @Test
+    public void missingEntityInBatchIsNull() throws Exception {
+        EntityLoader<String> loader = new EntityLoader<>(source, 0, 100, 2, 100);
+
+        Future<String> missing = executor.submit(load(loader, "unknown"));
+        Future<String> existing = executor.submit(load(loader, "id-3"));
+
+        assertNull(missing.get());
+        assertEquals("value-3", existing.get());
+        assertEquals(1, source.fetchAlls.get());
+    }
+
+    @Test
+    public void batchFailureIsThrownToAll() throws Exception {
+        source.fail = true;
+        EntityLoader<String> loader = new EntityLoader<>(source, 0, 100, 2, 100);
+
+        Future<String> first = executor.submit(load(loader, "id-1"));
+        Future<String> second = executor.submit(load(loader, "id-2"));
+
+        assertFailed(first);
+        assertFailed(second);
+    }
+
+    @Test
+    public void cachesUntilTtlOrInvalidated() throws Exception {
+        EntityLoader<String> loader = new EntityLoader<>(source, 200, 0, 10, 100);
+
+        loader.load("id-1");
+        loader.load("id-1");
+        assertEquals(1, source.fetches.get());
+        assertEquals(1, loader.getCacheHitCount());
+
+        loader.invalidate("id-1");
+        loader.load("id-1");
+        assertEquals(2, source.fetches.get());
+
+        Thread.sleep(250);
+        loader.load("id-1");
+        assertEquals(3, source.fetches.get());
+    }
+
+    @Test
+    public void loadStartedBeforeInvalidationIsNotCachedOrShared() throws Exception {
+        source.delay = 300;
+        EntityLoader<String> loader = new EntityLoader<>(source, 10000, 0, 10, 100);
+
+        Future<String> stale = executor.submit(load(loader, "id-1"));
+        Thread.sleep(100);
+        source.revision = "-changed";
+        loader.invalidate("id-1");
+
+        assertEquals("value-1-changed", loader.load("id-1"));
+        assertEquals("value-1", stale.get());
+        assertEquals("value-1-changed", loader.load("id-1"));
+        assertEquals(2, source.fetches.get());
+        assertEquals(0, loader.getJoinedCount());
+    }
+
+    @Test
+    public void batchFillsCacheWithAllEntities() throws Exception {
+        EntityLoader<String> loader = new EntityLoader<>(source, 10000, 100, 2, 100);
+
+        Future<String> first = executor.submit(load(loader, "id-1"));
+        Future<String> second = executor.submit(load(loader, "id-2"));
+        first.get();
+        second.get();
+
+        assertEquals("value-7", loader.load("id-7"));
+        assertEquals(1, source.fetchAlls.get());
+        assertEquals(0, source.fetches.get());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        EntityLoader<String> loader = new EntityLoader<>(source, 10000, 0, 10, 2);
+
+        loader.load("id-1");
+        loader.load("id-2");
+        loader.load("id-1");
+        loader.load("id-3");
+        assertEquals(3, source.fetches.get());
+
+        loader.load("id-1");
+        loader.load("id-3");
+        assertEquals(3, source.fetches.get());
+        loader.load("id-2");
+        assertEquals(4, source.fetches.get());
+    }
+
+    @Test
+    public void loadsOneByOneWithoutFetchAll() throws Exception {
+        source.unbatched = true;
+        EntityLoader<String> loader = new EntityLoader<>(source, 0, 100, 2, 100);
+
+        Future<String> first = executor.submit(load(loader, "id-1"));
+        Future<String> second = executor.submit(load(loader, "id-2"));
+
+        assertEquals("value-1", first.get());
+        assertEquals("value-2", second.get());
+        assertEquals(2, source.fetches.get());
+        assertEquals(0, loader.getBatchCount());
+    }
+
+    @Test
+    public void backendMessagesAreNotBatched() throws Exception {
+        StubServer server = new StubServer();
+        server.handle("backendmessages", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (path.endsWith("/backendmessages")) {
+                    // the list has no read reports
+                    StubServer.respond(exchange, 200, "[{\"_id\":\"m1\",\"type\":\"news\",\"created\":1000},"
+                            + "{\"_id\":\"m2\",\"type\":\"news\",\"created\":1000}]");
+                } else {
+                    String id = path.substring(path.lastIndexOf('/') + 1);
+                    StubServer.respond(exchange, 200, "{\"_id\":\"" + id + "\",\"type\":\"news\",\"created\":1000,"
+                            + "\"readBy\":[{\"user\":{\"_id\":\"u1\",\"username\":\"user1\"},\"revision\":1,\"readTimestamp\":2000}]}");
+                }
+            }
+        });
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.loader.enabled", "true");
+        properties.put("aiq.loader.batchWindow", "100");
+        properties.put("aiq.loader.batchMinSize", "2");
+        AnnotationConfigApplicationContext context = server.newContext(properties);
+        try {
+            final IntegrationServiceImpl service = context.getBean(IntegrationServiceImpl.class);
+            List<Future<EnrichedBackendMessage>> futures = new ArrayList<>();
+            for (final String id : new String[]{"m1", "m2"}) {
+                futures.add(executor.submit(new Callable<EnrichedBackendMessage>() {
+                    @Override
+                    public EnrichedBackendMessage call() {
+                        return service.fetchBackendMessage(id);
+                    }
+                }));
+            }
+
+            for (Future<EnrichedBackendMessage> future : futures) {
+                EnrichedBackendMessage loaded = future.get();
+                EnrichedBackendMessage single = service.fetchBackendMessage(loaded.get_id());
+                assertEquals(single.getReadBy().size(), loaded.getReadBy().size());
+                assertEquals(1, loaded.getReadBy().size());
+            }
+            assertEquals(0, server.getRequestCount("/api/integration/backendmessages"));
+            assertEquals(0, service.getBackendMessageLoader().getBatchCount());
+        } finally {
+            context.close();
+            server.stop();
+        }
+    }
+
+    private List<String> loadConcurrently(EntityLoader<String> loader, int distinctIds) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final Callable<String> load = load(loader, "id-" + (i % distinctIds));
+            futures.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    start.await();
+                    return load.call();
+                }
+            }));
+        }
+        start.countDown();
+
+        List<String> values = new ArrayList<>();
+        for (Future<String> future : futures) {
+            values.add(future.get());
+        }
+        return values;
+    }
+
+    private static Callable<String> load(final EntityLoader<String> loader, final String id) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return loader.load(id);
+            }
+        };
+    }
+
+    private static void assertFailed(Future<String> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("Expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ServerUnavailableException);
+        }
+    }
+
+    private static class FakeSource implements EntityLoader.Source<String> {
+        final AtomicInteger fetches = new AtomicInteger();
+        final AtomicInteger fetchAlls = new AtomicInteger();
+        volatile long delay;
+        volatile boolean fail;
+        volatile boolean unbatched;
+        volatile String revision = "";
+
+        @Override
+        public String fetch(String id) {
+            fetches.incrementAndGet();
+            String value = "value-" + id.substring(3) + revision;
+            sleep();
+            return value;
+        }
+
+        @Override
+        public Map<String, String> fetchAll() {
+            fetchAlls.incrementAndGet();
+            sleep();
+            if (unbatched) {
+                return null;
+            }
+            if (fail) {
+                throw new ServerUnavailableException("Connection refused");
+            }
+            Map<String, String> all = new HashMap<>();
+            for (int i = 0; i < THREADS; i++) {
+                all.put("id-" + i, "value-" + i);
+            }
+            return all;
+        }
+
+        private void sleep() {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
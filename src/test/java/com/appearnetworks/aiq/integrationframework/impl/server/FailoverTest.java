@@ -0,0 +1,184 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import com.appearnetworks.aiq.integrationframework.server.User;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FailoverTest {
+    private static final String USERS = "/api/integration/users";
+
+    private StubServer first;
+    private StubServer second;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+
+    private volatile int firstStatus = 200;
+    private volatile long firstDelay;
+
+    @Before
+    public void setUp() throws IOException {
+        first = new StubServer();
+        second = new StubServer();
+        first.handle("users", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(firstDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                StubServer.respond(exchange, firstStatus, "[{\"_id\":\"1\",\"username\":\"first\"}]");
+            }
+        });
+        second.handle("users", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                StubServer.respond(exchange, 200, "[{\"_id\":\"2\",\"username\":\"second\"}]");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+        first.stop();
+        second.stop();
+    }
+
+    @Test
+    public void failsOverWhenServerIsDown() {
+        start(0);
+        service.fetchUsers();
+        service.fetchUsers();
+
+        first.stop();
+        long started = System.currentTimeMillis();
+        assertEquals("second", service.fetchUsers().get(0).getUsername());
+        // a refused connection fails over right away, without waiting for a retry
+        assertTrue(System.currentTimeMillis() - started < 1000);
+        for (int i = 0; i < 20; i++) {
+            assertEquals("second", service.fetchUsers().get(0).getUsername());
+        }
+
+        FailoverRouter router = service.getFailoverRouter();
+        assertFalse(router.getEndpoints().get(0).isHealthy());
+        assertTrue(router.getEndpoints().get(1).isHealthy());
+        assertTrue(router.getFailoverCount() <= 1);
+    }
+
+    @Test
+    public void rewritesAbsoluteLinksForOtherHosts() {
+        first.setLinkHost("127.0.0.1");
+        second.setAvailable(false);
+        start(0);
+        assertEquals("first", service.fetchUsers().get(0).getUsername());
+        assertEquals(1, first.getTokenCount());
+
+        second.setAvailable(true);
+        first.stop();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("second", service.fetchUsers().get(0).getUsername());
+        }
+    }
+
+    @Test
+    public void failsOverWhenServerIsUnavailable() {
+        start(0);
+        firstStatus = 503;
+
+        for (int i = 0; i < 10; i++) {
+            List<User> users = service.fetchUsers();
+            assertEquals("second", users.get(0).getUsername());
+        }
+
+        assertEquals(1, first.getRequestCount(USERS));
+        assertEquals(10, second.getRequestCount(USERS));
+        assertEquals(1, service.getFailoverRouter().getFailoverCount());
+    }
+
+    @Test
+    public void prefersFasterServer() {
+        // only the latest response counts, so the fast requests made while starting do not hide the delay
+        start(0, 1);
+        firstDelay = 500;
+
+        for (int i = 0; i < 20; i++) {
+            service.fetchUsers();
+        }
+        int slow = first.getRequestCount(USERS);
+        for (int i = 0; i < 10; i++) {
+            service.fetchUsers();
+        }
+
+        assertEquals(slow, first.getRequestCount(USERS));
+        assertTrue(second.getRequestCount(USERS) >= 25);
+        FailoverRouter router = service.getFailoverRouter();
+        assertTrue(router.getEndpoints().get(0).getLatencyMillis() > router.getEndpoints().get(1).getLatencyMillis());
+    }
+
+    @Test
+    public void probesUnavailableServerUntilItAnswers() throws InterruptedException {
+        first.setAvailable(false);
+        start(50);
+        service.fetchUsers();
+
+        FailoverRouter.Endpoint endpoint = service.getFailoverRouter().getEndpoints().get(0);
+        assertFalse(endpoint.isHealthy());
+
+        first.setAvailable(true);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!endpoint.isHealthy() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(endpoint.isHealthy());
+        assertTrue(service.getFailoverRouter().getProbeCount() >= 1);
+    }
+
+    @Test
+    public void allServersDownIsUnavailable() {
+        start(0);
+        firstStatus = 503;
+        second.handle("users", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                StubServer.respond(exchange, 503, "{}");
+            }
+        });
+
+        try {
+            service.fetchUsers();
+            fail("Expected failure");
+        } catch (ServerUnavailableException expected) {
+            // both tried
+        }
+        assertEquals(1, first.getRequestCount(USERS));
+        assertEquals(1, second.getRequestCount(USERS));
+    }
+
+    private void start(long probeInterval) {
+        start(probeInterval, 0.2);
+    }
+
+    private void start(long probeInterval, double smoothing) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.url", first.getUrl() + "," + second.getUrl());
+        properties.put("aiq.failover.probeInterval", String.valueOf(probeInterval));
+        properties.put("aiq.failover.smoothing", String.valueOf(smoothing));
+        context = first.newContext(properties);
+        service = context.getBean(IntegrationServiceImpl.class);
+    }
+}
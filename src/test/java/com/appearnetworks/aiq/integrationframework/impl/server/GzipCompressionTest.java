@@ -0,0 +1,153 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.User;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class GzipCompressionTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<String> contentEncodings = Collections.synchronizedList(new ArrayList<String>());
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+    private GzipCompression compression;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.http.compression.enabled", "true");
+        properties.put("aiq.http.compression.threshold", "100");
+        context = server.newContext(properties);
+        service = context.getBean(IntegrationServiceImpl.class);
+        compression = context.getBean(HttpTransport.class).getCompression();
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Test
+    public void compressesLargeRequestBodies() throws IOException {
+        final List<JsonNode> received = new ArrayList<>();
+        server.handle("newdataavailable", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                contentEncodings.add(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                received.add(mapper.readTree(new GZIPInputStream(exchange.getRequestBody())));
+                StubServer.respond(exchange, 202, null);
+            }
+        });
+
+        List<String> userIds = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            userIds.add("user" + i);
+        }
+        service.newDataAvailableForUsers(userIds);
+
+        assertEquals(Collections.singletonList("gzip"), contentEncodings);
+        assertEquals(1000, received.get(0).get("users").size());
+        assertEquals(mapper.writeValueAsBytes(received.get(0)).length, compression.getRequestBytes());
+        assertTrue(compression.getCompressedRequestBytes() > 0);
+        assertTrue(compression.getCompressedRequestBytes() < compression.getRequestBytes() / 4);
+    }
+
+    @Test
+    public void compressedRequestBodyCanBeRead() throws Exception {
+        StringBuilder json = new StringBuilder("{\"users\":[");
+        for (int i = 0; i < 100; i++) {
+            json.append(i == 0 ? "" : ",").append("\"user").append(i).append('"');
+        }
+        String body = json.append("]}").toString();
+        HttpPost request = new HttpPost("http://localhost/api/integration/newdataavailable");
+        request.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+
+        compression.requestInterceptor().process(request, new BasicHttpContext());
+
+        assertEquals("gzip", request.getEntity().getContentEncoding().getValue());
+        byte[] compressed = EntityUtils.toByteArray(request.getEntity());
+        assertEquals(body, StreamUtils.copyToString(new GZIPInputStream(new ByteArrayInputStream(compressed)), StubServer.UTF8));
+        assertEquals(0, compression.getRequestBytes());
+    }
+
+    @Test
+    public void sendsSmallRequestBodiesAsTheyAre() throws IOException {
+        server.handle("backendcontext", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                contentEncodings.add(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+                StubServer.readBody(exchange);
+                StubServer.respond(exchange, 204, null);
+            }
+        });
+
+        service.updateBackendContext("u1", "d1", "com.example", mapper.createObjectNode().put("foo", "bar"));
+
+        assertEquals(Collections.<String>singletonList(null), contentEncodings);
+        assertEquals(0, compression.getRequestBytes());
+    }
+
+    @Test
+    public void decompressesResponses() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"_id\":\"u").append(i).append("\",\"username\":\"user").append(i).append("\"}");
+        }
+        final byte[] body = json.append("]").toString().getBytes(StubServer.UTF8);
+
+        server.handle("users", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                assertEquals("gzip", exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (OutputStream out = new GZIPOutputStream(compressed)) {
+                    out.write(body);
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, compressed.size());
+                try (OutputStream out = exchange.getResponseBody()) {
+                    StreamUtils.copy(compressed.toByteArray(), out);
+                }
+            }
+        });
+
+        List<User> users = service.fetchUsers();
+
+        assertEquals(100, users.size());
+        assertEquals("user99", users.get(99).getUsername());
+        assertEquals(body.length, compression.getResponseBytes());
+        assertTrue(compression.getCompressedResponseBytes() > 0);
+        assertTrue(compression.getCompressedResponseBytes() < body.length);
+    }
+}
@@ -0,0 +1,195 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HedgerTest {
+    private static final URI URL = URI.create("http://localhost/api/integration/users/1");
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void noHedgeUntilEnoughLatenciesSeen() {
+        Hedger hedger = new Hedger(executor, 100, 95, 1.0, 20);
+        assertEquals(-1, hedger.getDelay());
+
+        warmUp(hedger);
+
+        assertEquals(20, hedger.getDelay());
+        assertEquals(0, hedger.getHedgedCount());
+    }
+
+    @Test
+    public void slowRequestIsHedged() {
+        Hedger hedger = new Hedger(executor, 100, 95, 1.0, 20);
+        warmUp(hedger);
+
+        long started = System.currentTimeMillis();
+        String result = hedger.call(URL, new Attempts(new Attempt(2000, "slow"), new Attempt(0, "fast")));
+
+        assertEquals("fast", result);
+        assertTrue(System.currentTimeMillis() - started < 1000);
+        assertEquals(1, hedger.getHedgedCount());
+        assertEquals(1, hedger.getHedgeWinCount());
+    }
+
+    @Test
+    public void hedgeAnswersWhenRequestFails() {
+        Hedger hedger = new Hedger(executor, 100, 95, 1.0, 20);
+        warmUp(hedger);
+
+        String result = hedger.call(URL, new Attempts(new Attempt(100, null), new Attempt(300, "hedge")));
+
+        assertEquals("hedge", result);
+        assertEquals(1, hedger.getHedgeWinCount());
+    }
+
+    @Test
+    public void hedgesAreLimitedByBudget() {
+        Hedger hedger = new Hedger(executor, 100, 95, 0.0, 20);
+        warmUp(hedger);
+
+        String result = hedger.call(URL, new Attempts(new Attempt(200, "slow"), new Attempt(0, "fast")));
+
+        assertEquals("slow", result);
+        assertEquals(0, hedger.getHedgedCount());
+        assertEquals(1, hedger.getThrottledCount());
+    }
+
+    @Test
+    public void unhedgeableRequestsRunOnCallingThread() {
+        Hedger hedger = new Hedger(executor, 100, 95, 0.0, 20);
+        Attempts attempts = new Attempts(new Attempt(0, "first"));
+
+        assertEquals("first", hedger.call(URL, attempts));
+        assertSame(Thread.currentThread(), attempts.threads[0]);
+
+        warmUp(hedger);
+        attempts = new Attempts(new Attempt(0, "warm"));
+        hedger.call(URL, attempts);
+        assertSame(Thread.currentThread(), attempts.threads[0]);
+    }
+
+    @Test
+    public void noHedgeWhenNoThreadIsFree() {
+        executor.shutdownNow();
+        executor = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        Hedger hedger = new Hedger(executor, 100, 95, 1.0, 20);
+        warmUp(hedger);
+
+        String result = hedger.call(URL, new Attempts(new Attempt(200, "slow"), new Attempt(0, "fast")));
+
+        assertEquals("slow", result);
+        assertEquals(0, hedger.getHedgedCount());
+        assertEquals(1, hedger.getThrottledCount());
+    }
+
+    @Test
+    public void hedgeTakesLimiterPermit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 2, 2, 0, 0);
+        limiter.acquire(); // taken by the request being hedged
+        Hedger hedger = new Hedger(executor, limiter, 100, 95, 1.0, 20);
+        warmUp(hedger);
+
+        String result = hedger.call(URL, new Attempts(new Attempt(2000, "slow"), new Attempt(0, "fast")));
+
+        assertEquals("fast", result);
+        assertEquals(1, hedger.getHedgedCount());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void noHedgeWhenNoLimiterPermitIsFree() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 0, 0);
+        limiter.acquire();
+        Hedger hedger = new Hedger(executor, limiter, 100, 95, 1.0, 20);
+        warmUp(hedger);
+
+        String result = hedger.call(URL, new Attempts(new Attempt(200, "slow"), new Attempt(0, "fast")));
+
+        assertEquals("slow", result);
+        assertEquals(0, hedger.getHedgedCount());
+        assertEquals(1, hedger.getThrottledCount());
+        assertEquals(1, limiter.getInFlight());
+        assertEquals(0, limiter.getRejectedCount());
+    }
+
+    @Test(expected = ServerUnavailableException.class)
+    public void failsWhenAllRequestsFail() {
+        Hedger hedger = new Hedger(executor, 100, 95, 1.0, 20);
+        warmUp(hedger);
+
+        hedger.call(URL, new Attempts(new Attempt(100, null), new Attempt(100, null)));
+    }
+
+    private static void warmUp(Hedger hedger) {
+        for (int i = 0; i < Hedger.MIN_SAMPLES; i++) {
+            hedger.call(URL, new Attempts(new Attempt(0, "warm")));
+        }
+    }
+
+    private static class Attempt {
+        final long delay;
+        final String result;
+
+        /**
+         * @param result {@code null} to fail
+         */
+        Attempt(long delay, String result) {
+            this.delay = delay;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Answers each request with the next attempt.
+     */
+    private static class Attempts implements IntegrationServiceImpl.ServerCall<String> {
+        private final Attempt[] attempts;
+        private final AtomicInteger next = new AtomicInteger();
+        final Thread[] threads;
+
+        Attempts(Attempt... attempts) {
+            this.attempts = attempts;
+            this.threads = new Thread[attempts.length];
+        }
+
+        @Override
+        public String call(URI url) {
+            int index = next.getAndIncrement();
+            threads[index] = Thread.currentThread();
+            Attempt attempt = attempts[index];
+            try {
+                Thread.sleep(attempt.delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (attempt.result == null) {
+                throw new ServerUnavailableException("Connection refused");
+            }
+            return attempt.result;
+        }
+    }
+}
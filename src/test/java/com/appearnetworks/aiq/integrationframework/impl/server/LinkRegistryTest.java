@@ -0,0 +1,90 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LinkRegistryTest {
+    private static final URI BASE = URI.create("http://localhost/api/");
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+
+    @After
+    public void tearDown() {
+        if (context != null) context.close();
+        if (server != null) server.stop();
+    }
+
+    @Test
+    public void resolvesLinksAgainstBaseURL() throws IOException {
+        LinkRegistry registry = LinkRegistry.EMPTY
+                .withRootLinks(BASE, new ObjectMapper().readTree("{\"token\":\"/api/token\"}"))
+                .withIntegrationLinks(BASE, new ObjectMapper().readTree("{\"users\":\"integration/users\"}"));
+
+        assertEquals(URI.create("http://localhost/api/token"), registry.getRootLink("token"));
+        assertEquals(URI.create("http://localhost/api/integration/users"), registry.getIntegrationLink("users"));
+        assertNull(registry.getIntegrationLink("token"));
+        assertNull(LinkRegistry.EMPTY.getRootLink("token"));
+    }
+
+    @Test
+    public void endpointFamilyPrefersLongestLink() throws IOException {
+        LinkRegistry registry = LinkRegistry.EMPTY.withIntegrationLinks(BASE, new ObjectMapper().readTree(
+                "{\"integration\":\"/api/integration\",\"users\":\"/api/integration/users\"}"));
+
+        assertEquals("users", registry.endpointFamily(URI.create("http://localhost/api/integration/users/42")));
+        assertEquals("users", registry.endpointFamily(URI.create("http://localhost/api/integration/users")));
+        assertEquals("integration", registry.endpointFamily(URI.create("http://localhost/api/integration/usersx")));
+        assertEquals("/other", registry.endpointFamily(URI.create("http://localhost/other")));
+    }
+
+    @Test
+    public void warmUpFetchesLinksAtStartup() throws Exception {
+        server = new StubServer();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.links.warmup", "true");
+        context = server.newContext(properties);
+        IntegrationServiceImpl service = context.getBean(IntegrationServiceImpl.class);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getLinkRegistry().getIntegrationLink("users") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertNotNull(service.getLinkRegistry().getRootLink("token"));
+        assertNotNull(service.getLinkRegistry().getIntegrationLink("users"));
+        assertEquals(1, server.getTokenCount());
+
+        service.fetchUserToken();
+        assertEquals(1, server.getTokenCount());
+        assertEquals(1, server.getRequestCount("/api/"));
+    }
+
+    @Test
+    public void refreshesRootMenuInBackground() throws Exception {
+        server = new StubServer();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.links.refreshInterval", "1");
+        context = server.newContext(properties);
+        IntegrationServiceImpl service = context.getBean(IntegrationServiceImpl.class);
+
+        service.fetchUserToken();
+        assertEquals(1, server.getRequestCount("/api/"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getRequestCount("/api/") < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(server.getRequestCount("/api/") >= 2);
+        assertEquals(1, server.getTokenCount());
+    }
+}
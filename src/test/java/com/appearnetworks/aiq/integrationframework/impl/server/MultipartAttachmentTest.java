@@ -0,0 +1,121 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.BackendMessage;
+import com.appearnetworks.aiq.integrationframework.server.MessageAttachment;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.http.MediaType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MultipartAttachmentTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+
+    private final List<String> contentTypes = new ArrayList<>();
+    private final List<String> contentLengths = new ArrayList<>();
+    private final List<String> bodies = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        context = server.newContext(Collections.<String, Object>emptyMap());
+        service = context.getBean(IntegrationServiceImpl.class);
+
+        server.handle("backendmessages", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                contentTypes.add(exchange.getRequestHeaders().getFirst("Content-Type"));
+                contentLengths.add(exchange.getRequestHeaders().getFirst("Content-Length"));
+                bodies.add(StubServer.readBody(exchange));
+                if ("Bearer token-1".equals(StubServer.authorization(exchange)))
+                    StubServer.respond(exchange, 401, null);
+                else
+                    StubServer.respond(exchange, 201, "{\"_id\":\"m1\"}");
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Test
+    public void streamsAttachments() throws IOException {
+        Path file = folder.newFile("report.pdf").toPath();
+        Files.write(file, "file contents".getBytes(StubServer.UTF8));
+        final AtomicInteger opened = new AtomicInteger();
+        InputStreamSource source = new InputStreamSource() {
+            @Override
+            public InputStream getInputStream() {
+                opened.incrementAndGet();
+                return new ByteArrayInputStream("stream contents".getBytes(StubServer.UTF8));
+            }
+        };
+
+        String id = service.createBackendMessage(newMessage(), Arrays.asList(
+                new MessageAttachment("report", MediaType.APPLICATION_OCTET_STREAM, file),
+                new MessageAttachment("log", MediaType.TEXT_PLAIN, source, 15),
+                new MessageAttachment("bytes", MediaType.IMAGE_PNG, new byte[]{'p', 'n', 'g'})));
+
+        assertEquals("m1", id);
+        assertEquals(2, bodies.size());
+        assertEquals(2, opened.get()); // read again for the retry after 401
+        assertEquals(bodies.get(0).replace(boundary(0), boundary(1)), bodies.get(1));
+
+        String body = bodies.get(1);
+        assertEquals(String.valueOf(body.getBytes(StubServer.UTF8).length), contentLengths.get(1));
+        assertTrue(contentTypes.get(1), contentTypes.get(1).startsWith("multipart/form-data;boundary="));
+        assertTrue(body, body.startsWith("--" + boundary(1) + "\r\n" +
+                "Content-Disposition: form-data; name=\"_message\"\r\n" +
+                "Content-Type: application/json;charset=UTF-8\r\n"));
+        assertTrue(body.contains("Content-Disposition: form-data; name=\"report\"\r\n" +
+                "Content-Type: application/octet-stream\r\n" +
+                "Content-Length: 13\r\n" +
+                "\r\n" +
+                "file contents\r\n"));
+        assertTrue(body.contains("Content-Disposition: form-data; name=\"log\"\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "Content-Length: 15\r\n" +
+                "\r\n" +
+                "stream contents\r\n"));
+        assertTrue(body.contains("Content-Type: image/png\r\n" +
+                "Content-Length: 3\r\n" +
+                "\r\n" +
+                "png\r\n"));
+        assertTrue(body.endsWith("--" + boundary(1) + "--\r\n"));
+    }
+
+    private String boundary(int request) {
+        return contentTypes.get(request).substring("multipart/form-data;boundary=".length());
+    }
+
+    private static BackendMessage newMessage() {
+        return new BackendMessage("test", null, 3600, false, null, JsonNodeFactory.instance.objectNode(), null);
+    }
+}
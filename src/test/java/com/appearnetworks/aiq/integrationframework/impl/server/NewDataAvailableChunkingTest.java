@@ -0,0 +1,151 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.NewDataAvailableResult;
+import com.appearnetworks.aiq.integrationframework.server.ServerException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static net.javacrumbs.jsonunit.JsonAssert.assertJsonEquals;
+import static org.junit.Assert.*;
+
+public class NewDataAvailableChunkingTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<JsonNode> received = Collections.synchronizedList(new ArrayList<JsonNode>());
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        server.handle("newdataavailable", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                JsonNode request = mapper.readTree(StubServer.readBody(exchange));
+                if ("Bearer token-1".equals(StubServer.authorization(exchange))) {
+                    StubServer.respond(exchange, 401, null);
+                } else if (request.get("users").toString().contains("fail")) {
+                    StubServer.respond(exchange, 400, "{}");
+                } else {
+                    received.add(request);
+                    StubServer.respond(exchange, 202, null);
+                }
+            }
+        });
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.newdataavailable.chunkSize", "3");
+        context = server.newContext(properties);
+        service = context.getBean(IntegrationServiceImpl.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Test
+    public void splitsUsersIntoChunks() throws IOException {
+        ObjectNode condition = (ObjectNode) mapper.readTree("{\"foo\":\"A\"}");
+
+        NewDataAvailableResult result = service.newDataAvailableForUsersChunked(
+                Arrays.asList("u1", "u2", "u3", "u4", "u5", "u6", "u7"), condition);
+
+        assertTrue(result.isSuccess());
+        assertEquals(3, result.getChunkCount());
+        assertEquals(3, received.size());
+        Set<String> users = new TreeSet<>();
+        for (JsonNode request : received) {
+            assertTrue(request.get("users").size() <= 3);
+            assertJsonEquals("true", request.get("urgent"));
+            assertJsonEquals("{\"foo\":\"A\"}", request.get("condition"));
+            for (JsonNode user : request.get("users")) {
+                users.add(user.textValue());
+            }
+        }
+        assertEquals(new TreeSet<>(Arrays.asList("u1", "u2", "u3", "u4", "u5", "u6", "u7")), users);
+    }
+
+    @Test
+    public void reportsFailedChunks() {
+        NewDataAvailableResult result = service.newDataAvailableForUsersChunked(
+                Arrays.asList("u1", "u2", "u3", "fail", "u5", "u6", "u7"));
+
+        assertFalse(result.isSuccess());
+        assertEquals(3, result.getChunkCount());
+        assertEquals(2, received.size());
+        assertEquals(1, result.getFailedChunks().size());
+        assertEquals(Arrays.asList("fail", "u5", "u6"), result.getFailedChunks().get(0).getUserIds());
+        assertTrue(String.valueOf(result.getFailedChunks().get(0).getCause()), result.getFailedChunks().get(0).getCause() instanceof ServerException);
+    }
+
+    @Test
+    public void plainMethodSendsOneRequest() {
+        service.newDataAvailableForUsers(Arrays.asList("u1", "u2", "u3", "u4", "u5", "u6", "u7"));
+
+        assertEquals(1, received.size());
+        assertEquals(7, received.get(0).get("users").size());
+    }
+
+    @Test
+    public void plainMethodThrowsFailure() {
+        try {
+            service.newDataAvailableForUsers(Arrays.asList("u1", "fail"));
+            fail("Expected ServerException");
+        } catch (ServerException e) {
+            assertEquals(400, e.getStatusCode().value());
+        }
+    }
+
+    @Test
+    public void splitsCoalescedUsersIntoChunks() throws Exception {
+        context.close();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.newdataavailable.chunkSize", "3");
+        properties.put("aiq.newdataavailable.coalesceWindow", "60000");
+        context = server.newContext(properties);
+        service = context.getBean(IntegrationServiceImpl.class);
+
+        service.newDataAvailableForUsers(Arrays.asList("u1", "u2", "u3", "u4"));
+        service.newDataAvailableForUsers(Arrays.asList("u4", "u5"));
+        service.getNewDataAvailableCoalescer().flush();
+
+        assertEquals(2, received.size());
+        Set<String> users = new TreeSet<>();
+        for (JsonNode request : received) {
+            assertTrue(request.get("users").size() <= 3);
+            for (JsonNode user : request.get("users")) {
+                users.add(user.textValue());
+            }
+        }
+        assertEquals(new TreeSet<>(Arrays.asList("u1", "u2", "u3", "u4", "u5")), users);
+    }
+
+    @Test
+    public void sendsSingleChunkWithoutSplitting() {
+        service.newDataAvailableForUsers(Arrays.asList("u1", "u2"));
+
+        assertEquals(1, received.size());
+        assertJsonEquals("{\"users\":[\"u1\",\"u2\"],\"urgent\":false}", received.get(0));
+        assertEquals(2, server.getTokenCount());
+    }
+}
@@ -0,0 +1,214 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static net.javacrumbs.jsonunit.JsonAssert.assertJsonEquals;
+import static org.junit.Assert.*;
+
+public class NewDataAvailableCoalescerTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final List<ObjectNode> sent = new CopyOnWriteArrayList<>();
+
+    private NewDataAvailableCoalescer coalescer = newCoalescer(60000, 1000);
+
+    @After
+    public void tearDown() {
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void unionsUsersAndLaunchables() throws IOException {
+        coalescer.add(json("{\"users\":[\"u1\",\"u2\"],\"urgent\":false}"));
+        coalescer.add(json("{\"users\":[\"u2\",\"u3\"],\"urgent\":false}"));
+        coalescer.add(json("{\"launchables\":[\"l1\"],\"urgent\":false}"));
+        coalescer.flush();
+
+        assertEquals(2, sent.size());
+        assertJsonEquals("{\"urgent\":false,\"users\":[\"u1\",\"u2\",\"u3\"]}", sent.get(0));
+        assertJsonEquals("{\"urgent\":false,\"launchables\":[\"l1\"]}", sent.get(1));
+        assertEquals(1.5, coalescer.getMergeRatio(), 0.001);
+    }
+
+    @Test
+    public void allReplacesEverythingElse() throws IOException {
+        coalescer.add(json("{\"users\":[\"u1\"],\"urgent\":false}"));
+        coalescer.add(json("{\"all\":true,\"urgent\":false}"));
+        coalescer.add(json("{\"launchables\":[\"l1\"],\"urgent\":false}"));
+        coalescer.flush();
+
+        assertEquals(1, sent.size());
+        assertJsonEquals("{\"urgent\":false,\"all\":true}", sent.get(0));
+    }
+
+    @Test
+    public void keepsDifferentConditionsApart() throws IOException {
+        coalescer.add(json("{\"users\":[\"u1\"],\"urgent\":true,\"condition\":{\"foo\":\"A\"}}"));
+        coalescer.add(json("{\"users\":[\"u2\"],\"urgent\":true,\"condition\":{\"foo\":\"B\"}}"));
+        coalescer.add(json("{\"users\":[\"u3\"],\"urgent\":true,\"condition\":{\"foo\":\"A\"}}"));
+        coalescer.add(json("{\"users\":[\"u4\"],\"urgent\":false}"));
+        coalescer.flush();
+
+        assertEquals(3, sent.size());
+        assertJsonEquals("{\"urgent\":true,\"condition\":{\"foo\":\"A\"},\"users\":[\"u1\",\"u3\"]}", sent.get(0));
+        assertJsonEquals("{\"urgent\":true,\"condition\":{\"foo\":\"B\"},\"users\":[\"u2\"]}", sent.get(1));
+        assertJsonEquals("{\"urgent\":false,\"users\":[\"u4\"]}", sent.get(2));
+    }
+
+    @Test
+    public void flushesAfterWindow() throws Exception {
+        coalescer.shutdown();
+        coalescer = newCoalescer(50, 1000);
+
+        coalescer.add(json("{\"users\":[\"u1\"],\"urgent\":false}"));
+        coalescer.add(json("{\"users\":[\"u2\"],\"urgent\":false}"));
+        Thread.sleep(500);
+
+        assertEquals(1, sent.size());
+        assertEquals(2, coalescer.getSubmittedCount());
+        assertEquals(1, coalescer.getSentCount());
+    }
+
+    @Test
+    public void flushesWhenFull() throws Exception {
+        coalescer.shutdown();
+        coalescer = newCoalescer(60000, 3);
+
+        coalescer.add(json("{\"users\":[\"u1\",\"u2\"],\"urgent\":false}"));
+        coalescer.add(json("{\"users\":[\"u3\"],\"urgent\":false}"));
+        Thread.sleep(500);
+
+        assertEquals(1, sent.size());
+        assertJsonEquals("{\"urgent\":false,\"users\":[\"u1\",\"u2\",\"u3\"]}", sent.get(0));
+    }
+
+    @Test
+    public void waitsWhileFullAndSending() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        coalescer.shutdown();
+        coalescer = new NewDataAvailableCoalescer(mapper, new NewDataAvailableCoalescer.Sender() {
+            @Override
+            public void send(ObjectNode request) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sent.add(request);
+            }
+        }, 60000, 2);
+
+        coalescer.add(json("{\"users\":[\"u1\",\"u2\"],\"urgent\":false}"));
+        Thread.sleep(100);
+        coalescer.add(json("{\"users\":[\"u3\",\"u4\"],\"urgent\":false}"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final ObjectNode request = json("{\"users\":[\"u5\"],\"urgent\":false}");
+            Future<?> blocked = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    coalescer.add(request);
+                }
+            });
+            try {
+                blocked.get(200, TimeUnit.MILLISECONDS);
+                fail("Expected to wait while the previous requests are sent");
+            } catch (TimeoutException expected) {
+                // still sending u1 and u2
+            }
+
+            release.countDown();
+            blocked.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        coalescer.flush();
+
+        assertJsonEquals("{\"urgent\":false,\"users\":[\"u1\",\"u2\"]}", sent.get(0));
+        assertEquals(5, countUsers());
+    }
+
+    @Test
+    public void waitsWhileFullAndFlushNotStarted() throws Exception {
+        coalescer.shutdown();
+        coalescer = newCoalescer(60000, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        ScheduledExecutorService flusher = (ScheduledExecutorService) ReflectionTestUtils.getField(coalescer, "flusher");
+        flusher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        coalescer.add(json("{\"users\":[\"u1\",\"u2\"],\"urgent\":false}"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final ObjectNode request = json("{\"users\":[\"u3\"],\"urgent\":false}");
+            Future<?> blocked = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    coalescer.add(request);
+                }
+            });
+            try {
+                blocked.get(200, TimeUnit.MILLISECONDS);
+                fail("Expected to wait until the full buffer is flushed");
+            } catch (TimeoutException expected) {
+                // the flusher has not started yet
+            }
+
+            release.countDown();
+            blocked.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        coalescer.flush();
+
+        assertEquals(2, sent.size());
+        assertJsonEquals("{\"urgent\":false,\"users\":[\"u1\",\"u2\"]}", sent.get(0));
+        assertJsonEquals("{\"urgent\":false,\"users\":[\"u3\"]}", sent.get(1));
+    }
+
+    private int countUsers() {
+        int users = 0;
+        for (ObjectNode request : sent) {
+            users += request.get("users").size();
+        }
+        return users;
+    }
+
+    private NewDataAvailableCoalescer newCoalescer(long window, int maxIds) {
+        return new NewDataAvailableCoalescer(mapper, new NewDataAvailableCoalescer.Sender() {
+            @Override
+            public void send(ObjectNode request) {
+                sent.add(request);
+            }
+        }, window, maxIds);
+    }
+
+    private ObjectNode json(String json) throws IOException {
+        return (ObjectNode) mapper.readTree(json);
+    }
+}
@@ -0,0 +1,298 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.BackendMessage;
+import com.appearnetworks.aiq.integrationframework.server.ServerException;
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.http.HttpStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OutboxTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> delivered = Collections.synchronizedList(new ArrayList<String>());
+
+    private Outbox outbox;
+
+    @After
+    public void tearDown() {
+        if (outbox != null) {
+            outbox.shutdown();
+        }
+    }
+
+    @Test
+    public void deliversInOrder() throws Exception {
+        outbox = newOutbox(1024 * 1024, new Recorder());
+
+        for (int i = 1; i <= 5; i++) {
+            outbox.append((byte) 1, ("e" + i).getBytes(StubServer.UTF8));
+        }
+        awaitDelivered(5);
+
+        assertEquals(Arrays.asList("1:e1", "1:e2", "1:e3", "1:e4", "1:e5"), delivered);
+        awaitDepth(0);
+        assertEquals(0, outbox.getLag());
+        assertEquals(5, outbox.getAppendedCount());
+        assertTrue(outbox.getSyncCount() <= 5);
+    }
+
+    @Test
+    public void retriesWhileUnavailable() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        outbox = newOutbox(1024 * 1024, new Recorder() {
+            @Override
+            public void deliver(byte type, byte[] payload) {
+                if (attempts.incrementAndGet() <= 2) {
+                    throw new ServerUnavailableException("down");
+                }
+                super.deliver(type, payload);
+            }
+        });
+
+        outbox.append((byte) 1, "e1".getBytes(StubServer.UTF8));
+        outbox.append((byte) 1, "e2".getBytes(StubServer.UTF8));
+        awaitDelivered(2);
+
+        assertEquals(Arrays.asList("1:e1", "1:e2"), delivered);
+        assertEquals(2, outbox.getRetryCount());
+    }
+
+    @Test
+    public void dropsRejectedEntries() throws Exception {
+        outbox = newOutbox(1024 * 1024, new Recorder() {
+            @Override
+            public void deliver(byte type, byte[] payload) {
+                if (type == 2) {
+                    throw new ServerException(null, HttpStatus.BAD_REQUEST, "bad");
+                }
+                super.deliver(type, payload);
+            }
+        });
+
+        outbox.append((byte) 2, "bad".getBytes(StubServer.UTF8));
+        outbox.append((byte) 1, "good".getBytes(StubServer.UTF8));
+        awaitDelivered(1);
+
+        assertEquals(Collections.singletonList("1:good"), delivered);
+        assertEquals(1, outbox.getDroppedCount());
+        awaitDepth(0);
+    }
+
+    @Test
+    public void replaysUndeliveredEntriesAfterRestart() throws Exception {
+        outbox = newOutbox(64, new Recorder() {
+            @Override
+            public void deliver(byte type, byte[] payload) {
+                if (new String(payload, StubServer.UTF8).equals("e1")) {
+                    super.deliver(type, payload);
+                } else {
+                    throw new ServerUnavailableException("down");
+                }
+            }
+        });
+        for (int i = 1; i <= 6; i++) {
+            outbox.append((byte) 1, ("e" + i).getBytes(StubServer.UTF8));
+        }
+        awaitDelivered(1);
+        awaitDepth(5);
+        outbox.shutdown();
+
+        delivered.clear();
+        outbox = newOutbox(64, new Recorder());
+        awaitDelivered(5);
+
+        assertEquals(Arrays.asList("1:e2", "1:e3", "1:e4", "1:e5", "1:e6"), delivered);
+    }
+
+    @Test
+    public void deletesDeliveredSegments() throws Exception {
+        outbox = newOutbox(64, new Recorder());
+        for (int i = 1; i <= 10; i++) {
+            outbox.append((byte) 1, ("e" + i).getBytes(StubServer.UTF8));
+        }
+        awaitDelivered(10);
+        Thread.sleep(100);
+
+        assertEquals(1, segments().length);
+    }
+
+    @Test
+    public void ignoresIncompleteLastEntry() throws Exception {
+        outbox = newOutbox(1024 * 1024, new Recorder() {
+            @Override
+            public void deliver(byte type, byte[] payload) {
+                throw new ServerUnavailableException("down");
+            }
+        });
+        outbox.append((byte) 1, "e1".getBytes(StubServer.UTF8));
+        outbox.append((byte) 1, "e2".getBytes(StubServer.UTF8));
+        outbox.shutdown();
+
+        File last = segments()[segments().length - 1];
+        try (RandomAccessFile file = new RandomAccessFile(last, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        outbox = newOutbox(1024 * 1024, new Recorder());
+        awaitDelivered(1);
+        Thread.sleep(100);
+
+        assertEquals(Collections.singletonList("1:e1"), delivered);
+        awaitDepth(0);
+    }
+
+    @Test
+    public void appendsAfterInterruptedAppend() throws Exception {
+        outbox = newOutbox(64, new Recorder());
+
+        Thread.currentThread().interrupt();
+        try {
+            outbox.append((byte) 1, "e1".getBytes(StubServer.UTF8));
+            outbox.append((byte) 1, "e2".getBytes(StubServer.UTF8));
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        outbox.append((byte) 1, "e3".getBytes(StubServer.UTF8));
+        awaitDelivered(3);
+
+        assertEquals(Arrays.asList("1:e1", "1:e2", "1:e3"), delivered);
+    }
+
+    @Test
+    public void queuesRequestsThroughIntegrationService() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        final List<JsonNode> received = Collections.synchronizedList(new ArrayList<JsonNode>());
+        StubServer server = new StubServer();
+        HttpHandler handler = new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                received.add(mapper.readTree(StubServer.readBody(exchange)));
+                StubServer.respond(exchange, 201, "{\"_id\":\"m1\"}");
+            }
+        };
+        server.handle("newdataavailable", handler);
+        server.handle("backendmessages", handler);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.outbox.directory", folder.getRoot().getPath());
+        AnnotationConfigApplicationContext context = server.newContext(properties);
+        try {
+            IntegrationServiceImpl service = context.getBean(IntegrationServiceImpl.class);
+            service.newDataAvailableForUsers(Arrays.asList("u1", "u2"));
+            service.enqueueBackendMessage(new BackendMessage("test", null, 60, false, null, mapper.createObjectNode(), null));
+            service.newDataAvailableForAllUsers();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (service.getOutbox().getDeliveredCount() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(3, received.size());
+            assertEquals("[\"u1\",\"u2\"]", received.get(0).get("users").toString());
+            assertEquals("test", received.get(1).get("type").textValue());
+            assertTrue(received.get(2).get("all").booleanValue());
+            assertEquals(3, service.getOutbox().getDeliveredCount());
+        } finally {
+            context.close();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void coalescesBeforeWritingToOutbox() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        final List<JsonNode> received = Collections.synchronizedList(new ArrayList<JsonNode>());
+        StubServer server = new StubServer();
+        server.handle("newdataavailable", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                received.add(mapper.readTree(StubServer.readBody(exchange)));
+                StubServer.respond(exchange, 202, null);
+            }
+        });
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.outbox.directory", folder.getRoot().getPath());
+        properties.put("aiq.newdataavailable.coalesceWindow", "60000");
+        AnnotationConfigApplicationContext context = server.newContext(properties);
+        try {
+            IntegrationServiceImpl service = context.getBean(IntegrationServiceImpl.class);
+            service.newDataAvailableForUsers(Collections.singletonList("u1"));
+            service.newDataAvailableForUsers(Collections.singletonList("u2"));
+            assertEquals(0, service.getOutbox().getAppendedCount());
+            service.getNewDataAvailableCoalescer().flush();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (service.getOutbox().getDeliveredCount() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, service.getOutbox().getAppendedCount());
+            assertEquals(1, received.size());
+            assertEquals("[\"u1\",\"u2\"]", received.get(0).get("users").toString());
+        } finally {
+            context.close();
+            server.stop();
+        }
+    }
+
+    private Outbox newOutbox(long segmentSize, Outbox.Deliverer deliverer) throws IOException {
+        return new Outbox(folder.getRoot(), deliverer, segmentSize, 10, 50);
+    }
+
+    private File[] segments() {
+        File[] files = folder.getRoot().listFiles();
+        List<File> segments = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".log")) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments.toArray(new File[segments.size()]);
+    }
+
+    /**
+     * An entry is acknowledged just after the deliverer has returned.
+     */
+    private void awaitDepth(long depth) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (outbox.getDepth() != depth && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(depth, outbox.getDepth());
+    }
+
+    private void awaitDelivered(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (delivered.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, delivered.size());
+    }
+
+    private class Recorder implements Outbox.Deliverer {
+        @Override
+        public void deliver(byte type, byte[] payload) {
+            delivered.add(type + ":" + new String(payload, StubServer.UTF8));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.BackendMessageReadReport;
+import com.appearnetworks.aiq.integrationframework.server.BackendMessageReadStatistics;
+import com.appearnetworks.aiq.integrationframework.server.EnrichedBackendMessage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ReadStatisticsTest {
+    private static final int READERS = 20000;
+    private static final long CREATED = 1000000;
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+
+    private String body;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        context = server.newContext(Collections.<String, Object>emptyMap());
+        service = context.getBean(IntegrationServiceImpl.class);
+
+        body = message(READERS);
+        server.handle("backendmessages", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (exchange.getRequestURI().getPath().endsWith("/missing"))
+                    StubServer.respond(exchange, 404, "{}");
+                else
+                    StubServer.respond(exchange, 200, body);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Test
+    public void aggregatesReadReports() {
+        BackendMessageReadStatistics statistics = service.fetchBackendMessageReadStatistics("m1");
+
+        assertEquals(READERS, statistics.getReadCount());
+        assertEquals(Long.valueOf(READERS / 2), statistics.getReadCountByRevision().get(1L));
+        assertEquals(Long.valueOf(READERS / 2), statistics.getReadCountByRevision().get(2L));
+        assertEquals(Long.valueOf(READERS), statistics.getReadCountByRole().get("user"));
+        assertEquals(Long.valueOf(READERS / 4), statistics.getReadCountByRole().get("admin"));
+
+        // reader i read after i seconds
+        assertEquals(0, statistics.getTimeToReadPercentile(0));
+        assertEquals((READERS / 2 - 1) * 1000L, statistics.getTimeToReadPercentile(50));
+        assertEquals((READERS - 1) * 1000L, statistics.getTimeToReadPercentile(100));
+        assertEquals((READERS / 2 - 4) * 1000L, statistics.getTimeToReadPercentile("admin", 50));
+        assertEquals(-1, statistics.getTimeToReadPercentile("guest", 50));
+    }
+
+    @Test
+    public void agreesWithFullMessage() {
+        body = message(100);
+        EnrichedBackendMessage message = service.fetchBackendMessage("m1");
+        BackendMessageReadStatistics statistics = service.fetchBackendMessageReadStatistics("m1");
+
+        assertEquals(message.getReadBy().size(), statistics.getReadCount());
+        long max = 0;
+        for (BackendMessageReadReport report : message.getReadBy()) {
+            max = Math.max(max, report.getReadTimestamp().getTime() - message.getCreated().getTime());
+        }
+        assertEquals(max, statistics.getTimeToReadPercentile(100));
+    }
+
+    @Test
+    public void missingMessageIsNull() {
+        assertNull(service.fetchBackendMessageReadStatistics("missing"));
+    }
+
+    @Test
+    public void emptyReadReports() {
+        body = message(0);
+        BackendMessageReadStatistics statistics = service.fetchBackendMessageReadStatistics("m1");
+
+        assertEquals(0, statistics.getReadCount());
+        assertTrue(statistics.getReadCountByRevision().isEmpty());
+        assertEquals(-1, statistics.getTimeToReadPercentile(95));
+    }
+
+    /**
+     * Reader {@code i} read revision {@code i % 2 + 1} after {@code i} seconds, every fourth reader is also an admin.
+     * The message fields the times are counted from come after the read reports.
+     */
+    private static String message(int readers) {
+        StringBuilder json = new StringBuilder("{\"_id\":\"m1\",\"type\":\"news\",\"payload\":{\"text\":\"hello\"},\"readBy\":[");
+        for (int i = 0; i < readers; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"user\":{\"_id\":\"u").append(i).append("\",\"username\":\"user").append(i)
+                    .append("\",\"profile\":{\"team\":\"t").append(i % 10).append("\"},\"roles\":[\"user\"")
+                    .append(i % 4 == 0 ? ",\"admin\"" : "").append("]},\"revision\":").append(i % 2 + 1)
+                    .append(",\"readTimestamp\":").append(CREATED + i * 1000L).append('}');
+        }
+        json.append("],\"timeToLive\":3600,\"activeFrom\":null,\"created\":").append(CREATED).append('}');
+        return json.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.http.HttpHeaders;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RetryTest {
+    private static final String USERS = "/api/integration/users";
+
+    private final AtomicInteger unavailable = new AtomicInteger();
+    private volatile String retryAfter;
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        server.handle("users", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (unavailable.getAndDecrement() > 0) {
+                    if (retryAfter != null) exchange.getResponseHeaders().set("Retry-After", retryAfter);
+                    StubServer.respond(exchange, 503, null);
+                } else {
+                    StubServer.respond(exchange, 200, "[]");
+                }
+            }
+        });
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.retry.maxAttempts", "4");
+        properties.put("aiq.retry.initialBackoff", "10");
+        properties.put("aiq.retry.deadline", "3000");
+        context = server.newContext(properties);
+        service = context.getBean(IntegrationServiceImpl.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Test
+    public void retriesUnavailableServer() {
+        unavailable.set(2);
+
+        assertTrue(service.fetchUsers().isEmpty());
+        assertEquals(3, server.getRequestCount(USERS));
+        assertEquals(2, service.getRetryPolicy().getRetryCount());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        unavailable.set(10);
+
+        try {
+            service.fetchUsers();
+            fail("Expected ServerUnavailableException");
+        } catch (ServerUnavailableException expected) {
+        }
+        assertEquals(4, server.getRequestCount(USERS));
+        assertEquals(1, service.getRetryPolicy().getExhaustedCount());
+    }
+
+    @Test
+    public void honoursRetryAfter() {
+        unavailable.set(1);
+        retryAfter = "1";
+
+        long started = System.currentTimeMillis();
+        service.fetchUsers();
+
+        assertTrue(System.currentTimeMillis() - started >= 1000);
+        assertEquals(1000, service.getRetryPolicy().getWaitedMillis());
+    }
+
+    @Test
+    public void stopsAtDeadline() {
+        unavailable.set(10);
+        retryAfter = "5";
+
+        long started = System.currentTimeMillis();
+        try {
+            service.fetchUsers();
+            fail("Expected ServerUnavailableException");
+        } catch (ServerUnavailableException e) {
+            assertEquals(5, e.getRetryAfterSeconds());
+        }
+        assertTrue(System.currentTimeMillis() - started < 3000);
+        assertEquals(1, server.getRequestCount(USERS));
+    }
+
+    @Test
+    public void parsesRetryAfterDate() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setDate("Retry-After", System.currentTimeMillis() + 10000);
+
+        int seconds = IntegrationServiceImpl.retryAfterSeconds(headers);
+        assertTrue(String.valueOf(seconds), seconds >= 9 && seconds <= 11);
+    }
+}
@@ -0,0 +1,111 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.BackendMessage;
+import com.appearnetworks.aiq.integrationframework.server.BackendMessageNotification;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares writing a backend message the old way, converted to a tree by one mapper and written by another,
+ * with writing it directly through a cached {@link ObjectWriter}.
+ * <p/>
+ * Not run by the default build, run it with {@code mvn -Pbenchmark test}. Besides printing time and allocation per
+ * call, it checks that both ways write the same JSON and that the direct way allocates less.
+ */
+public class SerializationBenchmark {
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    private static final OutputStream NULL = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Test
+    public void writeBackendMessage() throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+        final ObjectMapper converterMapper = new ObjectMapper();
+        final ObjectWriter writer = new JsonHttpMessageConverter(mapper).writerFor(BackendMessage.class);
+
+        ObjectNode payload = mapper.createObjectNode();
+        for (int i = 0; i < 20; i++) {
+            payload.put("field" + i, "value " + i);
+        }
+        final BackendMessage message = new BackendMessage("news", new Date(), 3600, true, "launchable", payload,
+                new BackendMessageNotification(true, false, "New article", null));
+
+        Task tree = new Task() {
+            @Override
+            public void run(OutputStream out) throws IOException {
+                ObjectNode request = mapper.valueToTree(message);
+                JsonGenerator generator = converterMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+                converterMapper.writeValue(generator, request);
+            }
+        };
+        Task direct = new Task() {
+            @Override
+            public void run(OutputStream out) throws IOException {
+                JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+                writer.writeValue(generator, message);
+            }
+        };
+
+        assertEquals(mapper.readTree(write(tree)), mapper.readTree(write(direct)));
+
+        long treeAllocated = 0;
+        long directAllocated = 0;
+        for (int round = 0; round < 3; round++) {
+            treeAllocated = measure("valueToTree + writeValue", tree);
+            directAllocated = measure("cached ObjectWriter     ", direct);
+        }
+        assertTrue(directAllocated < treeAllocated);
+    }
+
+    private static byte[] write(Task task) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        task.run(out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return bytes allocated per call
+     */
+    private static long measure(String name, Task task) throws IOException {
+        for (int i = 0; i < WARMUP; i++) {
+            task.run(NULL);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long started = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            task.run(NULL);
+        }
+        long elapsed = System.nanoTime() - started;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        System.out.printf("%s  %8.0f ns/op  %8.0f B/op  %10.0f ops/s%n", name,
+                (double) elapsed / ITERATIONS, (double) allocated / ITERATIONS, ITERATIONS * 1e9 / elapsed);
+        return allocated / ITERATIONS;
+    }
+
+    private interface Task {
+        void run(OutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,110 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.EnrichedBackendMessage;
+import com.appearnetworks.aiq.integrationframework.server.ServerException;
+import com.appearnetworks.aiq.integrationframework.server.User;
+import com.appearnetworks.aiq.integrationframework.server.Visitor;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StreamingListTest {
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        context = server.newContext(Collections.<String, Object>emptyMap());
+        service = context.getBean(IntegrationServiceImpl.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Test
+    public void visitsUsersInOrder() {
+        server.handle("users", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if ("Bearer token-1".equals(StubServer.authorization(exchange)))
+                    StubServer.respond(exchange, 401, null);
+                else
+                    StubServer.respond(exchange, 200, "[" +
+                            "{\"_id\":\"u1\",\"username\":\"alice\",\"roles\":[\"admin\"],\"profile\":{\"site\":\"A\"}}," +
+                            "{\"_id\":\"u2\",\"username\":\"bob\",\"roles\":[],\"unknown\":{\"x\":[1,2]}}" +
+                            "]");
+            }
+        });
+
+        final List<User> users = new ArrayList<>();
+        service.forEachUser(new Visitor<User>() {
+            @Override
+            public void visit(User user) {
+                users.add(user);
+            }
+        });
+
+        assertEquals(2, users.size());
+        assertEquals("u1", users.get(0).get_id());
+        assertEquals("A", users.get(0).getProfile().get("site"));
+        assertEquals(Arrays.asList("admin"), users.get(0).getRoles());
+        assertEquals("bob", users.get(1).getUsername());
+        assertEquals(2, server.getTokenCount());
+    }
+
+    @Test
+    public void passesBackendMessageQuery() {
+        final List<String> queries = new ArrayList<>();
+        server.handle("backendmessages", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                queries.add(exchange.getRequestURI().getQuery());
+                StubServer.respond(exchange, 200, "[]");
+            }
+        });
+
+        final List<EnrichedBackendMessage> messages = new ArrayList<>();
+        service.forEachBackendMessage("news", false, new Visitor<EnrichedBackendMessage>() {
+            @Override
+            public void visit(EnrichedBackendMessage message) {
+                messages.add(message);
+            }
+        });
+
+        assertTrue(messages.isEmpty());
+        assertEquals(Arrays.asList("type=news&withPayload=false"), queries);
+    }
+
+    @Test(expected = ServerException.class)
+    public void rejectsNonArray() {
+        server.handle("users", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                StubServer.respond(exchange, 200, "{\"_id\":\"u1\"}");
+            }
+        });
+
+        service.forEachUser(new Visitor<User>() {
+            @Override
+            public void visit(User user) {
+                fail("No users expected");
+            }
+        });
+    }
+}
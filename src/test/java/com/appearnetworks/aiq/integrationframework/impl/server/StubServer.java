@@ -0,0 +1,186 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal local AIQ server for exercising {@link IntegrationServiceImpl} over real HTTP.
+ * <p/>
+ * Serves the org root menu and the token endpoint, issuing tokens {@code token-1}, {@code token-2}, ...
+ * Other paths below {@code /api/integration/} are served by handlers registered with {@link #handle}.
+ */
+class StubServer {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String[] LINKS = {
+            "clientsessions", "newdataavailable", "backendcontext", "backendmessages", "validatetoken", "adapter", "users"
+    };
+
+    private final HttpServer server;
+    private final Map<String, HttpHandler> handlers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger tokens = new AtomicInteger();
+
+    private volatile long tokenDelay;
+    private volatile String expiresIn = "3600";
+    private volatile boolean available = true;
+    private volatile String linkHost;
+
+    StubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                dispatch(exchange);
+            }
+        });
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/api/";
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    void handle(String link, HttpHandler handler) {
+        handlers.put("/api/integration/" + link, handler);
+    }
+
+    void setTokenDelay(long millis) {
+        tokenDelay = millis;
+    }
+
+    void setExpiresIn(String expiresIn) {
+        this.expiresIn = expiresIn;
+    }
+
+    /**
+     * @param available {@code false} to answer all requests with 503 (Service Unavailable)
+     */
+    void setAvailable(boolean available) {
+        this.available = available;
+    }
+
+    /**
+     * @param host to send absolute integration links for this server with that host name, {@code null} for relative links
+     */
+    void setLinkHost(String host) {
+        this.linkHost = host;
+    }
+
+    int getTokenCount() {
+        return tokens.get();
+    }
+
+    int getRequestCount(String path) {
+        AtomicInteger count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Build an {@link IntegrationServiceImpl} wired against this server.
+     *
+     * @param properties additional properties, e.g. to enable optional features
+     */
+    AnnotationConfigApplicationContext newContext(Map<String, Object> properties) {
+        Map<String, Object> all = new HashMap<>();
+        all.put("aiq.url", getUrl());
+        all.put("aiq.orgname", "test");
+        all.put("aiq.solution", "test");
+        all.put("aiq.username", "admin");
+        all.put("aiq.password", "test");
+        all.put("aiq.links.warmup", "false");
+        all.put("aiq.links.refreshInterval", "0");
+        all.putAll(properties);
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("stub", all));
+        context.register(PropertySourcesPlaceholderConfigurer.class, HttpTransport.class, IntegrationServiceImpl.class);
+        context.refresh();
+        return context;
+    }
+
+    static String authorization(HttpExchange exchange) {
+        return exchange.getRequestHeaders().getFirst("Authorization");
+    }
+
+    static String readBody(HttpExchange exchange) throws IOException {
+        return StreamUtils.copyToString(exchange.getRequestBody(), UTF8);
+    }
+
+    static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        if (json == null) {
+            // the JDK server may drop a kept-alive connection after a response without body
+            exchange.getResponseHeaders().set("Connection", "close");
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            byte[] body = json.getBytes(UTF8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    private void dispatch(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        requestCounts.putIfAbsent(path, new AtomicInteger());
+        requestCounts.get(path).incrementAndGet();
+
+        if (!available) {
+            respond(exchange, 503, null);
+        } else if (path.equals("/api/")) {
+            respond(exchange, 200, "{\"links\":{\"token\":\"/api/token\"}}");
+        } else if (path.equals("/api/token")) {
+            if (tokenDelay > 0) {
+                try {
+                    Thread.sleep(tokenDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String base = linkHost == null ? "" : "http://" + linkHost + ":" + server.getAddress().getPort();
+            StringBuilder links = new StringBuilder();
+            for (String link : LINKS) {
+                if (links.length() > 0) links.append(',');
+                links.append('"').append(link).append("\":\"").append(base).append("/api/integration/").append(link).append('"');
+            }
+            respond(exchange, 200, "{\"access_token\":\"token-" + tokens.incrementAndGet() + "\",\"token_type\":\"bearer\"," +
+                    "\"expires_in\":\"" + expiresIn + "\",\"links\":{" + links + "}}");
+        } else {
+            HttpHandler handler = handlers.get(path);
+            if (handler == null) {
+                for (Map.Entry<String, HttpHandler> entry : handlers.entrySet()) {
+                    if (path.startsWith(entry.getKey() + "/")) handler = entry.getValue();
+                }
+            }
+            if (handler == null) {
+                respond(exchange, 404, null);
+            } else {
+                handler.handle(exchange);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TokenRefreshTest {
+    private static final int THREADS = 20;
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        context = server.newContext(Collections.<String, Object>emptyMap());
+        service = context.getBean(IntegrationServiceImpl.class);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        context.close();
+        server.stop();
+    }
+
+    @Test
+    public void concurrentCallersShareOneTokenRequest() throws Exception {
+        server.setTokenDelay(200);
+
+        List<String> tokens = runConcurrently(new Callable<String>() {
+            @Override
+            public String call() {
+                return service.fetchUserToken();
+            }
+        });
+
+        assertEquals(1, server.getTokenCount());
+        assertEquals(1, service.getTokenRefreshCount());
+        assertEquals(THREADS - 1, service.getTokenRefreshJoinedCount());
+        for (String token : tokens) {
+            assertEquals("token-1", token);
+        }
+    }
+
+    @Test
+    public void rejectedTokenIsRefreshedOnce() throws Exception {
+        server.handle("users", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if ("Bearer token-1".equals(StubServer.authorization(exchange)))
+                    StubServer.respond(exchange, 401, null);
+                else
+                    StubServer.respond(exchange, 200, "[]");
+            }
+        });
+        assertEquals("token-1", service.fetchUserToken());
+        server.setTokenDelay(200);
+
+        runConcurrently(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return service.fetchUsers();
+            }
+        });
+
+        assertEquals(2, server.getTokenCount());
+        assertEquals("token-2", service.fetchUserToken());
+    }
+
+    @Test
+    public void tokenIsRenewedBeforeItExpires() throws Exception {
+        server.setExpiresIn("2");
+        context.close();
+        context = server.newContext(Collections.<String, Object>singletonMap("aiq.token.renewBefore", "1"));
+        service = context.getBean(IntegrationServiceImpl.class);
+
+        assertEquals("token-1", service.fetchUserToken());
+        Thread.sleep(1500);
+
+        assertEquals(2, server.getTokenCount());
+        assertEquals("token-2", service.fetchUserToken());
+        assertEquals(2, service.getTokenRefreshCount());
+    }
+
+    private <T> List<T> runConcurrently(final Callable<T> call) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    start.await();
+                    return call.call();
+                }
+            }));
+        }
+        start.countDown();
+
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,113 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.IntegrationService;
+import com.appearnetworks.aiq.integrationframework.server.ServerUnavailableException;
+import com.appearnetworks.aiq.integrationframework.server.User;
+import com.appearnetworks.aiq.integrationframework.server.Visitor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class UserDirectoryImplTest {
+    private IntegrationService integrationService;
+    private UserDirectoryImpl directory;
+
+    private volatile List<User> users;
+
+    @Before
+    public void setUp() {
+        integrationService = mock(IntegrationService.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) {
+                Visitor<User> visitor = (Visitor<User>) invocation.getArguments()[0];
+                for (User user : users) {
+                    visitor.visit(user);
+                }
+                return null;
+            }
+        }).when(integrationService).forEachUser(Matchers.<Visitor<User>>any());
+
+        users = Arrays.asList(
+                user("u1", profile("site", "A"), "admin", "sales"),
+                user("u2", profile("site", "B"), "sales"),
+                user("u3", profile("site", "A")));
+
+        directory = new UserDirectoryImpl(integrationService, 0);
+        directory.init();
+    }
+
+    @After
+    public void tearDown() {
+        directory.destroy();
+    }
+
+    @Test
+    public void indexesRolesAndProfiles() {
+        assertEquals("u2", directory.getUser("u2").get_id());
+        assertNull(directory.getUser("u4"));
+        assertEquals(3, directory.getUsers().size());
+        assertEquals(new HashSet<>(Arrays.asList("u1", "u2")), directory.getUserIdsWithRole("sales"));
+        assertEquals(Collections.singleton("u1"), directory.getUserIdsWithRole("admin"));
+        assertTrue(directory.getUserIdsWithRole("none").isEmpty());
+        assertEquals(new HashSet<>(Arrays.asList("u1", "u3")), directory.getUserIdsWithProfile("site", "A"));
+        assertTrue(directory.getUserIdsWithProfile("site", "C").isEmpty());
+
+        verify(integrationService, times(1)).forEachUser(Matchers.<Visitor<User>>any());
+    }
+
+    @Test
+    public void sharesRoleStrings() {
+        assertSame(directory.getUser("u1").getRoles().get(1), directory.getUser("u2").getRoles().get(0));
+    }
+
+    @Test
+    public void refreshReplacesUsers() {
+        directory.getUser("u1");
+        users = Collections.singletonList(user("u4", profile("site", "A"), "admin"));
+        directory.refresh();
+
+        assertNull(directory.getUser("u1"));
+        assertEquals(Collections.singleton("u4"), directory.getUserIdsWithRole("admin"));
+        assertTrue(directory.getUserIdsWithRole("sales").isEmpty());
+        assertEquals(2, directory.getRefreshCount());
+    }
+
+    @Test
+    public void keepsUsersWhenRefreshFails() throws Exception {
+        directory.destroy();
+        directory = new UserDirectoryImpl(integrationService, 1);
+        directory.init();
+        directory.getUser("u1");
+
+        doThrow(new ServerUnavailableException()).when(integrationService).forEachUser(Matchers.<Visitor<User>>any());
+        Thread.sleep(1500);
+
+        assertEquals(1, directory.getFailedRefreshCount());
+        assertNotNull(directory.getUser("u1"));
+    }
+
+    private static User user(String id, Map<String, String> profile, String... roles) {
+        return new User(id, id, null, null, profile, Arrays.asList(roles));
+    }
+
+    private static Map<String, String> profile(String key, String value) {
+        Map<String, String> profile = new HashMap<>();
+        profile.put(key, new String(value));
+        return profile;
+    }
+}
@@ -0,0 +1,147 @@
+package com.appearnetworks.aiq.integrationframework.impl.server;
+
+import com.appearnetworks.aiq.integrationframework.server.User;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UserTokenCacheTest {
+    private static final String VALIDATETOKEN = "/api/integration/validatetoken";
+
+    private StubServer server;
+    private AnnotationConfigApplicationContext context;
+    private IntegrationServiceImpl service;
+
+    private volatile CountDownLatch validating;
+    private volatile CountDownLatch invalidated;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+        server.handle("validatetoken", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String body = StubServer.readBody(exchange);
+                if (validating != null) {
+                    validating.countDown();
+                    try {
+                        invalidated.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (body.contains("good"))
+                    StubServer.respond(exchange, 200, "{\"user\":{\"_id\":\"u1\",\"username\":\"alice\",\"roles\":[]}}");
+                else
+                    StubServer.respond(exchange, 400, "{}");
+            }
+        });
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("aiq.validatetoken.cacheSize", "2");
+        properties.put("aiq.validatetoken.negativeTtl", "0");
+        context = server.newContext(properties);
+        service = context.getBean(IntegrationServiceImpl.class);
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+        server.stop();
+    }
+
+    @Test
+    public void cachesValidTokens() {
+        User user = service.validateUserToken("good-1");
+        assertEquals("u1", user.get_id());
+        assertSame(user, service.validateUserToken("good-1"));
+
+        assertEquals(1, server.getRequestCount(VALIDATETOKEN));
+        assertEquals(1, service.getUserTokenCache().getHitCount());
+        assertEquals(1, service.getUserTokenCache().getMissCount());
+    }
+
+    @Test
+    public void expiresInvalidTokens() {
+        assertNull(service.validateUserToken("bad"));
+        assertNull(service.validateUserToken("bad"));
+
+        assertEquals(2, server.getRequestCount(VALIDATETOKEN));
+    }
+
+    @Test
+    public void invalidatesToken() {
+        service.validateUserToken("good-1");
+        service.invalidateUserToken("good-1");
+        service.validateUserToken("good-1");
+
+        assertEquals(2, server.getRequestCount(VALIDATETOKEN));
+    }
+
+    @Test
+    public void invalidatesAllTokensOfUser() {
+        service.validateUserToken("good-1");
+        service.validateUserToken("good-2");
+        service.invalidateUserTokens("u1");
+
+        assertEquals(0, service.getUserTokenCache().size());
+    }
+
+    @Test
+    public void doesNotCacheTokenValidatedDuringLogout() throws Exception {
+        validating = new CountDownLatch(1);
+        invalidated = new CountDownLatch(1);
+        Thread validation = new Thread() {
+            @Override
+            public void run() {
+                service.validateUserToken("good-1");
+            }
+        };
+        validation.start();
+        assertTrue(validating.await(5, TimeUnit.SECONDS));
+        service.invalidateUserTokens("u1");
+        invalidated.countDown();
+        validation.join(5000);
+
+        assertEquals(0, service.getUserTokenCache().size());
+        validating = null;
+        service.validateUserToken("good-1");
+        assertEquals(2, server.getRequestCount(VALIDATETOKEN));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        service.validateUserToken("good-1");
+        service.validateUserToken("good-2");
+        service.validateUserToken("good-1");
+        service.validateUserToken("good-3");
+        service.validateUserToken("good-1");
+
+        assertEquals(3, server.getRequestCount(VALIDATETOKEN));
+        assertEquals(1, service.getUserTokenCache().getEvictionCount());
+    }
+
+    @Test
+    public void disabledByDefault() {
+        context.close();
+        context = server.newContext(Collections.<String, Object>emptyMap());
+        service = context.getBean(IntegrationServiceImpl.class);
+
+        assertNull(service.getUserTokenCache());
+        service.validateUserToken("good-1");
+        service.validateUserToken("good-1");
+
+        assertEquals(2, server.getRequestCount(VALIDATETOKEN));
+    }
+}
@@ -3,6 +3,7 @@ package com.appearnetworks.aiq.integrationframework.integration;
 import com.appearnetworks.aiq.integrationframework.impl.ServerRegistrator;
 import com.appearnetworks.aiq.integrationframework.impl.integration.IntegrationProtocol;
 import com.appearnetworks.aiq.integrationframework.impl.integration.LogoutRequest;
+import com.appearnetworks.aiq.integrationframework.server.IntegrationService;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -79,6 +80,9 @@ public class IntegrationProtocolTest {
     @Mock
     private IntegrationAdapter integrationAdapterMock;
 
+    @Mock
+    private IntegrationService integrationServiceMock;
+
     @Before
     public void setup() {
         mockMvc = MockMvcBuilders.webAppContextSetup(this.wac)
@@ -87,6 +91,7 @@ public class IntegrationProtocolTest {
 
         MockitoAnnotations.initMocks(this);
         ReflectionTestUtils.setField(controller, "integrationAdapter", integrationAdapterMock);
+        ReflectionTestUtils.setField(controller, "integrationService", integrationServiceMock);
     }
 
     @Test
@@ -513,6 +518,7 @@ public class IntegrationProtocolTest {
                 .content(mapper.writeValueAsString(new LogoutRequest(USER_ID))))
                 .andExpect(status().isNoContent());
 
+        verify(integrationServiceMock).invalidateUserTokens(USER_ID);
         verify(integrationAdapterMock).logout(USER_ID);
     }
 